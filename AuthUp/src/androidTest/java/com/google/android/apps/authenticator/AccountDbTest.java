@@ -16,6 +16,7 @@
 
 package com.google.android.apps.authenticator;
 
+import com.google.android.apps.authenticator.AccountDb.Account;
 import com.google.android.apps.authenticator.AccountDb.OtpType;
 import com.google.android.apps.authenticator.PasscodeGenerator.Signer;
 import com.google.android.apps.authenticator.testability.DependencyInjector;
@@ -27,6 +28,7 @@ import android.test.MoreAsserts;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Unit tests for {@link AccountDb}.
@@ -86,6 +88,33 @@ public class AccountDbTest extends  AndroidTestCase {
     assertFalse(accountDb.nameExists("marywinehouse@aol.com")); // non-existent email.
   }
 
+  public void testGetAccounts() throws Exception {
+    assertEquals(0, accountDb.getAccounts().size());
+
+    addSomeRecords();
+    accountDb.update("maryweiss@yahoo.com", SECRET, "maryweiss@yahoo.com", OtpType.HOTP, 5,
+        "github");
+    List<Account> accounts = accountDb.getAccounts();
+    assertEquals(3, accounts.size());
+    accountDb.getNames(result);
+    int i = 0;
+    for (String name : result) {
+      assertEquals(name, accounts.get(i++).name);
+    }
+
+    Account account = accounts.get(2);
+    assertEquals("maryweiss@yahoo.com", account.name);
+    assertEquals(OtpType.HOTP, account.type);
+    assertEquals(5, (int) account.counter);
+    assertEquals("github", account.providerType);
+    assertEquals(OtpType.TOTP, accounts.get(0).type);
+
+    try {
+      accounts.clear();
+      fail();
+    } catch (UnsupportedOperationException expected) {}
+  }
+
   public void testGetSecret() throws Exception {
     addSomeRecords();
     assertEquals(SECRET, accountDb.getSecret("johndoe@gmail.com"));
@@ -102,6 +131,105 @@ public class AccountDbTest extends  AndroidTestCase {
     assertEquals(0, (int) accountDb.getCounter("amywinehouse@aol.com"));  // TOTP record
   }
 
+  public void testIncrementAndGetCounter() throws Exception {
+    addSomeRecords();
+    assertEquals(1, (int) accountDb.incrementAndGetCounter("maryweiss@yahoo.com"));
+    assertEquals(2, (int) accountDb.incrementAndGetCounter("maryweiss@yahoo.com"));
+    assertEquals(2, (int) accountDb.getCounter("maryweiss@yahoo.com"));
+    assertNull(accountDb.incrementAndGetCounter("marywinehouse@yahoo.com")); // non-existent record.
+  }
+
+  public void testIncrementAndGetCounterFromConcurrentThreads() throws Exception {
+    addSomeRecords();
+    final int threadCount = 4;
+    final int incrementsPerThread = 50;
+    final boolean[] counterSeen = new boolean[threadCount * incrementsPerThread + 1];
+    Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < incrementsPerThread; j++) {
+            int counter = accountDb.incrementAndGetCounter("maryweiss@yahoo.com");
+            synchronized (counterSeen) {
+              assertFalse(counterSeen[counter]);
+              counterSeen[counter] = true;
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(threadCount * incrementsPerThread,
+        (int) accountDb.getCounter("maryweiss@yahoo.com"));
+  }
+
+  public void testLookupsServedFromCache() throws Exception {
+    addSomeRecords();
+    long misses = accountDb.getCacheMissCount();
+    long hits = accountDb.getCacheHitCount();
+
+    // Accounts written through this instance are already cached
+    assertEquals(SECRET, accountDb.getSecret("johndoe@gmail.com"));
+    assertEquals(OtpType.TOTP, accountDb.getType("johndoe@gmail.com"));
+    assertEquals(misses, accountDb.getCacheMissCount());
+    assertEquals(hits + 2, accountDb.getCacheHitCount());
+
+    // Non-existent accounts are looked up in the database once
+    assertFalse(accountDb.nameExists("marywinehouse@aol.com"));
+    assertFalse(accountDb.nameExists("marywinehouse@aol.com"));
+    assertEquals(misses + 1, accountDb.getCacheMissCount());
+
+    // Writes are reflected by the cache
+    accountDb.setType("johndoe@gmail.com", OtpType.HOTP);
+    assertEquals(1, (int) accountDb.incrementAndGetCounter("johndoe@gmail.com"));
+    assertEquals(OtpType.HOTP, accountDb.getType("johndoe@gmail.com"));
+    assertEquals(1, (int) accountDb.getCounter("johndoe@gmail.com"));
+    accountDb.update("johnnydoe@gmail.com", SECRET2, "johndoe@gmail.com", OtpType.TOTP, null,
+        "github");
+    assertFalse(accountDb.nameExists("johndoe@gmail.com"));
+    assertEquals(SECRET2, accountDb.getSecret("johnnydoe@gmail.com"));
+    assertEquals("github", accountDb.getProviderType("johnnydoe@gmail.com"));
+    accountDb.delete("johnnydoe@gmail.com");
+    assertFalse(accountDb.nameExists("johnnydoe@gmail.com"));
+    assertEquals(misses + 2, accountDb.getCacheMissCount());
+
+    // A fresh instance reads the same data from the database
+    AccountDb otherAccountDb = new AccountDb(DependencyInjector.getContext());
+    try {
+      assertEquals(SECRET2, otherAccountDb.getSecret("amywinehouse@aol.com"));
+      assertFalse(otherAccountDb.nameExists("johnnydoe@gmail.com"));
+      assertEquals(2, otherAccountDb.getCacheMissCount());
+    } finally {
+      otherAccountDb.close();
+    }
+
+    accountDb.deleteAllData();
+    assertFalse(accountDb.nameExists("amywinehouse@aol.com"));
+  }
+
+  public void testCacheBounded() throws Exception {
+    addSomeRecords();
+    assertEquals(SECRET, accountDb.getSecret("johndoe@gmail.com"));
+    long misses = accountDb.getCacheMissCount();
+
+    // Lookups of non-existent accounts evict the least recently used entries
+    for (int i = 0; i < AccountDb.MAX_CACHED_ACCOUNTS; i++) {
+      assertFalse(accountDb.nameExists("nobody" + i + "@example.com"));
+    }
+    assertEquals(misses + AccountDb.MAX_CACHED_ACCOUNTS, accountDb.getCacheMissCount());
+    assertEquals(SECRET, accountDb.getSecret("johndoe@gmail.com"));
+    assertEquals(misses + AccountDb.MAX_CACHED_ACCOUNTS + 1, accountDb.getCacheMissCount());
+
+    // Recently used entries are kept
+    assertFalse(accountDb.nameExists("nobody" + (AccountDb.MAX_CACHED_ACCOUNTS - 1)
+        + "@example.com"));
+    assertEquals(misses + AccountDb.MAX_CACHED_ACCOUNTS + 1, accountDb.getCacheMissCount());
+  }
+
   public void testGetAndSetType() throws Exception {
     addSomeRecords();
     assertTrue(accountDb.getType("johndoe@gmail.com").equals(OtpType.TOTP));
@@ -16,7 +16,12 @@
 
 package com.google.android.apps.authenticator;
 
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 import com.google.android.apps.authenticator.AccountDb.OtpType;
@@ -25,10 +30,15 @@ import com.google.android.apps.authenticator.testability.DependencyInjector;
 import android.test.AndroidTestCase;
 import android.test.MoreAsserts;
 
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Unit tests for {@link OtpProvider}.
@@ -58,6 +68,7 @@ public class OtpProviderTest extends  AndroidTestCase {
 
   @Override
   protected void tearDown() throws Exception {
+    otpProvider.close();
     DependencyInjector.close();
 
     super.tearDown();
@@ -99,6 +110,108 @@ public class OtpProviderTest extends  AndroidTestCase {
     assertEquals("817746", otpProvider.getNextCode("amywinehouse@aol.com"));
   }
 
+  public void testGetNextCodeAfterSecretChanged() throws Exception {
+    addSomeRecords();
+    withTotpClockCurrentTimeSeconds(OtpProvider.DEFAULT_INTERVAL * 1234567890L);
+    assertEquals("817746", otpProvider.getNextCode("amywinehouse@aol.com"));
+
+    // The cached generator for the account must not be used once its secret changes
+    accountDb.update(
+        "amywinehouse@aol.com", SECRET, "amywinehouse@aol.com", OtpType.TOTP, null);
+    withTotpClockCurrentTimeSeconds(OtpProvider.DEFAULT_INTERVAL * 1);
+    assertEquals("683298", otpProvider.getNextCode("amywinehouse@aol.com"));
+  }
+
+  public void testTotpCodeCachedWithinStep() throws Exception {
+    addSomeRecords();
+    withTotpClockCurrentTimeSeconds(OtpProvider.DEFAULT_INTERVAL * 1234567890L);
+    assertEquals("817746", otpProvider.getNextCode("amywinehouse@aol.com"));
+    withTotpClockCurrentTimeSeconds(OtpProvider.DEFAULT_INTERVAL * 1234567890L + 29);
+    assertEquals("817746", otpProvider.getNextCode("amywinehouse@aol.com"));
+
+    // Secret changed within the step
+    accountDb.update(
+        "amywinehouse@aol.com", SECRET, "amywinehouse@aol.com", OtpType.TOTP, null);
+    String code = otpProvider.getNextCode("amywinehouse@aol.com");
+    assertFalse("817746".equals(code));
+    assertEquals(code, otpProvider.getCurrentTotpCodes().get("amywinehouse@aol.com"));
+
+    // Time correction changed within the step
+    doReturn(3 * Utilities.MINUTE_IN_MILLIS + 250).when(mockTotpClock).getTimeCorrectionMillis();
+    assertEquals(code, otpProvider.getNextCode("amywinehouse@aol.com"));
+
+    // Next step
+    withTotpClockCurrentTimeSeconds(OtpProvider.DEFAULT_INTERVAL * 1);
+    assertEquals("683298", otpProvider.getNextCode("amywinehouse@aol.com"));
+  }
+
+  public void testGetCurrentTotpCodes() throws Exception {
+    MoreAsserts.assertEmpty(otpProvider.getCurrentTotpCodes());
+
+    addSomeRecords();
+    withTotpClockCurrentTimeSeconds(OtpProvider.DEFAULT_INTERVAL * 1234567890L);
+    Map<String, String> expected = new LinkedHashMap<String, String>();
+    expected.put("johndoe@gmail.com", otpProvider.getNextCode("johndoe@gmail.com"));
+    expected.put("amywinehouse@aol.com", "817746");
+    assertEquals(expected, otpProvider.getCurrentTotpCodes());
+
+    // HOTP counters must not be advanced
+    assertEquals(0, accountDb.getCounter("maryweiss@yahoo.com").intValue());
+  }
+
+  public void testGetCurrentTotpCodesWithBulkExecutor() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    OtpProvider parallelOtpProvider =
+        new OtpProvider(OtpProvider.DEFAULT_INTERVAL, accountDb, mockTotpClock, executor);
+    OtpProvider serialOtpProvider =
+        new OtpProvider(OtpProvider.DEFAULT_INTERVAL, accountDb, mockTotpClock, null);
+    try {
+      for (int i = 0; i < OtpProvider.MIN_ACCOUNTS_PER_BULK_TASK * 5; i++) {
+        String name = "user" + i + "@example.com";
+        accountDb.update(name, (i % 2 == 0) ? SECRET : SECRET2, name, OtpType.TOTP, null);
+      }
+      withTotpClockCurrentTimeSeconds(OtpProvider.DEFAULT_INTERVAL * 1234567890L);
+
+      Map<String, String> codes = parallelOtpProvider.getCurrentTotpCodes();
+      assertEquals(serialOtpProvider.getCurrentTotpCodes(), codes);
+      assertEquals(OtpProvider.MIN_ACCOUNTS_PER_BULK_TASK * 5, codes.size());
+      assertEquals("817746", codes.get("user1@example.com"));
+
+      // Providers created for the app use the shared executor
+      assertEquals(codes, otpProvider.getCurrentTotpCodes());
+    } finally {
+      parallelOtpProvider.close();
+      serialOtpProvider.close();
+      executor.shutdown();
+    }
+  }
+
+  public void testTimeCorrectionReadOncePerCall() throws Exception {
+    addSomeRecords();
+    reset(mockTotpClock);
+    withTotpClockCurrentTimeSeconds(OtpProvider.DEFAULT_INTERVAL * 1234567890L);
+    otpProvider.getNextCode("amywinehouse@aol.com");
+    verify(mockTotpClock).getTimeCorrectionMillis();
+    verify(mockTotpClock, never()).currentTimeMillis();
+
+    reset(mockTotpClock);
+    withTotpClockCurrentTimeSeconds(OtpProvider.DEFAULT_INTERVAL * 1234567890L);
+    otpProvider.getCurrentTotpCodes();
+    verify(mockTotpClock).getTimeCorrectionMillis();
+    verify(mockTotpClock, never()).currentTimeMillis();
+  }
+
+  public void testCloseUnregistersAccountListener() throws Exception {
+    AccountDb mockAccountDb = mock(AccountDb.class);
+    OtpProvider provider = new OtpProvider(mockAccountDb, mockTotpClock);
+    ArgumentCaptor<AccountDb.Listener> listenerArgCaptor =
+        ArgumentCaptor.forClass(AccountDb.Listener.class);
+    verify(mockAccountDb).addListener(listenerArgCaptor.capture());
+
+    provider.close();
+    verify(mockAccountDb).removeListener(listenerArgCaptor.getValue());
+  }
+
   public void testGetNextCodeWithEmptyAccountName() throws Exception {
     accountDb.update("", SECRET, "", OtpType.HOTP, null);
     // HOTP, counter at 0, check getNextcode response.
@@ -131,5 +244,7 @@ public class OtpProviderTest extends  AndroidTestCase {
 
   private void withTotpClockCurrentTimeSeconds(long timeSeconds) {
     doReturn(Utilities.secondsToMillis(timeSeconds)).when(mockTotpClock).currentTimeMillis();
+    doReturn(Utilities.secondsToMillis(timeSeconds))
+        .when(mockTotpClock).currentTimeMillis(anyLong());
   }
 }
@@ -82,6 +82,38 @@ public class TotpClockTest extends AndroidTestCase {
     assertEquals(7, mClock.getTimeCorrectionMinutes());
   }
 
+  public void testTimeCorrectionMillis() {
+    mClock.setTimeCorrectionMillis(-90500);
+    assertEquals(-90500, mClock.getTimeCorrectionMillis());
+    assertEquals(-2, mClock.getTimeCorrectionMinutes());
+
+    long millisBefore = System.currentTimeMillis();
+    long actualMillis = mClock.currentTimeMillis();
+    long millisAfter = System.currentTimeMillis();
+    assertInRangeInclusive(actualMillis, millisBefore - 90500, millisAfter - 90500);
+
+    // Stored in milliseconds and, rounded, in minutes
+    SharedPreferences preferences =
+        PreferenceManager.getDefaultSharedPreferences(DependencyInjector.getContext());
+    assertEquals(-90500, preferences.getLong(TotpClock.PREFERENCE_KEY_OFFSET_MILLIS, 0));
+    assertEquals(-2, preferences.getInt(TotpClock.PREFERENCE_KEY_OFFSET_MINUTES, 0));
+    assertEquals(-90500, new TotpClock(DependencyInjector.getContext()).getTimeCorrectionMillis());
+
+    mClock.setTimeCorrectionMinutes(5);
+    assertEquals(5 * Utilities.MINUTE_IN_MILLIS, mClock.getTimeCorrectionMillis());
+  }
+
+  public void testTimeCorrectionMinutesEditedInSettingsOverrideMillis() {
+    mClock.setTimeCorrectionMillis(12345);
+    SharedPreferences preferences =
+        PreferenceManager.getDefaultSharedPreferences(DependencyInjector.getContext());
+    // The settings store the minutes as a string
+    assertTrue(preferences.edit().putString(TotpClock.PREFERENCE_KEY_OFFSET_MINUTES, "3").commit());
+    TotpClock clock = new TotpClock(DependencyInjector.getContext());
+    assertEquals(3, clock.getTimeCorrectionMinutes());
+    assertEquals(3 * Utilities.MINUTE_IN_MILLIS, clock.getTimeCorrectionMillis());
+  }
+
   private static void assertInRangeInclusive(
       long actual, long expectedMinValue, long expectedMaxValue) {
     if ((actual < expectedMinValue) || (actual > expectedMaxValue)) {
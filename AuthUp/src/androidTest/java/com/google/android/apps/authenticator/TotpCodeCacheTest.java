@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.apps.authenticator;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link TotpCodeCache}.
+ */
+public class TotpCodeCacheTest extends TestCase {
+
+  private TotpCodeCache mCache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mCache = new TotpCodeCache(2);
+  }
+
+  public void testCodeReturnedWithinStep() {
+    assertNull(mCache.get("johndoe@gmail.com", 100, 0));
+    mCache.put("johndoe@gmail.com", 100, 0, "683298", mCache.getGeneration());
+    assertEquals("683298", mCache.get("johndoe@gmail.com", 100, 0));
+    assertEquals("683298", mCache.get("johndoe@gmail.com", 100, 0));
+    assertNull(mCache.get("maryweiss@yahoo.com", 100, 0));
+    assertEquals(1, mCache.size());
+  }
+
+  public void testStepChangeMisses() {
+    mCache.put("johndoe@gmail.com", 100, 0, "683298", mCache.getGeneration());
+    assertNull(mCache.get("johndoe@gmail.com", 101, 0));
+    assertNull(mCache.get("johndoe@gmail.com", 99, 0));
+
+    mCache.put("johndoe@gmail.com", 101, 0, "891123", mCache.getGeneration());
+    assertEquals("891123", mCache.get("johndoe@gmail.com", 101, 0));
+    assertNull(mCache.get("johndoe@gmail.com", 100, 0));
+  }
+
+  public void testTimeCorrectionChangeInvalidatesAll() {
+    mCache.put("johndoe@gmail.com", 100, 0, "683298", mCache.getGeneration());
+    mCache.put("maryweiss@yahoo.com", 100, 0, "891123", mCache.getGeneration());
+    assertNull(mCache.get("johndoe@gmail.com", 100, 2));
+    assertEquals(0, mCache.size());
+
+    // Codes computed with the previous correction are not cached
+    mCache.put("johndoe@gmail.com", 100, 0, "683298", mCache.getGeneration());
+    assertEquals(0, mCache.size());
+    mCache.put("johndoe@gmail.com", 100, 2, "683298", mCache.getGeneration());
+    assertEquals("683298", mCache.get("johndoe@gmail.com", 100, 2));
+  }
+
+  public void testInvalidate() {
+    mCache.put("johndoe@gmail.com", 100, 0, "683298", mCache.getGeneration());
+    mCache.put("maryweiss@yahoo.com", 100, 0, "891123", mCache.getGeneration());
+    mCache.invalidate("johndoe@gmail.com");
+    assertNull(mCache.get("johndoe@gmail.com", 100, 0));
+    assertEquals("891123", mCache.get("maryweiss@yahoo.com", 100, 0));
+
+    mCache.invalidateAll();
+    assertEquals(0, mCache.size());
+  }
+
+  public void testCodeComputedBeforeInvalidationNotCached() {
+    long generation = mCache.getGeneration();
+    // The secret changes while the code is computed from the old secret
+    mCache.invalidate("johndoe@gmail.com");
+    mCache.put("johndoe@gmail.com", 100, 0, "683298", generation);
+    assertNull(mCache.get("johndoe@gmail.com", 100, 0));
+    assertEquals(0, mCache.size());
+  }
+
+  public void testLeastRecentlyUsedEvicted() {
+    mCache.put("johndoe@gmail.com", 100, 0, "683298", mCache.getGeneration());
+    mCache.put("maryweiss@yahoo.com", 100, 0, "891123", mCache.getGeneration());
+    mCache.get("johndoe@gmail.com", 100, 0);
+    mCache.put("amywinehouse@aol.com", 100, 0, "123456", mCache.getGeneration());
+    assertEquals(2, mCache.size());
+    assertEquals("683298", mCache.get("johndoe@gmail.com", 100, 0));
+    assertNull(mCache.get("maryweiss@yahoo.com", 100, 0));
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.apps.authenticator.timesync;
+
+import com.google.android.apps.authenticator.RunImmediatelyOnCallingThreadExecutor;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link AsyncTimeFetcher}.
+ */
+public class AsyncTimeFetcherTest extends TestCase {
+
+  /** Outcome reported to the callback when the time correction was not obtained. */
+  private static final Long NOT_OBTAINED = Long.MIN_VALUE;
+
+  private final BlockingQueue<Long> mOutcomes = new LinkedBlockingQueue<Long>();
+  private final Executor mCallbackExecutor = new RunImmediatelyOnCallingThreadExecutor();
+  private ExecutorService mBackgroundExecutor;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mBackgroundExecutor = Executors.newSingleThreadExecutor();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    mBackgroundExecutor.shutdownNow();
+    super.tearDown();
+  }
+
+  public void testFirstSuccessfulSourceUsed() throws Exception {
+    FakeTimeSource failingSource = new FakeTimeSource(null);
+    FakeTimeSource source = new FakeTimeSource(1234L);
+    FakeTimeSource unusedSource = new FakeTimeSource(5678L);
+
+    Future<Long> fetch = new AsyncTimeFetcher(new RunImmediatelyOnCallingThreadExecutor()).fetch(
+        Arrays.<TimeSource>asList(failingSource, source, unusedSource), 60 * 1000,
+        new RecordingCallback(), mCallbackExecutor);
+    assertEquals(1234L, fetch.get().longValue());
+    assertEquals(Long.valueOf(1234L), mOutcomes.poll());
+    assertTrue(mOutcomes.isEmpty());
+    assertEquals(1, failingSource.mQueries);
+    assertEquals(1, source.mQueries);
+    assertEquals(0, unusedSource.mQueries);
+    assertFalse(source.mAborted);
+  }
+
+  public void testAllSourcesFail() throws Exception {
+    FakeTimeSource failingSource1 = new FakeTimeSource(null);
+    FakeTimeSource failingSource2 = new FakeTimeSource(null);
+
+    Future<Long> fetch = new AsyncTimeFetcher(new RunImmediatelyOnCallingThreadExecutor()).fetch(
+        Arrays.<TimeSource>asList(failingSource1, failingSource2), 60 * 1000,
+        new RecordingCallback(), mCallbackExecutor);
+    try {
+      fetch.get();
+      fail();
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof IOException);
+    }
+    assertEquals(NOT_OBTAINED, mOutcomes.poll());
+    assertTrue(mOutcomes.isEmpty());
+    assertEquals(1, failingSource1.mQueries);
+    assertEquals(1, failingSource2.mQueries);
+  }
+
+  public void testCancelAbortsSources() throws Exception {
+    FakeTimeSource blockingSource = new FakeTimeSource(1234L);
+    blockingSource.mBlocking = true;
+    FakeTimeSource unusedSource = new FakeTimeSource(5678L);
+
+    Future<Long> fetch = new AsyncTimeFetcher(mBackgroundExecutor).fetch(
+        Arrays.<TimeSource>asList(blockingSource, unusedSource), 60 * 1000,
+        new RecordingCallback(), mCallbackExecutor);
+    assertTrue(blockingSource.mStarted.await(10, TimeUnit.SECONDS));
+    assertTrue(fetch.cancel(true));
+    // Aborted in the background, because aborting may block
+    assertTrue(blockingSource.awaitAborted());
+    assertTrue(unusedSource.awaitAborted());
+
+    // The fetch stops without reporting an outcome
+    mBackgroundExecutor.shutdown();
+    assertTrue(mBackgroundExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    assertTrue(mOutcomes.isEmpty());
+    assertEquals(0, unusedSource.mQueries);
+  }
+
+  public void testDeadlineExceeded() throws Exception {
+    FakeTimeSource blockingSource = new FakeTimeSource(1234L);
+    blockingSource.mBlocking = true;
+
+    long startMillis = System.currentTimeMillis();
+    Future<Long> fetch = new AsyncTimeFetcher(mBackgroundExecutor).fetch(
+        Arrays.<TimeSource>asList(blockingSource), 100, new RecordingCallback(),
+        mCallbackExecutor);
+    assertEquals(NOT_OBTAINED, mOutcomes.poll(10, TimeUnit.SECONDS));
+    long elapsedMillis = System.currentTimeMillis() - startMillis;
+    assertTrue(String.valueOf(elapsedMillis), elapsedMillis >= 100);
+    assertTrue(fetch.isCancelled());
+    assertTrue(blockingSource.mAborted);
+  }
+
+  public void testDeadlineNotDelayedByBlockedAbort() throws Exception {
+    CountDownLatch abortUnblocked = new CountDownLatch(1);
+    FakeTimeSource stuckSource = new FakeTimeSource(1234L);
+    stuckSource.mBlocking = true;
+    stuckSource.mAbortBlocker = abortUnblocked;
+    FakeTimeSource blockingSource = new FakeTimeSource(5678L);
+    blockingSource.mBlocking = true;
+
+    AsyncTimeFetcher fetcher = new AsyncTimeFetcher(mBackgroundExecutor);
+    try {
+      fetcher.fetch(Arrays.<TimeSource>asList(stuckSource), 100, new RecordingCallback(),
+          mCallbackExecutor);
+      assertTrue(stuckSource.mStarted.await(10, TimeUnit.SECONDS));
+      Future<Long> fetch = fetcher.fetch(Arrays.<TimeSource>asList(blockingSource), 200,
+          new RecordingCallback(), mCallbackExecutor);
+
+      // The second fetch's deadline is enforced while the first fetch is still being aborted
+      assertEquals(NOT_OBTAINED, mOutcomes.poll(10, TimeUnit.SECONDS));
+      assertTrue(fetch.isCancelled());
+      assertTrue(blockingSource.mAborted);
+      assertTrue(mOutcomes.isEmpty());
+    } finally {
+      abortUnblocked.countDown();
+    }
+    assertEquals(NOT_OBTAINED, mOutcomes.poll(10, TimeUnit.SECONDS));
+    assertTrue(stuckSource.mAborted);
+  }
+
+  /** Callback which records the outcomes in {@link #mOutcomes}. */
+  private class RecordingCallback implements AsyncTimeFetcher.Callback {
+    @Override
+    public void onTimeCorrectionObtained(long timeCorrectionMillis) {
+      mOutcomes.add(timeCorrectionMillis);
+    }
+
+    @Override
+    public void onTimeCorrectionNotObtained() {
+      mOutcomes.add(NOT_OBTAINED);
+    }
+  }
+
+  /**
+   * {@link TimeSource} which provides a fixed time correction, or fails if there is none, and can
+   * be made to block until aborted. Aborting can be made to block too.
+   */
+  private static class FakeTimeSource implements TimeSource {
+    private final Long mTimeCorrectionMillis;
+    private final CountDownLatch mAbortLatch = new CountDownLatch(1);
+    final CountDownLatch mStarted = new CountDownLatch(1);
+    volatile boolean mBlocking;
+    volatile CountDownLatch mAbortBlocker;
+    volatile boolean mAborted;
+    volatile int mQueries;
+
+    FakeTimeSource(Long timeCorrectionMillis) {
+      mTimeCorrectionMillis = timeCorrectionMillis;
+    }
+
+    @Override
+    public long getTimeCorrectionMillis() throws IOException {
+      if (mAborted) {
+        throw new InterruptedIOException("Aborted");
+      }
+      mQueries++;
+      mStarted.countDown();
+      if (mBlocking) {
+        // Blocks like socket I/O, which is not interruptible but leaves the thread interrupted
+        boolean interrupted = false;
+        while (true) {
+          try {
+            mAbortLatch.await();
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+        throw new InterruptedIOException("Aborted");
+      }
+      if (mTimeCorrectionMillis == null) {
+        throw new IOException();
+      }
+      return mTimeCorrectionMillis;
+    }
+
+    @Override
+    public void abort() {
+      CountDownLatch abortBlocker = mAbortBlocker;
+      if (abortBlocker != null) {
+        try {
+          abortBlocker.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      mAborted = true;
+      mAbortLatch.countDown();
+    }
+
+    boolean awaitAborted() throws InterruptedException {
+      return mAbortLatch.await(10, TimeUnit.SECONDS);
+    }
+  }
+}
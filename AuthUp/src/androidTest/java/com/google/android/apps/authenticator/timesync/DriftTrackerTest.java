@@ -0,0 +1,291 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.apps.authenticator.timesync;
+
+import com.google.android.apps.authenticator.Utilities;
+import com.google.android.apps.authenticator.testability.DependencyInjector;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link DriftTracker}.
+ */
+public class DriftTrackerTest extends AndroidTestCase {
+
+  private static final long HOUR_IN_MILLIS = 60 * Utilities.MINUTE_IN_MILLIS;
+
+  private SharedPreferences mPreferences;
+  private FakeClock mClock;
+  private final List<Long> mScheduledDelaysMillis = new ArrayList<Long>();
+  private DriftTracker mTracker;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    DependencyInjector.resetForIntegrationTesting(getContext());
+    mPreferences = PreferenceManager.getDefaultSharedPreferences(DependencyInjector.getContext());
+    mClock = new FakeClock();
+    mTracker = createTracker();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    DependencyInjector.close();
+    super.tearDown();
+  }
+
+  public void testFirstSyncDueImmediately() {
+    assertEquals(0, mTracker.getNextSyncDelayMillis());
+    assertFalse(mTracker.isClockJumped());
+    mTracker.scheduleNextSync();
+    assertEquals(0, getLastScheduledDelayMillis());
+  }
+
+  public void testIntervalGrowsWhileOffsetStable() {
+    long[] expectedIntervalsMillis = {
+        DriftTracker.INITIAL_SYNC_INTERVAL_MILLIS,
+        2 * DriftTracker.INITIAL_SYNC_INTERVAL_MILLIS,
+        4 * DriftTracker.INITIAL_SYNC_INTERVAL_MILLIS,
+        8 * DriftTracker.INITIAL_SYNC_INTERVAL_MILLIS,
+        16 * DriftTracker.INITIAL_SYNC_INTERVAL_MILLIS,
+        DriftTracker.MAX_SYNC_INTERVAL_MILLIS,
+        DriftTracker.MAX_SYNC_INTERVAL_MILLIS,
+    };
+    for (int i = 0; i < expectedIntervalsMillis.length; i++) {
+      long expectedIntervalMillis = expectedIntervalsMillis[i];
+      // Varies within the accuracy of the measurement
+      mTracker.onSyncSucceeded(1500 + (i % 2) * DriftTracker.STABLE_OFFSET_TOLERANCE_MILLIS);
+      assertEquals(expectedIntervalMillis, getLastScheduledDelayMillis());
+      assertEquals(expectedIntervalMillis, mTracker.getNextSyncDelayMillis());
+      mClock.advance(expectedIntervalMillis);
+      assertEquals(0, mTracker.getNextSyncDelayMillis());
+    }
+  }
+
+  public void testIntervalShrinksWhenOffsetChanges() {
+    mTracker.onSyncSucceeded(0);
+    mClock.advance(DriftTracker.INITIAL_SYNC_INTERVAL_MILLIS);
+    mTracker.onSyncSucceeded(0);
+    assertEquals(2 * DriftTracker.INITIAL_SYNC_INTERVAL_MILLIS, getLastScheduledDelayMillis());
+    mClock.advance(2 * DriftTracker.INITIAL_SYNC_INTERVAL_MILLIS);
+    mTracker.onSyncSucceeded(5000);
+    assertEquals(DriftTracker.INITIAL_SYNC_INTERVAL_MILLIS, getLastScheduledDelayMillis());
+  }
+
+  public void testIntervalLimitedByDriftRate() {
+    // The network time gains 400 ms every 6 hours, i.e., 2 seconds every 30 hours
+    long[] expectedIntervalsHours = {6, 12, 6, 12, 24};
+    long offsetMillis = 0;
+    for (long expectedIntervalHours : expectedIntervalsHours) {
+      mTracker.onSyncSucceeded(offsetMillis);
+      assertEquals(expectedIntervalHours * HOUR_IN_MILLIS, getLastScheduledDelayMillis());
+      mClock.advance(expectedIntervalHours * HOUR_IN_MILLIS);
+      offsetMillis += expectedIntervalHours * 400 / 6;
+    }
+    // Once the drift is known, it is predicted, and it limits the interval
+    mTracker.onSyncSucceeded(offsetMillis);
+    long intervalMillis = getLastScheduledDelayMillis();
+    assertTrue(String.valueOf(intervalMillis),
+        Math.abs(intervalMillis - 30 * HOUR_IN_MILLIS) < Utilities.SECOND_IN_MILLIS);
+  }
+
+  public void testDriftPredictionFollowsSmallClockAdjustments() {
+    mTracker.onSyncSucceeded(0);
+    mClock.advance(DriftTracker.INITIAL_SYNC_INTERVAL_MILLIS);
+    // The wall clock is set back by a second, which the offset makes up for
+    mClock.mWallClockMillis -= Utilities.SECOND_IN_MILLIS;
+    assertFalse(mTracker.isClockJumped());
+    mTracker.onSyncSucceeded(Utilities.SECOND_IN_MILLIS);
+    assertEquals(2 * DriftTracker.INITIAL_SYNC_INTERVAL_MILLIS, getLastScheduledDelayMillis());
+  }
+
+  public void testClockJumpMakesSyncDue() {
+    growInterval();
+    mClock.advance(HOUR_IN_MILLIS);
+    assertFalse(mTracker.isClockJumped());
+    assertTrue(mTracker.getNextSyncDelayMillis() > 0);
+
+    mClock.mWallClockMillis += DriftTracker.CLOCK_JUMP_THRESHOLD_MILLIS;
+    assertTrue(mTracker.isClockJumped());
+    assertEquals(0, mTracker.getNextSyncDelayMillis());
+    mTracker.scheduleNextSync();
+    assertEquals(0, getLastScheduledDelayMillis());
+
+    // The samples from before the jump are discarded
+    mTracker.onSyncSucceeded(-DriftTracker.CLOCK_JUMP_THRESHOLD_MILLIS);
+    assertFalse(mTracker.isClockJumped());
+    assertEquals(DriftTracker.INITIAL_SYNC_INTERVAL_MILLIS, getLastScheduledDelayMillis());
+  }
+
+  public void testRebootMakesSyncDue() {
+    growInterval();
+    // The wall clock keeps running while the time since boot starts over
+    mClock.mWallClockMillis += HOUR_IN_MILLIS;
+    mClock.mElapsedRealtimeMillis = Utilities.MINUTE_IN_MILLIS;
+    assertTrue(mTracker.isClockJumped());
+    assertEquals(0, mTracker.getNextSyncDelayMillis());
+
+    mTracker.onSyncSucceeded(0);
+    assertEquals(DriftTracker.INITIAL_SYNC_INTERVAL_MILLIS, getLastScheduledDelayMillis());
+  }
+
+  public void testSyncFailedRetried() {
+    mTracker.onSyncSucceeded(0);
+    mClock.advance(DriftTracker.INITIAL_SYNC_INTERVAL_MILLIS);
+    mTracker.onSyncFailed();
+    assertEquals(DriftTracker.MIN_SYNC_INTERVAL_MILLIS, getLastScheduledDelayMillis());
+    assertEquals(DriftTracker.MIN_SYNC_INTERVAL_MILLIS, mTracker.getNextSyncDelayMillis());
+
+    // The interval reached is kept
+    mClock.advance(DriftTracker.MIN_SYNC_INTERVAL_MILLIS);
+    mTracker.onSyncSucceeded(0);
+    assertEquals(2 * DriftTracker.INITIAL_SYNC_INTERVAL_MILLIS, getLastScheduledDelayMillis());
+  }
+
+  public void testRetryDelayGrowsWhileSyncFails() {
+    long[] expectedDelaysHours = {1, 2, 4, 8, 16, 24, 24};
+    for (long expectedDelayHours : expectedDelaysHours) {
+      mTracker.onSyncFailed();
+      assertEquals(expectedDelayHours * HOUR_IN_MILLIS, getLastScheduledDelayMillis());
+      mClock.advance(expectedDelayHours * HOUR_IN_MILLIS);
+    }
+
+    // Reset by a success
+    mTracker.onSyncSucceeded(0);
+    mClock.advance(DriftTracker.INITIAL_SYNC_INTERVAL_MILLIS);
+    mTracker.onSyncFailed();
+    assertEquals(DriftTracker.MIN_RETRY_DELAY_MILLIS, getLastScheduledDelayMillis());
+  }
+
+  public void testFirstSyncRetryNotDueOnRestart() {
+    mTracker.onSyncFailed();
+    mClock.advance(Utilities.MINUTE_IN_MILLIS);
+    mTracker.onSyncFailed();
+    mClock.advance(Utilities.MINUTE_IN_MILLIS);
+
+    // The process is restarted
+    DriftTracker tracker = createTracker();
+    tracker.scheduleNextSync();
+    assertEquals(2 * DriftTracker.MIN_RETRY_DELAY_MILLIS - Utilities.MINUTE_IN_MILLIS,
+        getLastScheduledDelayMillis());
+
+    // The device is rebooted
+    mClock.mElapsedRealtimeMillis = Utilities.MINUTE_IN_MILLIS;
+    createTracker().scheduleNextSync();
+    assertEquals(2 * DriftTracker.MIN_RETRY_DELAY_MILLIS, getLastScheduledDelayMillis());
+  }
+
+  public void testClockJumpRetryNotDueOnRestart() {
+    growInterval();
+    mClock.mWallClockMillis += DriftTracker.CLOCK_JUMP_THRESHOLD_MILLIS;
+    mTracker.onSyncFailed();
+    assertTrue(mTracker.isClockJumped());
+
+    createTracker().scheduleNextSync();
+    assertEquals(DriftTracker.MIN_RETRY_DELAY_MILLIS, getLastScheduledDelayMillis());
+  }
+
+  public void testStatePersisted() {
+    growInterval();
+    mClock.advance(HOUR_IN_MILLIS);
+    long nextSyncDelayMillis = mTracker.getNextSyncDelayMillis();
+
+    DriftTracker tracker = createTracker();
+    assertEquals(nextSyncDelayMillis, tracker.getNextSyncDelayMillis());
+    tracker.scheduleNextSync();
+    assertEquals(nextSyncDelayMillis, getLastScheduledDelayMillis());
+  }
+
+  public void testSamplesLimited() {
+    for (int i = 0; i < DriftTracker.MAX_SAMPLES * 2; i++) {
+      mTracker.onSyncSucceeded(i);
+      mClock.advance(getLastScheduledDelayMillis());
+    }
+    assertEquals(DriftTracker.MAX_SAMPLES,
+        mPreferences.getString(DriftTracker.PREFERENCE_KEY_SAMPLES, "").split(";").length);
+  }
+
+  public void testInvalidSamplesDiscarded() {
+    growInterval();
+    assertTrue(
+        mPreferences.edit().putString(DriftTracker.PREFERENCE_KEY_SAMPLES, "1,2;x").commit());
+    assertEquals(0, mTracker.getNextSyncDelayMillis());
+  }
+
+  public void testEstimateDriftRate() {
+    List<DriftTracker.Sample> samples = new ArrayList<DriftTracker.Sample>();
+    assertEquals(0.0, DriftTracker.estimateDriftRate(samples), 0.0);
+    // Offsets growing by 1 ms every 10 seconds (100 ppm)
+    samples.add(new DriftTracker.Sample(1000000000, 0, 0));
+    assertEquals(0.0, DriftTracker.estimateDriftRate(samples), 0.0);
+    // Too close together to tell the drift from the error of the measurements
+    samples.add(new DriftTracker.Sample(1000000000 + 1000000, 1000000, 100));
+    assertEquals(0.0, DriftTracker.estimateDriftRate(samples), 0.0);
+    samples.add(new DriftTracker.Sample(1000000000 + 4000000, 4000000, 400));
+    assertEquals(0.0, DriftTracker.estimateDriftRate(samples), 0.0);
+    // The wall clock is set back by a second in between
+    samples.add(new DriftTracker.Sample(1000000000 + 10000000 - 1000, 10000000, 1000 + 1000));
+    assertEquals(0.0001, DriftTracker.estimateDriftRate(samples), 1e-12);
+  }
+
+  private DriftTracker createTracker() {
+    return new DriftTracker(mPreferences, new DriftTracker.SyncScheduler() {
+      @Override
+      public void scheduleSync(long delayMillis) {
+        mScheduledDelaysMillis.add(delayMillis);
+      }
+    }, mClock);
+  }
+
+  /** Makes stable syncs until the interval has grown past the initial interval. */
+  private void growInterval() {
+    mTracker.onSyncSucceeded(0);
+    mClock.advance(DriftTracker.INITIAL_SYNC_INTERVAL_MILLIS);
+    mTracker.onSyncSucceeded(0);
+  }
+
+  private long getLastScheduledDelayMillis() {
+    return mScheduledDelaysMillis.isEmpty()
+        ? 0 : mScheduledDelaysMillis.get(mScheduledDelaysMillis.size() - 1);
+  }
+
+  private static class FakeClock implements DriftTracker.Clock {
+    long mWallClockMillis = 1300000000000L;
+    long mElapsedRealtimeMillis = HOUR_IN_MILLIS;
+
+    void advance(long millis) {
+      mWallClockMillis += millis;
+      mElapsedRealtimeMillis += millis;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+      return mWallClockMillis;
+    }
+
+    @Override
+    public long elapsedRealtime() {
+      return mElapsedRealtimeMillis;
+    }
+  }
+}
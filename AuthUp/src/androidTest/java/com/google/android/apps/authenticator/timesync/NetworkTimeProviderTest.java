@@ -16,9 +16,12 @@
 
 package com.google.android.apps.authenticator.timesync;
 
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -30,13 +33,20 @@ import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.cookie.DateUtils;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Arrays;
+import java.util.Date;
 
 /**
  * Unit tests for {@link NetworkTimeProvider}.
@@ -110,6 +120,135 @@ public class NetworkTimeProviderTest extends TestCase {
     } catch (IOException expected) {}
   }
 
+  public void testRequestTimeouts() throws Exception {
+    mProvider = new NetworkTimeProvider(mMockHttpClient, 1234);
+    withHttpRequestThrowing(new IOException("arbitrary"));
+    try {
+      mProvider.getNetworkTime();
+    } catch (Exception expected) {}
+
+    ArgumentCaptor<HttpUriRequest> requestCaptor = ArgumentCaptor.forClass(HttpUriRequest.class);
+    verify(mMockHttpClient).execute(requestCaptor.capture());
+
+    HttpParams params = requestCaptor.getValue().getParams();
+    assertEquals(1234, HttpConnectionParams.getConnectionTimeout(params));
+    assertEquals(1234, HttpConnectionParams.getSoTimeout(params));
+  }
+
+  public void testAbortDuringRequest() throws Exception {
+    doAnswer(new Answer<HttpResponse>() {
+      @Override
+      public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+        mProvider.abort();
+        // Aborting the request closes its connection
+        throw new IOException("Connection closed");
+      }
+    }).when(mMockHttpClient).execute(Mockito.<HttpUriRequest>anyObject());
+    try {
+      mProvider.getTimeCorrectionMillis();
+      fail();
+    } catch (InterruptedIOException expected) {}
+
+    ArgumentCaptor<HttpUriRequest> requestCaptor = ArgumentCaptor.forClass(HttpUriRequest.class);
+    verify(mMockHttpClient).execute(requestCaptor.capture());
+    assertTrue(requestCaptor.getValue().isAborted());
+  }
+
+  public void testAbortBeforeRequest() throws Exception {
+    withHttpRequestReturningDate("Tue, 05 Jun 2012 22:54:01 GMT");
+    mProvider.abort();
+    try {
+      mProvider.getNetworkTime();
+      fail();
+    } catch (InterruptedIOException expected) {}
+    verify(mMockHttpClient, never()).execute(Mockito.<HttpUriRequest>anyObject());
+  }
+
+  public void testTimeCorrectionNarrowedDownBySeveralRequests() throws Exception {
+    FakeLocalClock clock = new FakeLocalClock(1338936000123L);
+    long offsetMillis = 841377;
+    withHttpRequestReturningNetworkTime(clock, offsetMillis, 40);
+    mProvider = new NetworkTimeProvider(mMockHttpClient, clock);
+
+    long timeCorrectionMillis = mProvider.getTimeCorrectionMillis();
+    // A single request is only accurate to within a second
+    assertTrue(String.valueOf(timeCorrectionMillis),
+        Math.abs(timeCorrectionMillis - offsetMillis) <= 100);
+    verify(mMockHttpClient, times(NetworkTimeProvider.TIME_CORRECTION_SAMPLES))
+        .execute(Mockito.<HttpUriRequest>anyObject());
+  }
+
+  public void testTimeCorrectionFromSingleRequest() throws Exception {
+    FakeLocalClock clock = new FakeLocalClock(1338936000123L);
+    long offsetMillis = 841377;
+    withHttpRequestReturningNetworkTime(clock, offsetMillis, 40);
+    mProvider = new NetworkTimeProvider(
+        mMockHttpClient, NetworkTimeProvider.DEFAULT_REQUEST_TIMEOUT_MILLIS, 1, clock);
+
+    long timeCorrectionMillis = mProvider.getTimeCorrectionMillis();
+    assertTrue(String.valueOf(timeCorrectionMillis),
+        Math.abs(timeCorrectionMillis - offsetMillis) <= 540);
+    verify(mMockHttpClient).execute(Mockito.<HttpUriRequest>anyObject());
+    // No waiting for the Date header to tick over
+    assertEquals(1338936000123L + 80, clock.currentTimeMillis());
+  }
+
+  public void testTimeCorrectionWithNegativeOffset() throws Exception {
+    FakeLocalClock clock = new FakeLocalClock(1338936000999L);
+    long offsetMillis = -3 * 60 * 1000 - 512;
+    withHttpRequestReturningNetworkTime(clock, offsetMillis, 150);
+    mProvider = new NetworkTimeProvider(mMockHttpClient, clock);
+
+    long timeCorrectionMillis = mProvider.getTimeCorrectionMillis();
+    assertTrue(String.valueOf(timeCorrectionMillis),
+        Math.abs(timeCorrectionMillis - offsetMillis) <= 200);
+  }
+
+  public void testTimeCorrectionInterrupted() throws Exception {
+    FakeLocalClock clock = new FakeLocalClock(1338936000123L) {
+      @Override
+      public void sleep(long millis) throws InterruptedException {
+        throw new InterruptedException();
+      }
+    };
+    withHttpRequestReturningNetworkTime(clock, 841377, 40);
+    mProvider = new NetworkTimeProvider(mMockHttpClient, clock);
+    try {
+      mProvider.getTimeCorrectionMillis();
+      fail();
+    } catch (InterruptedIOException expected) {}
+    assertTrue(Thread.interrupted());
+  }
+
+  public void testTimeCorrectionRequestThrowsExceptions() throws Exception {
+    withHttpRequestThrowing(new IOException(""));
+    try {
+      mProvider.getTimeCorrectionMillis();
+      fail();
+    } catch (IOException expected) {}
+  }
+
+  /**
+   * Configures the HTTP client to respond with the network time, which is ahead of the provided
+   * clock by the provided offset, halfway through the round trip.
+   */
+  private void withHttpRequestReturningNetworkTime(
+      final FakeLocalClock clock, final long offsetMillis, final long oneWayDelayMillis)
+      throws IOException {
+    doAnswer(new Answer<HttpResponse>() {
+      @Override
+      public HttpResponse answer(InvocationOnMock invocation) {
+        clock.advance(oneWayDelayMillis);
+        Date networkDate = new Date(clock.currentTimeMillis() + offsetMillis);
+        HttpResponse mockResponse = mock(HttpResponse.class);
+        doReturn(new BasicHeader("Date", DateUtils.formatDate(networkDate)))
+            .when(mockResponse).getLastHeader("Date");
+        clock.advance(oneWayDelayMillis);
+        return mockResponse;
+      }
+    }).when(mMockHttpClient).execute(Mockito.<HttpUriRequest>anyObject());
+  }
+
   private void withHttpRequestThrowing(Exception exception) throws IOException {
     doThrow(exception).when(mMockHttpClient).execute(Mockito.<HttpUriRequest>anyObject());
   }
@@ -122,4 +261,26 @@ public class NetworkTimeProviderTest extends TestCase {
 
     doReturn(mockResponse).when(mMockHttpClient).execute(Mockito.<HttpUriRequest>anyObject());
   }
+
+  private static class FakeLocalClock implements NetworkTimeProvider.LocalClock {
+    private long mTimeMillis;
+
+    private FakeLocalClock(long timeMillis) {
+      mTimeMillis = timeMillis;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+      return mTimeMillis;
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+      advance(millis);
+    }
+
+    private void advance(long millis) {
+      mTimeMillis += millis;
+    }
+  }
 }
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.apps.authenticator.timesync;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link SntpTimeSource}, which query local stand-ins for NTP servers.
+ */
+public class SntpTimeSourceTest extends TestCase {
+
+  /** Largest error (milliseconds) tolerated in the measured offsets of local servers. */
+  private static final long TOLERANCE_MILLIS = 50;
+
+  private final List<FakeNtpServer> mServers = new ArrayList<FakeNtpServer>();
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (FakeNtpServer server : mServers) {
+      server.close();
+    }
+    super.tearDown();
+  }
+
+  public void testTimeCorrection() throws Exception {
+    FakeNtpServer server = startServer(123456);
+    assertTimeCorrection(123456, createTimeSource(SntpTimeSource.Selection.MEDIAN, server));
+    server = startServer(-7654321);
+    assertTimeCorrection(-7654321, createTimeSource(SntpTimeSource.Selection.MIN_DELAY, server));
+  }
+
+  public void testQuery() throws Exception {
+    FakeNtpServer server = startServer(0);
+    createTimeSource(SntpTimeSource.Selection.MEDIAN, server).getTimeCorrectionMillis();
+
+    List<byte[]> queries = server.getQueries();
+    assertEquals(2, queries.size());
+    for (byte[] query : queries) {
+      assertEquals(SntpTimeSource.PACKET_LENGTH, query.length);
+      assertEquals(SntpTimeSource.MODE_CLIENT, query[0] & 7);
+      assertEquals(3, (query[0] >> 3) & 7);
+    }
+    // The transmit timestamps identify the queries
+    assertFalse(ByteBuffer.wrap(queries.get(0)).getLong(SntpTimeSource.TRANSMIT_TIMESTAMP_OFFSET)
+        == ByteBuffer.wrap(queries.get(1)).getLong(SntpTimeSource.TRANSMIT_TIMESTAMP_OFFSET));
+  }
+
+  public void testMinDelaySelection() throws Exception {
+    FakeNtpServer fastServer = startServer(5000);
+    FakeNtpServer slowServer = startServer(60000);
+    slowServer.mDelayMillis = 300;
+    assertTimeCorrection(5000,
+        createTimeSource(SntpTimeSource.Selection.MIN_DELAY, slowServer, fastServer));
+  }
+
+  public void testMedianSelection() throws Exception {
+    // The server with the wrong time responds fastest
+    FakeNtpServer wrongServer = startServer(-3600000);
+    FakeNtpServer server1 = startServer(5000);
+    FakeNtpServer server2 = startServer(5000);
+    server1.mDelayMillis = 100;
+    server2.mDelayMillis = 100;
+    assertTimeCorrection(5000,
+        createTimeSource(SntpTimeSource.Selection.MEDIAN, wrongServer, server1, server2));
+  }
+
+  public void testInvalidResponsesIgnored() throws Exception {
+    FakeNtpServer kissOfDeathServer = startServer(1000);
+    kissOfDeathServer.mStratum = 0;
+    FakeNtpServer unsynchronizedServer = startServer(1000);
+    unsynchronizedServer.mLeapIndicator = 3;
+    FakeNtpServer clientModeServer = startServer(1000);
+    clientModeServer.mMode = SntpTimeSource.MODE_CLIENT;
+    FakeNtpServer wrongOriginateServer = startServer(1000);
+    wrongOriginateServer.mOriginateTimestampXor = 1;
+    FakeNtpServer server = startServer(-2000);
+    assertTimeCorrection(-2000, createTimeSource(SntpTimeSource.Selection.MEDIAN,
+        kissOfDeathServer, unsynchronizedServer, clientModeServer, wrongOriginateServer, server));
+  }
+
+  public void testNoValidResponses() throws Exception {
+    FakeNtpServer silentServer = startServer(0);
+    silentServer.mResponding = false;
+    FakeNtpServer kissOfDeathServer = startServer(0);
+    kissOfDeathServer.mStratum = 0;
+    SntpTimeSource timeSource = new SntpTimeSource(
+        Arrays.asList(silentServer.getAddress(), kissOfDeathServer.getAddress()), 2, 200,
+        SntpTimeSource.Selection.MIN_DELAY);
+    long startMillis = System.currentTimeMillis();
+    try {
+      timeSource.getTimeCorrectionMillis();
+      fail();
+    } catch (IOException expected) {}
+    // Each round waits for the timeout, but not much longer
+    long elapsedMillis = System.currentTimeMillis() - startMillis;
+    assertTrue(String.valueOf(elapsedMillis), elapsedMillis < 4 * 200);
+    assertEquals(2, silentServer.getQueries().size());
+  }
+
+  public void testAbort() throws Exception {
+    final FakeNtpServer silentServer = startServer(0);
+    silentServer.mResponding = false;
+    final SntpTimeSource timeSource = new SntpTimeSource(
+        Arrays.asList(silentServer.getAddress()), 1, 60 * 1000,
+        SntpTimeSource.Selection.MEDIAN);
+    Thread aborter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (silentServer.getQueries().isEmpty()) {
+            Thread.sleep(10);
+          }
+        } catch (InterruptedException e) {
+          return;
+        }
+        timeSource.abort();
+      }
+    };
+    aborter.start();
+    long startMillis = System.currentTimeMillis();
+    try {
+      timeSource.getTimeCorrectionMillis();
+      fail();
+    } catch (InterruptedIOException expected) {}
+    aborter.join();
+    // Does not wait for the timeout
+    long elapsedMillis = System.currentTimeMillis() - startMillis;
+    assertTrue(String.valueOf(elapsedMillis), elapsedMillis < 10 * 1000);
+
+    // Aborted for good
+    try {
+      timeSource.getTimeCorrectionMillis();
+      fail();
+    } catch (InterruptedIOException expected) {}
+    assertEquals(1, silentServer.getQueries().size());
+  }
+
+  public void testSelectOffsetNanos() {
+    List<SntpTimeSource.Sample> samples = Arrays.asList(
+        new SntpTimeSource.Sample(30, 5),
+        new SntpTimeSource.Sample(-10, 2),
+        new SntpTimeSource.Sample(20, 9),
+        new SntpTimeSource.Sample(1000, 3));
+    assertEquals(-10,
+        SntpTimeSource.selectOffsetNanos(samples, SntpTimeSource.Selection.MIN_DELAY));
+    assertEquals(25, SntpTimeSource.selectOffsetNanos(samples, SntpTimeSource.Selection.MEDIAN));
+    assertEquals(20, SntpTimeSource.selectOffsetNanos(
+        samples.subList(0, 3), SntpTimeSource.Selection.MEDIAN));
+  }
+
+  public void testNtpTimestampConversion() {
+    // Java epoch
+    assertEquals(0, SntpTimeSource.ntpTimestampToNanos(0x83aa7e8000000000L));
+    assertEquals(0x83aa7e8000000000L, SntpTimeSource.nanosToNtpTimestamp(0));
+    // Half a second past the start of NTP era 1 (7 February 2036)
+    assertEquals(2085978496500000000L, SntpTimeSource.ntpTimestampToNanos(0x80000000L));
+    assertEquals(0x80000000L, SntpTimeSource.nanosToNtpTimestamp(2085978496500000000L));
+
+    Random random = new Random(0);
+    for (int i = 0; i < 1000; i++) {
+      // Up to about 2100
+      long nanos = (random.nextLong() >>> 1) % 4102444800000000000L;
+      assertEquals(nanos,
+          SntpTimeSource.ntpTimestampToNanos(SntpTimeSource.nanosToNtpTimestamp(nanos)));
+    }
+  }
+
+  public void testConstructorRejectsInvalidArguments() {
+    List<InetSocketAddress> servers = SntpTimeSource.DEFAULT_SERVERS;
+    try {
+      new SntpTimeSource(new ArrayList<InetSocketAddress>(), 1, 1000,
+          SntpTimeSource.Selection.MEDIAN);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    try {
+      new SntpTimeSource(servers, 0, 1000, SntpTimeSource.Selection.MEDIAN);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    try {
+      new SntpTimeSource(servers, 1, 0, SntpTimeSource.Selection.MEDIAN);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  private FakeNtpServer startServer(long offsetMillis) throws IOException {
+    FakeNtpServer server = new FakeNtpServer(offsetMillis);
+    mServers.add(server);
+    server.start();
+    return server;
+  }
+
+  private static SntpTimeSource createTimeSource(
+      SntpTimeSource.Selection selection, FakeNtpServer... servers) {
+    List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+    for (FakeNtpServer server : servers) {
+      addresses.add(server.getAddress());
+    }
+    return new SntpTimeSource(addresses, 2, 200 * servers.length + 1000, selection);
+  }
+
+  private static void assertTimeCorrection(long expectedMillis, SntpTimeSource timeSource)
+      throws IOException {
+    long actualMillis = timeSource.getTimeCorrectionMillis();
+    assertTrue("Expected: " + expectedMillis + ", actual: " + actualMillis,
+        Math.abs(actualMillis - expectedMillis) <= TOLERANCE_MILLIS);
+  }
+
+  /**
+   * Stand-in for an NTP server whose clock is offset from the clock of this device, which runs on
+   * a thread of its own and can be configured to respond in invalid ways.
+   */
+  private static class FakeNtpServer extends Thread {
+    private final DatagramSocket mSocket;
+    private final long mOffsetNanos;
+    private final long mAnchorNanos = System.currentTimeMillis() * 1000000L - System.nanoTime();
+    private final List<byte[]> mQueries = new ArrayList<byte[]>();
+
+    /**
+     * Round-trip time (milliseconds) by which the responses are delayed, half on the way to the
+     * server and half on the way back, so that the delay does not bias the measured offset.
+     */
+    volatile long mDelayMillis;
+    volatile boolean mResponding = true;
+    volatile int mLeapIndicator;
+    volatile int mMode = SntpTimeSource.MODE_SERVER;
+    volatile int mStratum = 1;
+    volatile long mOriginateTimestampXor;
+
+    FakeNtpServer(long offsetMillis) throws IOException {
+      mSocket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+      mOffsetNanos = offsetMillis * 1000000L;
+      setDaemon(true);
+    }
+
+    InetSocketAddress getAddress() {
+      return new InetSocketAddress(mSocket.getLocalAddress(), mSocket.getLocalPort());
+    }
+
+    synchronized List<byte[]> getQueries() {
+      return new ArrayList<byte[]>(mQueries);
+    }
+
+    void close() throws InterruptedException {
+      mSocket.close();
+      join();
+    }
+
+    @Override
+    public void run() {
+      byte[] buffer = new byte[1024];
+      DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+      try {
+        while (true) {
+          packet.setLength(buffer.length);
+          mSocket.receive(packet);
+          synchronized (this) {
+            mQueries.add(Arrays.copyOf(buffer, packet.getLength()));
+          }
+          long delayMillis = mDelayMillis;
+          Thread.sleep(delayMillis / 2);
+          if (!mResponding) {
+            continue;
+          }
+          long receiveTimestamp = SntpTimeSource.nanosToNtpTimestamp(getTimeNanos());
+          byte[] response = new byte[SntpTimeSource.PACKET_LENGTH];
+          response[0] = (byte) ((mLeapIndicator << 6) | (3 << 3) | mMode);
+          response[1] = (byte) mStratum;
+          ByteBuffer.wrap(response)
+              .putLong(SntpTimeSource.ORIGINATE_TIMESTAMP_OFFSET,
+                  ByteBuffer.wrap(buffer).getLong(SntpTimeSource.TRANSMIT_TIMESTAMP_OFFSET)
+                      ^ mOriginateTimestampXor)
+              .putLong(SntpTimeSource.RECEIVE_TIMESTAMP_OFFSET, receiveTimestamp)
+              .putLong(SntpTimeSource.TRANSMIT_TIMESTAMP_OFFSET,
+                  SntpTimeSource.nanosToNtpTimestamp(getTimeNanos()));
+          Thread.sleep(delayMillis - delayMillis / 2);
+          mSocket.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+        }
+      } catch (SocketException e) {
+        // Closed
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    private long getTimeNanos() {
+      return mAnchorNanos + System.nanoTime() + mOffsetNanos;
+    }
+  }
+}
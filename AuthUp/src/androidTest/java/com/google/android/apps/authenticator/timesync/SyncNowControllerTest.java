@@ -16,12 +16,13 @@
 
 package com.google.android.apps.authenticator.timesync;
 
-import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyLong;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -36,6 +37,8 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Executor;
 
 /**
@@ -46,10 +49,13 @@ import java.util.concurrent.Executor;
 public class SyncNowControllerTest extends TestCase {
 
   @Mock private NetworkTimeProvider mMockNetworkTimeProvider;
+  @Mock private TimeSource mMockPreferredTimeSource;
   @Mock private TotpClock mMockTotpClock;
+  @Mock private DriftTracker mMockDriftTracker;
   @Mock private SyncNowController.Presenter mMockPresenter;
   private Executor mBackgroundExecutor;
   private Executor mCallbackExecutor;
+  private long mDeadlineMillis;
 
   private SyncNowController mController;
 
@@ -62,6 +68,7 @@ public class SyncNowControllerTest extends TestCase {
     // thread so that tests do not depend on other threads (especially Looper threads) and are
     // easier to read due to lack of concurrency complications.
     withImmediateExecutors();
+    mDeadlineMillis = SyncNowController.TIME_SYNC_DEADLINE_MILLIS;
   }
 
   @Override
@@ -70,14 +77,14 @@ public class SyncNowControllerTest extends TestCase {
   }
 
   public void testAdjustmentMade() throws Exception {
-    withTotpClockTimeCorrectionMinutes(7);
-    withNetworkTimeProviderReturningMillis(
-        System.currentTimeMillis() + 3 * Utilities.MINUTE_IN_MILLIS);
+    withTotpClockTimeCorrectionMillis(7 * Utilities.MINUTE_IN_MILLIS);
+    withNetworkTimeProviderReturningTimeCorrectionMillis(3 * Utilities.MINUTE_IN_MILLIS + 250);
 
     createController();
     mController.attach(mMockPresenter);
     assertEquals(SyncNowController.Result.TIME_CORRECTED, verifyPresenterOnDoneInvoked());
-    assertEquals(3, verifyTotpClockSetTimeCorrectionInvoked());
+    assertEquals(3 * Utilities.MINUTE_IN_MILLIS + 250, verifyTotpClockSetTimeCorrectionInvoked());
+    verify(mMockDriftTracker).onSyncSucceeded(3 * Utilities.MINUTE_IN_MILLIS + 250);
 
     reset(mMockPresenter);
     mController.detach(mMockPresenter);
@@ -85,14 +92,30 @@ public class SyncNowControllerTest extends TestCase {
   }
 
   public void testAdjustmentNotNeeded() throws Exception {
-    withTotpClockTimeCorrectionMinutes(-3);
-    withNetworkTimeProviderReturningMillis(
-        System.currentTimeMillis() - 3 * Utilities.MINUTE_IN_MILLIS);
+    withTotpClockTimeCorrectionMillis(-3 * Utilities.MINUTE_IN_MILLIS);
+    withNetworkTimeProviderReturningTimeCorrectionMillis(
+        -3 * Utilities.MINUTE_IN_MILLIS + SyncNowController.TIME_ALREADY_CORRECT_TOLERANCE_MILLIS);
 
     createController();
     mController.attach(mMockPresenter);
     assertEquals(SyncNowController.Result.TIME_ALREADY_CORRECT, verifyPresenterOnDoneInvoked());
     verifyTotpClockSetTimeCorrectionNotInvoked();
+    // The measurement is recorded even though the time correction is not changed
+    verify(mMockDriftTracker).onSyncSucceeded(
+        -3 * Utilities.MINUTE_IN_MILLIS + SyncNowController.TIME_ALREADY_CORRECT_TOLERANCE_MILLIS);
+  }
+
+  public void testAdjustmentWithinMinuteMade() throws Exception {
+    // Corrections used to be rounded to whole minutes, which left up to 30 seconds uncorrected
+    withTotpClockTimeCorrectionMillis(Utilities.MINUTE_IN_MILLIS);
+    withNetworkTimeProviderReturningTimeCorrectionMillis(
+        Utilities.MINUTE_IN_MILLIS + 20 * Utilities.SECOND_IN_MILLIS);
+
+    createController();
+    mController.attach(mMockPresenter);
+    assertEquals(SyncNowController.Result.TIME_CORRECTED, verifyPresenterOnDoneInvoked());
+    assertEquals(Utilities.MINUTE_IN_MILLIS + 20 * Utilities.SECOND_IN_MILLIS,
+        verifyTotpClockSetTimeCorrectionInvoked());
   }
 
   public void testConnectivityError() throws Exception {
@@ -102,12 +125,44 @@ public class SyncNowControllerTest extends TestCase {
     mController.attach(mMockPresenter);
     assertEquals(SyncNowController.Result.ERROR_CONNECTIVITY_ISSUE, verifyPresenterOnDoneInvoked());
     verifyTotpClockSetTimeCorrectionNotInvoked();
+    verify(mMockDriftTracker).onSyncFailed();
+  }
+
+  public void testFallbackTimeSourceUsedOnError() throws Exception {
+    withTotpClockTimeCorrectionMillis(0);
+    doThrow(new IOException()).when(mMockPreferredTimeSource).getTimeCorrectionMillis();
+    withNetworkTimeProviderReturningTimeCorrectionMillis(-2 * Utilities.SECOND_IN_MILLIS);
+
+    createControllerWithPreferredTimeSource();
+    mController.attach(mMockPresenter);
+    assertEquals(SyncNowController.Result.TIME_CORRECTED, verifyPresenterOnDoneInvoked());
+    assertEquals(-2 * Utilities.SECOND_IN_MILLIS, verifyTotpClockSetTimeCorrectionInvoked());
+  }
+
+  public void testFallbackTimeSourceNotUsedOnSuccess() throws Exception {
+    withTotpClockTimeCorrectionMillis(0);
+    doReturn(1234L).when(mMockPreferredTimeSource).getTimeCorrectionMillis();
+
+    createControllerWithPreferredTimeSource();
+    mController.attach(mMockPresenter);
+    assertEquals(SyncNowController.Result.TIME_CORRECTED, verifyPresenterOnDoneInvoked());
+    assertEquals(1234L, verifyTotpClockSetTimeCorrectionInvoked());
+    verifyZeroInteractions(mMockNetworkTimeProvider);
+  }
+
+  public void testConnectivityErrorFromAllTimeSources() throws Exception {
+    doThrow(new IOException()).when(mMockPreferredTimeSource).getTimeCorrectionMillis();
+    withNetworkTimeProviderThrowing(new IOException());
+
+    createControllerWithPreferredTimeSource();
+    mController.attach(mMockPresenter);
+    assertEquals(SyncNowController.Result.ERROR_CONNECTIVITY_ISSUE, verifyPresenterOnDoneInvoked());
+    verifyTotpClockSetTimeCorrectionNotInvoked();
   }
 
   public void testCancelledByUserBeforeBackgroundOperation() throws Exception {
-    withTotpClockTimeCorrectionMinutes(-7);
-    withNetworkTimeProviderReturningMillis(
-        System.currentTimeMillis() - 7 * Utilities.MINUTE_IN_MILLIS);
+    withTotpClockTimeCorrectionMillis(-7 * Utilities.MINUTE_IN_MILLIS);
+    withNetworkTimeProviderReturningTimeCorrectionMillis(-7 * Utilities.MINUTE_IN_MILLIS);
     withBackgroundExecutorThatAbortsControllerBeforeExecuting();
 
     createController();
@@ -117,26 +172,51 @@ public class SyncNowControllerTest extends TestCase {
   }
 
   public void testCancelledByUserBeforeCallback() throws Exception {
-    withTotpClockTimeCorrectionMinutes(-7);
-    withNetworkTimeProviderReturningMillis(
-        System.currentTimeMillis() - 7 * Utilities.MINUTE_IN_MILLIS);
+    withTotpClockTimeCorrectionMillis(-7 * Utilities.MINUTE_IN_MILLIS);
+    withNetworkTimeProviderReturningTimeCorrectionMillis(-7 * Utilities.MINUTE_IN_MILLIS);
     withCallbackExecutorThatAbortsControllerBeforeExecuting();
 
     createController();
     mController.attach(mMockPresenter);
     assertEquals(SyncNowController.Result.CANCELLED_BY_USER, verifyPresenterOnDoneInvoked());
     verifyTotpClockSetTimeCorrectionNotInvoked();
+    verifyZeroInteractions(mMockDriftTracker);
+  }
+
+  public void testCancelledByUserAbortsTimeSources() throws Exception {
+    withBackgroundExecutorThatNeverExecutes();
+
+    createControllerWithPreferredTimeSource();
+    mController.attach(mMockPresenter);
+    mController.abort(mMockPresenter);
+    assertEquals(SyncNowController.Result.CANCELLED_BY_USER, verifyPresenterOnDoneInvoked());
+    // Aborted in the background, because aborting may block
+    verify(mMockPreferredTimeSource, timeout(5000)).abort();
+    verify(mMockNetworkTimeProvider, timeout(5000)).abort();
+    verifyTotpClockSetTimeCorrectionNotInvoked();
+    verifyZeroInteractions(mMockDriftTracker);
+  }
+
+  public void testDeadlineExceeded() throws Exception {
+    withBackgroundExecutorThatNeverExecutes();
+    mDeadlineMillis = 10;
+
+    createController();
+    mController.attach(mMockPresenter);
+    verify(mMockPresenter, timeout(5000)).onDone(SyncNowController.Result.ERROR_CONNECTIVITY_ISSUE);
+    verify(mMockDriftTracker).onSyncFailed();
+    verify(mMockNetworkTimeProvider).abort();
+    verifyTotpClockSetTimeCorrectionNotInvoked();
   }
 
   public void testAttachToNewPresenter() throws Exception {
-    withTotpClockTimeCorrectionMinutes(7);
-    withNetworkTimeProviderReturningMillis(
-        System.currentTimeMillis() + 3 * Utilities.MINUTE_IN_MILLIS);
+    withTotpClockTimeCorrectionMillis(7 * Utilities.MINUTE_IN_MILLIS);
+    withNetworkTimeProviderReturningTimeCorrectionMillis(3 * Utilities.MINUTE_IN_MILLIS + 250);
 
     createController();
     mController.attach(mMockPresenter);
     assertEquals(SyncNowController.Result.TIME_CORRECTED, verifyPresenterOnDoneInvoked());
-    assertEquals(3, verifyTotpClockSetTimeCorrectionInvoked());
+    assertEquals(3 * Utilities.MINUTE_IN_MILLIS + 250, verifyTotpClockSetTimeCorrectionInvoked());
     reset(mMockTotpClock, mMockNetworkTimeProvider);
 
     mMockPresenter = mock(SyncNowController.Presenter.class);
@@ -146,9 +226,8 @@ public class SyncNowControllerTest extends TestCase {
   }
 
   public void testDetachPresenterBeforeFinished() throws Exception {
-    withTotpClockTimeCorrectionMinutes(7);
-    withNetworkTimeProviderReturningMillis(
-        System.currentTimeMillis() + 3 * Utilities.MINUTE_IN_MILLIS);
+    withTotpClockTimeCorrectionMillis(7 * Utilities.MINUTE_IN_MILLIS);
+    withNetworkTimeProviderReturningTimeCorrectionMillis(3 * Utilities.MINUTE_IN_MILLIS + 250);
     withBackgroundExecutorThatDetachesPresenterBeforeExecuting();
 
     createController();
@@ -158,24 +237,35 @@ public class SyncNowControllerTest extends TestCase {
   }
 
   private void createController() {
+    createController(Arrays.<TimeSource>asList(mMockNetworkTimeProvider));
+  }
+
+  private void createControllerWithPreferredTimeSource() {
+    createController(
+        Arrays.<TimeSource>asList(mMockPreferredTimeSource, mMockNetworkTimeProvider));
+  }
+
+  private void createController(List<TimeSource> timeSources) {
     mController = new SyncNowController(
         mMockTotpClock,
-        mMockNetworkTimeProvider,
-        mBackgroundExecutor,
-        false,
+        mMockDriftTracker,
+        timeSources,
+        mDeadlineMillis,
+        new AsyncTimeFetcher(mBackgroundExecutor),
         mCallbackExecutor);
   }
 
-  private void withNetworkTimeProviderReturningMillis(long timeMillis) throws IOException {
-    doReturn(timeMillis).when(mMockNetworkTimeProvider).getNetworkTime();
+  private void withNetworkTimeProviderReturningTimeCorrectionMillis(long timeCorrectionMillis)
+      throws IOException {
+    doReturn(timeCorrectionMillis).when(mMockNetworkTimeProvider).getTimeCorrectionMillis();
   }
 
   private void withNetworkTimeProviderThrowing(IOException exception) throws IOException {
-    doThrow(exception).when(mMockNetworkTimeProvider).getNetworkTime();
+    doThrow(exception).when(mMockNetworkTimeProvider).getTimeCorrectionMillis();
   }
 
-  private void withTotpClockTimeCorrectionMinutes(int timeCorrectionMinutes) {
-    doReturn(timeCorrectionMinutes).when(mMockTotpClock).getTimeCorrectionMinutes();
+  private void withTotpClockTimeCorrectionMillis(long timeCorrectionMillis) {
+    doReturn(timeCorrectionMillis).when(mMockTotpClock).getTimeCorrectionMillis();
   }
 
   private SyncNowController.Result verifyPresenterOnDoneInvoked() {
@@ -186,12 +276,12 @@ public class SyncNowControllerTest extends TestCase {
   }
 
   private void verifyTotpClockSetTimeCorrectionNotInvoked() {
-    verify(mMockTotpClock, never()).setTimeCorrectionMinutes(anyInt());
+    verify(mMockTotpClock, never()).setTimeCorrectionMillis(anyLong());
   }
 
-  private int verifyTotpClockSetTimeCorrectionInvoked() {
-    ArgumentCaptor<Integer> resultCaptor = ArgumentCaptor.forClass(Integer.class);
-    verify(mMockTotpClock).setTimeCorrectionMinutes(resultCaptor.capture());
+  private long verifyTotpClockSetTimeCorrectionInvoked() {
+    ArgumentCaptor<Long> resultCaptor = ArgumentCaptor.forClass(Long.class);
+    verify(mMockTotpClock).setTimeCorrectionMillis(resultCaptor.capture());
     return resultCaptor.getValue();
   }
 
@@ -210,6 +300,13 @@ public class SyncNowControllerTest extends TestCase {
     };
   }
 
+  private void withBackgroundExecutorThatNeverExecutes() {
+    mBackgroundExecutor = new Executor() {
+      @Override
+      public void execute(Runnable command) {}
+    };
+  }
+
   private void withCallbackExecutorThatAbortsControllerBeforeExecuting() {
     mCallbackExecutor = new Executor() {
       @Override
@@ -26,6 +26,7 @@ import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.os.Process;
 import android.util.Log;
 
@@ -34,10 +35,12 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
-
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A database of email addresses and secret values
@@ -70,8 +73,62 @@ public class AccountDb {
   // @VisibleForTesting
   SQLiteDatabase mDatabase;
 
+  /**
+   * Increments the counter of the account bound to the first parameter. Compiled on first use.
+   *
+   * @GuardedBy {@link #mAccountCache}
+   */
+  private SQLiteStatement mIncrementCounterStatement;
+
+  /**
+   * Queries the counter of the account bound to the first parameter. Compiled on first use.
+   *
+   * @GuardedBy {@link #mAccountCache}
+   */
+  private SQLiteStatement mCounterQueryStatement;
+
+  /** Maximum number of account names whose rows, or absence, are cached. */
+  // @VisibleForTesting
+  static final int MAX_CACHED_ACCOUNTS = 256;
+
+  /**
+   * Rows of the recently looked up accounts, keyed by account name. Accounts found not to exist are
+   * mapped to {@link CachedAccount#NONE}. All writes to the database go through this cache. The
+   * least recently used entries are evicted once the cache is full, so that lookups of arbitrary
+   * names cannot grow it without bound.
+   *
+   * @GuardedBy itself
+   */
+  private final Map<String, CachedAccount> mAccountCache =
+      new LinkedHashMap<String, CachedAccount>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedAccount> eldest) {
+          return size() > MAX_CACHED_ACCOUNTS;
+        }
+      };
+
+  /** @GuardedBy {@link #mAccountCache} */
+  private long mCacheHitCount;
+
+  /** @GuardedBy {@link #mAccountCache} */
+  private long mCacheMissCount;
+
   private static final String LOCAL_TAG = "GoogleAuthenticator.AccountDb";
 
+  private final List<Listener> mListeners = new CopyOnWriteArrayList<Listener>();
+
+  /**
+   * Listener notified when accounts stored in the database are modified or deleted.
+   */
+  public interface Listener {
+    /**
+     * Invoked after the account has been modified or deleted.
+     *
+     * @param email name of the account or {@code null} if all accounts have been affected.
+     */
+    void onAccountChanged(String email);
+  }
+
   /**
    * Types of secret keys.
    */
@@ -96,6 +153,30 @@ public class AccountDb {
 
   }
 
+  /**
+   * Immutable snapshot of the non-secret data of an account.
+   */
+  public static final class Account {
+    public final String name;
+    public final OtpType type;
+    public final Integer counter;
+    public final String providerType;
+
+    public Account(String name, OtpType type, Integer counter, String providerType) {
+      this.name = name;
+      this.type = type;
+      this.counter = counter;
+      this.providerType = providerType;
+    }
+  }
+
+  /**
+   * Creates an instance without a database, for fakes that override the accessors they use, such
+   * as those of the benchmarks.
+   */
+  // @VisibleForTesting
+  AccountDb() {}
+
   public AccountDb(Context context) {
     mDatabase = openDatabase(context);
 
@@ -176,10 +257,36 @@ public class AccountDb {
     return error.toString();
   }
 
+  /**
+   * Registers a listener to be notified when accounts are modified or deleted.
+   */
+  public void addListener(Listener listener) {
+    mListeners.add(listener);
+  }
+
+  /**
+   * Unregisters a listener previously registered with {@link #addListener(Listener)}.
+   */
+  public void removeListener(Listener listener) {
+    mListeners.remove(listener);
+  }
+
+  private void notifyAccountChanged(String email) {
+    for (Listener listener : mListeners) {
+      listener.onAccountChanged(email);
+    }
+  }
+
   /**
    * Closes this database and releases any system resources held.
    */
   public void close() {
+    synchronized (mAccountCache) {
+      if (mIncrementCounterStatement != null) {
+        mIncrementCounterStatement.close();
+        mCounterQueryStatement.close();
+      }
+    }
     mDatabase.close();
   }
 
@@ -216,58 +323,31 @@ public class AccountDb {
    * deleteAllData() will remove all rows. Useful for testing.
    */
   public boolean deleteAllData() {
-    mDatabase.delete(AccountDb.TABLE_NAME, null, null);
+    synchronized (mAccountCache) {
+      mDatabase.delete(AccountDb.TABLE_NAME, null, null);
+      mAccountCache.clear();
+    }
+    notifyAccountChanged(null);
     return true;
   }
 
   public boolean nameExists(String email) {
-    Cursor cursor = getAccount(email);
-    try {
-      return !cursorIsEmpty(cursor);
-    } finally {
-      tryCloseCursor(cursor);
-    }
+    return getCachedAccount(email) != null;
   }
 
   public String getProviderType(String email) {
-    Cursor cursor = getAccount(email);
-    try {
-      if (!cursorIsEmpty(cursor)) {
-        cursor.moveToFirst();
-        return cursor.getString(cursor.getColumnIndex(PROVIDER_TYPE));
-      }
-    } finally {
-      tryCloseCursor(cursor);
-    }
-    return null;
+    CachedAccount account = getCachedAccount(email);
+    return (account != null) ? account.providerType : null;
   }
 
   public String getSecret(String email) {
-    Cursor cursor = getAccount(email);
-    try {
-      if (!cursorIsEmpty(cursor)) {
-        cursor.moveToFirst();
-        return cursor.getString(cursor.getColumnIndex(SECRET_COLUMN));
-      }
-    } finally {
-      tryCloseCursor(cursor);
-    }
-    return null;
+    CachedAccount account = getCachedAccount(email);
+    return (account != null) ? account.secret : null;
   }
 
   static Signer getSigningOracle(String secret) {
     try {
-      byte[] keyBytes = decodeKey(secret);
-      final Mac mac = Mac.getInstance("HMACSHA1");
-      mac.init(new SecretKeySpec(keyBytes, ""));
-
-      // Create a signer object out of the standard Java MAC implementation.
-      return new Signer() {
-        @Override
-        public byte[] sign(byte[] data) {
-          return mac.doFinal(data);
-        }
-      };
+      return Signers.forSecret(secret);
     } catch (DecodingException error) {
       Log.e(LOCAL_TAG, error.getMessage());
     } catch (NoSuchAlgorithmException error) {
@@ -279,50 +359,75 @@ public class AccountDb {
     return null;
   }
 
-  private static byte[] decodeKey(String secret) throws DecodingException {
-    return Base32String.decode(secret);
-  }
-
   public Integer getCounter(String email) {
-    Cursor cursor = getAccount(email);
-    try {
-      if (!cursorIsEmpty(cursor)) {
-        cursor.moveToFirst();
-        return cursor.getInt(cursor.getColumnIndex(COUNTER_COLUMN));
-      }
-    } finally {
-      tryCloseCursor(cursor);
-    }
-    return null;
+    CachedAccount account = getCachedAccount(email);
+    return (account != null) ? account.counter : null;
   }
 
   void incrementCounter(String email) {
-    ContentValues values = new ContentValues();
-    values.put(EMAIL_COLUMN, email);
-    Integer counter = getCounter(email);
-    values.put(COUNTER_COLUMN, counter + 1);
-    mDatabase.update(TABLE_NAME, values, whereClause(email), null);
+    incrementAndGetCounter(email);
   }
 
-  public OtpType getType(String email) {
-    Cursor cursor = getAccount(email);
-    try {
-      if (!cursorIsEmpty(cursor)) {
-        cursor.moveToFirst();
-        Integer value = cursor.getInt(cursor.getColumnIndex(TYPE_COLUMN));
-        return OtpType.getEnum(value);
+  /**
+   * Atomically increments the counter of the account and returns its new value. Concurrent
+   * invocations for the same account never return the same value.
+   *
+   * @return the incremented counter or {@code null} if the account does not exist.
+   */
+  Integer incrementAndGetCounter(String email) {
+    synchronized (mAccountCache) {
+      if (mIncrementCounterStatement == null) {
+        mIncrementCounterStatement = mDatabase.compileStatement(String.format(
+            "UPDATE %s SET %s = COALESCE(%s, 0) + 1 WHERE %s = ?",
+            TABLE_NAME, COUNTER_COLUMN, COUNTER_COLUMN, EMAIL_COLUMN));
+        mCounterQueryStatement = mDatabase.compileStatement(String.format(
+            "SELECT %s FROM %s WHERE %s = ? LIMIT 1",
+            COUNTER_COLUMN, TABLE_NAME, EMAIL_COLUMN));
       }
-    } finally {
-      tryCloseCursor(cursor);
+
+      int counter;
+      // The exclusive transaction makes the update and the query atomic with respect to other
+      // connections to the database.
+      mDatabase.beginTransaction();
+      try {
+        mIncrementCounterStatement.bindString(1, email);
+        if (mIncrementCounterStatement.executeUpdateDelete() == 0) {
+          return null;
+        }
+        mCounterQueryStatement.bindString(1, email);
+        counter = (int) mCounterQueryStatement.simpleQueryForLong();
+        mDatabase.setTransactionSuccessful();
+      } finally {
+        mDatabase.endTransaction();
+      }
+
+      CachedAccount account = mAccountCache.get(email);
+      if ((account != null) && (account != CachedAccount.NONE)) {
+        mAccountCache.put(email, new CachedAccount(
+            account.secret, account.type, counter, account.providerType));
+      }
+      return counter;
     }
-    return null;
+  }
+
+  public OtpType getType(String email) {
+    CachedAccount account = getCachedAccount(email);
+    return (account != null) ? account.type : null;
   }
 
   void setType(String email, OtpType type) {
     ContentValues values = new ContentValues();
     values.put(EMAIL_COLUMN, email);
     values.put(TYPE_COLUMN, type.value);
-    mDatabase.update(TABLE_NAME, values, whereClause(email), null);
+    synchronized (mAccountCache) {
+      mDatabase.update(TABLE_NAME, values, whereClause(email), null);
+      CachedAccount account = mAccountCache.get(email);
+      if ((account != null) && (account != CachedAccount.NONE)) {
+        mAccountCache.put(email, new CachedAccount(
+            account.secret, type, account.counter, account.providerType));
+      }
+    }
+    notifyAccountChanged(email);
   }
 
   /**
@@ -339,7 +444,11 @@ public class AccountDb {
   }
 
   public void delete(String email) {
-    mDatabase.delete(TABLE_NAME, whereClause(email), null);
+    synchronized (mAccountCache) {
+      mDatabase.delete(TABLE_NAME, whereClause(email), null);
+      mAccountCache.put(email, CachedAccount.NONE);
+    }
+    notifyAccountChanged(email);
   }
 
   /**
@@ -373,17 +482,89 @@ public class AccountDb {
     values.put(TYPE_COLUMN, type.ordinal());
     values.put(COUNTER_COLUMN, counter);
     values.put(PROVIDER_TYPE, providerType);
-    int updated = mDatabase.update(TABLE_NAME, values,
-                                  whereClause(oldEmail), null);
-    if (updated == 0) {
-      mDatabase.insert(TABLE_NAME, null, values);
+    synchronized (mAccountCache) {
+      int updated = mDatabase.update(TABLE_NAME, values,
+                                    whereClause(oldEmail), null);
+      if (updated == 0) {
+        mDatabase.insert(TABLE_NAME, null, values);
+      }
+      if (oldEmail != null) {
+        mAccountCache.remove(oldEmail);
+      }
+      mAccountCache.put(email, new CachedAccount(
+          secret, type, (counter != null) ? counter : 0, providerType));
+    }
+    if ((oldEmail != null) && (!oldEmail.equals(email))) {
+      notifyAccountChanged(oldEmail);
     }
+    notifyAccountChanged(email);
   }
 
   private Cursor getNames() {
     return mDatabase.query(TABLE_NAME, null, null, null, null, null, null, null);
   }
 
+  /**
+   * Gets the row of the account from the cache, reading it from the database on a cache miss.
+   *
+   * @return the row or {@code null} if the account does not exist.
+   */
+  private CachedAccount getCachedAccount(String email) {
+    synchronized (mAccountCache) {
+      CachedAccount account = mAccountCache.get(email);
+      if (account != null) {
+        mCacheHitCount++;
+      } else {
+        mCacheMissCount++;
+        account = loadAccount(email);
+        mAccountCache.put(email, account);
+      }
+      return (account != CachedAccount.NONE) ? account : null;
+    }
+  }
+
+  /**
+   * Reads the row of the account from the database.
+   *
+   * @return the row or {@link CachedAccount#NONE} if the account does not exist.
+   */
+  private CachedAccount loadAccount(String email) {
+    Cursor cursor = getAccount(email);
+    try {
+      if (cursorIsEmpty(cursor)) {
+        return CachedAccount.NONE;
+      }
+      cursor.moveToFirst();
+      return new CachedAccount(
+          cursor.getString(cursor.getColumnIndex(SECRET_COLUMN)),
+          OtpType.getEnum(cursor.getInt(cursor.getColumnIndex(TYPE_COLUMN))),
+          cursor.getInt(cursor.getColumnIndex(COUNTER_COLUMN)),
+          cursor.getString(cursor.getColumnIndex(PROVIDER_TYPE)));
+    } finally {
+      tryCloseCursor(cursor);
+    }
+  }
+
+  /**
+   * Gets the number of account lookups served from the in-memory cache.
+   */
+  // @VisibleForTesting
+  long getCacheHitCount() {
+    synchronized (mAccountCache) {
+      return mCacheHitCount;
+    }
+  }
+
+  /**
+   * Gets the number of account lookups which had to read the database.
+   */
+  // @VisibleForTesting
+  long getCacheMissCount() {
+    synchronized (mAccountCache) {
+      return mCacheMissCount;
+    }
+  }
+
   private Cursor getAccount(String email) {
     return mDatabase.query(TABLE_NAME, null, EMAIL_COLUMN + "= ?",
         new String[] {email}, null, null, null);
@@ -433,6 +614,58 @@ public class AccountDb {
     }
   }
 
+  /**
+   * Gets the name, type, counter and provider type of all accounts using a single query.
+   *
+   * @return immutable list of accounts in the same order as {@link #getNames(Collection)}.
+   */
+  public List<Account> getAccounts() {
+    Cursor cursor = mDatabase.query(TABLE_NAME,
+        new String[] {EMAIL_COLUMN, TYPE_COLUMN, COUNTER_COLUMN, PROVIDER_TYPE},
+        null, null, null, null, null);
+    try {
+      if (cursorIsEmpty(cursor)) {
+        return Collections.emptyList();
+      }
+
+      int nameIndex = cursor.getColumnIndex(EMAIL_COLUMN);
+      int typeIndex = cursor.getColumnIndex(TYPE_COLUMN);
+      int counterIndex = cursor.getColumnIndex(COUNTER_COLUMN);
+      int providerTypeIndex = cursor.getColumnIndex(PROVIDER_TYPE);
+      List<Account> result = new ArrayList<Account>(cursor.getCount());
+      while (cursor.moveToNext()) {
+        result.add(new Account(
+            cursor.getString(nameIndex),
+            OtpType.getEnum(cursor.getInt(typeIndex)),
+            cursor.getInt(counterIndex),
+            cursor.getString(providerTypeIndex)));
+      }
+      return Collections.unmodifiableList(result);
+    } finally {
+      tryCloseCursor(cursor);
+    }
+  }
+
+  /**
+   * Immutable copy of an account's row held by the in-memory cache.
+   */
+  private static final class CachedAccount {
+    /** Marker for accounts which do not exist. */
+    private static final CachedAccount NONE = new CachedAccount(null, null, 0, null);
+
+    private final String secret;
+    private final OtpType type;
+    private final int counter;
+    private final String providerType;
+
+    private CachedAccount(String secret, OtpType type, int counter, String providerType) {
+      this.secret = secret;
+      this.type = type;
+      this.counter = counter;
+      this.providerType = providerType;
+    }
+  }
+
   private static class AccountDbOpenException extends RuntimeException {
     public AccountDbOpenException(String message, Exception e) {
       super(message, e);
@@ -16,6 +16,7 @@
 
 package io.authup.android.apps.authenticator;
 
+import io.authup.android.apps.authenticator.AccountDb.Account;
 import io.authup.android.apps.authenticator.AccountDb.OtpType;
 import io.authup.android.apps.authenticator.dataimport.ImportController;
 import io.authup.android.apps.authenticator.howitworks.IntroEnterPasswordActivity;
@@ -69,7 +70,9 @@ import android.widget.Toast;
 
 import java.io.InputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
  * The main activity that displays usernames and codes
@@ -842,10 +845,9 @@ public class AuthenticatorActivity extends TestableActivity {
   }
 
   public void refreshUserList(boolean isAccountModified) {
-    ArrayList<String> usernames = new ArrayList<String>();
-    mAccountDb.getNames(usernames);
+    List<Account> accounts = mAccountDb.getAccounts();
 
-    int userCount = usernames.size();
+    int userCount = accounts.size();
 
     if (userCount > 0) {
       boolean newListRequired = isAccountModified || mUsers.length != userCount;
@@ -853,9 +855,17 @@ public class AuthenticatorActivity extends TestableActivity {
         mUsers = new PinInfo[userCount];
       }
 
+      // All the TOTP codes come from one reading of the clock, and thus from the same time step.
+      Map<String, String> totpCodes;
+      try {
+        totpCodes = mOtpProvider.getCurrentTotpCodes();
+      } catch (OtpSourceException e) {
+        Log.e(LOCAL_TAG, "Failed to generate TOTP codes", e);
+        totpCodes = Collections.emptyMap();
+      }
       for (int i = 0; i < userCount; ++i) {
-        String user = usernames.get(i);
-        computeAndDisplayPin(user, i, false);
+        Account account = accounts.get(i);
+        computeAndDisplayPin(account, i, false, totpCodes.get(account.name));
       }
 
       if (newListRequired) {
@@ -881,7 +891,14 @@ public class AuthenticatorActivity extends TestableActivity {
     mContentAccountsPresent.setVisibility((mUsers.length > 0) ? View.VISIBLE : View.GONE);
   }
 
-  public void computeAndDisplayPin(String user, int position, boolean computeHotp) {
+  /**
+   * Updates the list entry of the provided account.
+   *
+   * @param totpCode current code of the account if it is time-based, or {@code null} to display a
+   *        placeholder.
+   */
+  public void computeAndDisplayPin(
+      Account account, int position, boolean computeHotp, String totpCode) {
     PinInfo currentPin;
     if (mUsers[position] != null) {
         currentPin = mUsers[position]; // existing PinInfo, so we'll update it
@@ -891,10 +908,12 @@ public class AuthenticatorActivity extends TestableActivity {
         currentPin.hotpCodeGenerationAllowed = true;
     }
 
-    OtpType type = mAccountDb.getType(user);
-    currentPin.isHotp = (type == OtpType.HOTP);
-    currentPin.user = user;
-    currentPin.providerType = mAccountDb.getProviderType(user);
+    currentPin.isHotp = (account.type == OtpType.HOTP);
+    currentPin.user = account.name;
+    currentPin.providerType = account.providerType;
+    if (!currentPin.isHotp) {
+      currentPin.pin = (totpCode != null) ? totpCode : getString(R.string.empty_pin);
+    }
 
     mUsers[position] = currentPin;
   }
@@ -19,6 +19,8 @@ package io.authup.android.apps.authenticator;
 import io.authup.android.apps.authenticator.testability.DependencyInjector;
 
 import android.app.Application;
+import android.os.Process;
+import android.util.Log;
 
 /**
  * Authenticator application which is one of the first things instantiated when our process starts.
@@ -33,6 +35,8 @@ import android.app.Application;
  */
 public class AuthenticatorApplication extends Application {
 
+  private static final String LOG_TAG = "AuthenticatorApplication";
+
   @Override
   public void onCreate() {
     super.onCreate();
@@ -51,6 +55,22 @@ public class AuthenticatorApplication extends Application {
     // During test runs the injector may have been configured already. Thus we take care to avoid
     // overwriting any existing configuration here.
     DependencyInjector.configureForProductionIfNotConfigured(getApplicationContext());
+
+    // Alarms do not survive reboots, and the Time Sync is due immediately if the wall clock has
+    // been set since the last one. Failed syncs are retried after their backoff, not on each start.
+    DependencyInjector.getDriftTracker().scheduleNextSync();
+
+    // Select the fastest HMAC backend off the main thread so that the first passcode is not
+    // delayed by measuring the backends.
+    Thread calibrationThread = new Thread("SignerCalibration") {
+      @Override
+      public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        Log.i(LOG_TAG, "HMAC backend: " + Signers.calibrate());
+      }
+    };
+    calibrationThread.setDaemon(true);
+    calibrationThread.start();
   }
 
   @Override
@@ -16,12 +16,21 @@
 
 package io.authup.android.apps.authenticator;
 
+import io.authup.android.apps.authenticator.AccountDb.Account;
 import io.authup.android.apps.authenticator.AccountDb.OtpType;
-import io.authup.android.apps.authenticator.PasscodeGenerator.Signer;
 
-import java.io.UnsupportedEncodingException;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Class containing implementation of HOTP/TOTP.
@@ -34,6 +43,13 @@ public class OtpProvider implements OtpSource {
   private static final int PIN_LENGTH = 6; // HOTP or TOTP
   private static final int REFLECTIVE_PIN_LENGTH = 9; // ROTP
 
+  /**
+   * Smallest number of accounts for which {@link #getCurrentTotpCodes()} hands work to the bulk
+   * executor. Fewer codes are computed faster than the tasks are scheduled.
+   */
+  // @VisibleForTesting
+  static final int MIN_ACCOUNTS_PER_BULK_TASK = 32;
+
   @Override
   public int enumerateAccounts(Collection<String> result) {
     return mAccountDb.getNames(result);
@@ -44,21 +60,115 @@ public class OtpProvider implements OtpSource {
     return getCurrentCode(accountName, null);
   }
 
+  @Override
+  public Map<String, String> getCurrentTotpCodes() throws OtpSourceException {
+    // One reading of the clock for all accounts so that the codes cannot straddle a step boundary.
+    long timeCorrectionMillis = mTotpClock.getTimeCorrectionMillis();
+    long otp_state = getTotpState(timeCorrectionMillis);
+
+    List<String> accountNames = new ArrayList<String>();
+    for (Account account : mAccountDb.getAccounts()) {
+      if (account.type == OtpType.TOTP) {
+        accountNames.add(account.name);
+      }
+    }
+
+    int taskCount = (mBulkExecutor == null) ? 1 : Math.min(
+        Runtime.getRuntime().availableProcessors(),
+        accountNames.size() / MIN_ACCOUNTS_PER_BULK_TASK);
+    if (taskCount <= 1) {
+      return computeTotpCodes(accountNames, otp_state, timeCorrectionMillis);
+    }
+    return computeTotpCodesInParallel(accountNames, otp_state, timeCorrectionMillis, taskCount);
+  }
+
+  /**
+   * Gets the current TOTP state (time step) from the provided time correction, so that the step
+   * and the cached codes keyed by the correction agree even while the correction changes.
+   */
+  private long getTotpState(long timeCorrectionMillis) {
+    return mTotpCounter.getValueAtTime(
+        Utilities.millisToSeconds(mTotpClock.currentTimeMillis(timeCorrectionMillis)));
+  }
+
+  private Map<String, String> computeTotpCodes(
+      List<String> accountNames, long otp_state, long timeCorrectionMillis)
+      throws OtpSourceException {
+    Map<String, String> result = new LinkedHashMap<String, String>();
+    for (String accountName : accountNames) {
+      result.put(accountName, getTotpCode(accountName, otp_state, timeCorrectionMillis));
+    }
+    return result;
+  }
+
+  /**
+   * Gets the TOTP code of the provided account from {@link #mTotpCodeCache}, computing and caching
+   * it if necessary.
+   */
+  private String getTotpCode(String accountName, long otp_state, long timeCorrectionMillis)
+      throws OtpSourceException {
+    String code = mTotpCodeCache.get(accountName, otp_state, timeCorrectionMillis);
+    if (code == null) {
+      long generation = mTotpCodeCache.getGeneration();
+      code = computePin(accountName, getSecret(accountName), otp_state, null);
+      mTotpCodeCache.put(accountName, otp_state, timeCorrectionMillis, code, generation);
+    }
+    return code;
+  }
+
+  /**
+   * Splits the accounts into {@code taskCount} contiguous ranges, computes the first range on the
+   * calling thread and the others on {@link #mBulkExecutor}.
+   */
+  private Map<String, String> computeTotpCodesInParallel(
+      List<String> accountNames, final long otp_state, final long timeCorrectionMillis,
+      int taskCount) throws OtpSourceException {
+    int accountCount = accountNames.size();
+    List<Future<Map<String, String>>> futures =
+        new ArrayList<Future<Map<String, String>>>(taskCount - 1);
+    for (int i = 1; i < taskCount; i++) {
+      final List<String> range = accountNames.subList(
+          (int) ((long) accountCount * i / taskCount),
+          (int) ((long) accountCount * (i + 1) / taskCount));
+      futures.add(mBulkExecutor.submit(new Callable<Map<String, String>>() {
+        @Override
+        public Map<String, String> call() throws OtpSourceException {
+          return computeTotpCodes(range, otp_state, timeCorrectionMillis);
+        }
+      }));
+    }
+
+    Map<String, String> result;
+    try {
+      result = computeTotpCodes(
+          accountNames.subList(0, accountCount / taskCount), otp_state, timeCorrectionMillis);
+      for (Future<Map<String, String>> future : futures) {
+        result.putAll(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OtpSourceException("Interrupted", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof OtpSourceException) {
+        throw (OtpSourceException) e.getCause();
+      }
+      throw new OtpSourceException("Failed to compute codes", e.getCause());
+    } finally {
+      for (Future<Map<String, String>> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return result;
+  }
+
   // This variant is used when an additional challenge, such as URL or
   // transaction details, are included in the OTP request.
   // The additional string is appended to standard HOTP/TOTP state before
   // applying the MAC function.
   @Override
   public String respondToChallenge(String accountName, String challenge) throws OtpSourceException {
-    if (challenge == null) {
-      return getCurrentCode(accountName, null);
-    }
-    try {
-      byte[] challengeBytes = challenge.getBytes("UTF-8");
-      return getCurrentCode(accountName, challengeBytes);
-    } catch (UnsupportedEncodingException e) {
-      return "";
-    }
+    // The challenge is encoded as UTF-8 while it is signed, without an intermediate array.
+    return getCurrentCode(accountName, challenge);
   }
 
   @Override
@@ -71,13 +181,19 @@ public class OtpProvider implements OtpSource {
     return mTotpClock;
   }
 
-  private String getCurrentCode(String username, byte[] challenge) throws OtpSourceException {
+  private String getCurrentCode(String username, CharSequence challenge) throws OtpSourceException {
     // Account name is required.
     if (username == null) {
       throw new OtpSourceException("No account name");
     }
 
     OtpType type = mAccountDb.getType(username);
+    if ((type == OtpType.TOTP) && (challenge == null)) {
+      // Plain TOTP codes are the same throughout a time step and are thus cached.
+      long timeCorrectionMillis = mTotpClock.getTimeCorrectionMillis();
+      return getTotpCode(username, getTotpState(timeCorrectionMillis), timeCorrectionMillis);
+    }
+
     String secret = getSecret(username);
 
     long otp_state = 0;
@@ -88,12 +204,14 @@ public class OtpProvider implements OtpSource {
           mTotpCounter.getValueAtTime(Utilities.millisToSeconds(mTotpClock.currentTimeMillis()));
     } else if (type == OtpType.HOTP){
       // For counter-based OTP, the state is obtained by incrementing stored counter.
-      mAccountDb.incrementCounter(username);
-      Integer counter = mAccountDb.getCounter(username);
+      Integer counter = mAccountDb.incrementAndGetCounter(username);
+      if (counter == null) {
+        throw new OtpSourceException("No such account");
+      }
       otp_state = counter.longValue();
     }
 
-    return computePin(secret, otp_state, challenge);
+    return computePin(username, secret, otp_state, challenge);
   }
 
   public OtpProvider(AccountDb accountDb, TotpClock totpClock) {
@@ -101,33 +219,76 @@ public class OtpProvider implements OtpSource {
   }
 
   public OtpProvider(int interval, AccountDb accountDb, TotpClock totpClock) {
+    this(interval, accountDb, totpClock, getSharedBulkExecutor());
+  }
+
+  /**
+   * @param bulkExecutor executor on which {@link #getCurrentTotpCodes()} computes the codes of
+   *        large numbers of accounts in parallel, or {@code null} to always compute them on the
+   *        calling thread.
+   */
+  public OtpProvider(int interval, AccountDb accountDb, TotpClock totpClock,
+      ExecutorService bulkExecutor) {
     mAccountDb = accountDb;
+    mBulkExecutor = bulkExecutor;
     mTotpCounter = new TotpCounter(interval);
     mTotpClock = totpClock;
+    mAccountDb.addListener(mAccountListener);
+  }
+
+  /**
+   * Stops this provider from tracking changes to the accounts database. The provider must not be
+   * used afterwards.
+   */
+  public void close() {
+    mAccountDb.removeListener(mAccountListener);
+  }
+
+  private static synchronized ExecutorService getSharedBulkExecutor() {
+    if (sSharedBulkExecutor == null) {
+      // The calling thread computes one of the ranges itself
+      int threadCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+      sSharedBulkExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "OtpBulk");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return sSharedBulkExecutor;
   }
 
   /**
    * Computes the one-time PIN given the secret key.
    *
+   * @param username account name identifying the user.
    * @param secret the secret key
    * @param otp_state current token state (counter or time-interval)
-   * @param challenge optional challenge bytes to include when computing passcode.
+   * @param challenge optional challenge to include, UTF-8 encoded, when computing passcode.
    * @return the PIN
    */
-  private String computePin(String secret, long otp_state, byte[] challenge)
+  private String computePin(
+      String username, String secret, long otp_state, CharSequence challenge)
       throws OtpSourceException {
     if (secret == null || secret.length() == 0) {
       throw new OtpSourceException("Null or empty secret");
     }
 
-    try {
-      Signer signer = AccountDb.getSigningOracle(secret);
-      PasscodeGenerator pcg = new PasscodeGenerator(signer,
+    PasscodeGenerator pcg = mPasscodeGeneratorCache.get(username, secret,
         (challenge == null) ? PIN_LENGTH : REFLECTIVE_PIN_LENGTH);
+    if (pcg == null) {
+      throw new OtpSourceException("Invalid secret");
+    }
 
-      return (challenge == null) ?
-             pcg.generateResponseCode(otp_state) :
-             pcg.generateResponseCode(otp_state, challenge);
+    try {
+      // Generators, and their signers, are shared across calls and are not thread-safe.
+      synchronized (pcg) {
+        return (challenge == null) ?
+               pcg.generateResponseCode(otp_state) :
+               pcg.generateChallengeResponseCode(otp_state, challenge);
+      }
     } catch (GeneralSecurityException e) {
       throw new OtpSourceException("Crypto failure", e);
     }
@@ -143,7 +304,13 @@ public class OtpProvider implements OtpSource {
   }
 
   /** Default passcode timeout period (in seconds) */
-  public static final int DEFAULT_INTERVAL = 30;
+  public static final int DEFAULT_INTERVAL = PasscodeGenerator.INTERVAL;
+
+  /**
+   * Threads shared by the providers for computing codes in bulk. They are only started once a
+   * provider has enough accounts to split the work.
+   */
+  private static ExecutorService sSharedBulkExecutor;
 
   private final AccountDb mAccountDb;
 
@@ -152,4 +319,27 @@ public class OtpProvider implements OtpSource {
 
   /** Clock input for time-based OTPs (TOTP). */
   private final TotpClock mTotpClock;
+
+  /** Executor for computing codes in bulk, or {@code null}. */
+  private final ExecutorService mBulkExecutor;
+
+  /** Initialized generators of recently used accounts. */
+  private final PasscodeGeneratorCache mPasscodeGeneratorCache = new PasscodeGeneratorCache();
+
+  /** TOTP codes of the current time step. */
+  private final TotpCodeCache mTotpCodeCache = new TotpCodeCache();
+
+  /** Invalidates the cached generators and codes of accounts modified in {@link #mAccountDb}. */
+  private final AccountDb.Listener mAccountListener = new AccountDb.Listener() {
+    @Override
+    public void onAccountChanged(String email) {
+      if (email == null) {
+        mPasscodeGeneratorCache.invalidateAll();
+        mTotpCodeCache.invalidateAll();
+      } else {
+        mPasscodeGeneratorCache.invalidate(email);
+        mTotpCodeCache.invalidate(email);
+      }
+    }
+  };
 }
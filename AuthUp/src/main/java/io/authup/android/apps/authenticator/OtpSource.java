@@ -17,6 +17,7 @@
 package io.authup.android.apps.authenticator;
 
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * Abstraction for collection of OTP tokens.
@@ -44,6 +45,14 @@ public interface OtpSource {
    */
   String getNextCode(String accountName) throws OtpSourceException;
 
+  /**
+   * Return the current OTP codes of all time-based accounts. All codes are computed for the same
+   * reading of the clock, and thus for the same time step.
+   *
+   * @return OTP codes keyed by account name, in the order in which the accounts are stored.
+   */
+  Map<String, String> getCurrentTotpCodes() throws OtpSourceException;
+
   /**
    * Generate response to a given challenge based on next OTP code.
    * Subclasses are not required to implement this method.
@@ -20,57 +20,108 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Clock input for the time-based OTPs (TOTP). The input is based on the current system time
- * and is adjusted by a persistently stored correction value (offset in minutes).
+ * and is adjusted by a persistently stored correction value (offset in milliseconds).
+ *
+ * <p>The correction is stored in whole minutes, which the user can also edit in the settings, and
+ * in milliseconds, as measured by the Time Sync. The value in milliseconds is only used while it
+ * rounds to the value in minutes, so that editing the minutes overrides it.
  *
  * @author klyubin@google.com (Alex Klyubin)
  */
-public class TotpClock implements SharedPreferences.OnSharedPreferenceChangeListener {
+public class TotpClock implements Clock, SharedPreferences.OnSharedPreferenceChangeListener {
 
   // @VisibleForTesting
   static final String PREFERENCE_KEY_OFFSET_MINUTES = "timeCorrectionMinutes";
 
-  private final SharedPreferences mPreferences;
+  // @VisibleForTesting
+  static final String PREFERENCE_KEY_OFFSET_MILLIS = "timeCorrectionMillis";
 
-  private final Object mLock = new Object();
+  private final SharedPreferences mPreferences;
 
   /**
-   * Cached value of time correction (in minutes) or {@code null} if not cached. The value is cached
-   * because it's read very frequently (once every 100ms) and is modified very infrequently.
+   * Cached time correction or {@code null} if not cached. The value is cached because it's read
+   * very frequently (once every 100ms and for every code) and is modified very infrequently. It is
+   * published as an immutable snapshot so that reading it takes no lock.
    *
-   * @GuardedBy {@link #mLock}
+   * <p>The first read only populates the cache if it's still empty, whereas
+   * {@link #setTimeCorrectionMinutes(int)} and the preference listener replace the cached value.
+   * Thus a slow first read cannot overwrite a newer value.
    */
-  private Integer mCachedCorrectionMinutes;
+  private final AtomicReference<Correction> mCachedCorrection = new AtomicReference<Correction>();
 
   public TotpClock(Context context) {
-    mPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    this(PreferenceManager.getDefaultSharedPreferences(context));
+  }
+
+  // @VisibleForTesting
+  TotpClock(SharedPreferences preferences) {
+    mPreferences = preferences;
     mPreferences.registerOnSharedPreferenceChangeListener(this);
   }
 
   /**
    * Gets the number of milliseconds since epoch.
    */
+  @Override
   public long currentTimeMillis() {
-    return System.currentTimeMillis() + getTimeCorrectionMinutes() * Utilities.MINUTE_IN_MILLIS;
+    return currentTimeMillis(getCorrection().millis);
   }
 
   /**
-   * Gets the currently used time correction value.
+   * Gets the number of milliseconds since epoch, adjusted by a time correction that the caller has
+   * already read from {@link #getTimeCorrectionMillis()}. This lets the caller use the same
+   * correction for the time and for anything keyed by the correction.
+   */
+  public long currentTimeMillis(long timeCorrectionMillis) {
+    return System.currentTimeMillis() + timeCorrectionMillis;
+  }
+
+  /**
+   * Gets the currently used time correction value, rounded to whole minutes.
    *
    * @return number of minutes by which this device is behind the correct time.
    */
   public int getTimeCorrectionMinutes() {
-    synchronized (mLock) {
-      if (mCachedCorrectionMinutes == null) {
-        try {
-           mCachedCorrectionMinutes = mPreferences.getInt(PREFERENCE_KEY_OFFSET_MINUTES, 0);
-        } catch(ClassCastException e) {
-           mCachedCorrectionMinutes = Integer.valueOf(mPreferences.getString(PREFERENCE_KEY_OFFSET_MINUTES, "0"));
-        }
+    return getCorrection().minutes;
+  }
+
+  /**
+   * Gets the currently used time correction value.
+   *
+   * @return number of milliseconds by which this device is behind the correct time.
+   */
+  public long getTimeCorrectionMillis() {
+    return getCorrection().millis;
+  }
+
+  private Correction getCorrection() {
+    Correction correction = mCachedCorrection.get();
+    if (correction == null) {
+      mCachedCorrection.compareAndSet(null, readCorrection(mPreferences));
+      correction = mCachedCorrection.get();
+    }
+    return correction;
+  }
+
+  private static Correction readCorrection(SharedPreferences preferences) {
+    int minutes;
+    try {
+      minutes = preferences.getInt(PREFERENCE_KEY_OFFSET_MINUTES, 0);
+    } catch (ClassCastException e) {
+      minutes = Integer.valueOf(preferences.getString(PREFERENCE_KEY_OFFSET_MINUTES, "0"));
+    }
+    if (preferences.contains(PREFERENCE_KEY_OFFSET_MILLIS)) {
+      long millis = preferences.getLong(PREFERENCE_KEY_OFFSET_MILLIS, 0);
+      if (toMinutes(millis) == minutes) {
+        return new Correction(millis);
       }
-      return mCachedCorrectionMinutes;
+      // The minutes have been edited since the correction was measured
     }
+    return new Correction(minutes * Utilities.MINUTE_IN_MILLIS);
   }
 
   /**
@@ -79,17 +130,43 @@ public class TotpClock implements SharedPreferences.OnSharedPreferenceChangeList
    * @param minutes number of minutes by which this device is behind the correct time.
    */
   public void setTimeCorrectionMinutes(int minutes) {
-    synchronized (mLock) {
-      mPreferences.edit().putInt(PREFERENCE_KEY_OFFSET_MINUTES, minutes).commit();
-      // Invalidate the cache to force reading actual settings from time to time
-      mCachedCorrectionMinutes = null;
-    }
+    setTimeCorrectionMillis(minutes * Utilities.MINUTE_IN_MILLIS);
+  }
+
+  /**
+   * Sets the currently used time correction value.
+   *
+   * @param millis number of milliseconds by which this device is behind the correct time.
+   */
+  public void setTimeCorrectionMillis(long millis) {
+    mPreferences.edit()
+        .putInt(PREFERENCE_KEY_OFFSET_MINUTES, toMinutes(millis))
+        .putLong(PREFERENCE_KEY_OFFSET_MILLIS, millis)
+        .commit();
+    mCachedCorrection.set(new Correction(millis));
   }
-  
+
+  @Override
   public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-    if (key.equals(PREFERENCE_KEY_OFFSET_MINUTES)) {
-      // Invalidate the cache
-      mCachedCorrectionMinutes = null;
+    if (key.equals(PREFERENCE_KEY_OFFSET_MINUTES) || key.equals(PREFERENCE_KEY_OFFSET_MILLIS)) {
+      mCachedCorrection.set(readCorrection(sharedPreferences));
+    }
+  }
+
+  private static int toMinutes(long millis) {
+    return (int) Math.round(((double) millis) / Utilities.MINUTE_IN_MILLIS);
+  }
+
+  /**
+   * Immutable snapshot of the time correction.
+   */
+  private static final class Correction {
+    private final int minutes;
+    private final long millis;
+
+    private Correction(long millis) {
+      this.minutes = toMinutes(millis);
+      this.millis = millis;
     }
   }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the current TOTP code of each account, so that the codes requested repeatedly
+ * within a time step, e.g., by the list of accounts refreshing itself, are computed only once per
+ * step.
+ *
+ * <p>Each code is held together with the value of the {@link TotpCounter} for which it was
+ * computed, thus it is no longer returned once the step changes. All codes are discarded when the
+ * time correction of the {@link TotpClock} changes. The codes of an account must be discarded with
+ * {@link #invalidate(String)} when its secret changes. The least recently used entries are evicted
+ * once the cache is full.
+ *
+ * <p>To avoid caching a code computed from a secret which has been changed in the meantime,
+ * callers obtain a {@link #getGeneration() generation} before reading the secret and pass it to
+ * {@link #put(String, long, long, String, long)}, which ignores codes computed before the most
+ * recent invalidation.
+ *
+ * <p>Thread-safety: Instances of this class are thread-safe.
+ */
+final class TotpCodeCache {
+
+  /** Default maximum number of accounts for which codes are cached. */
+  static final int DEFAULT_MAX_SIZE = 256;
+
+  /** @GuardedBy {@link #mEntries} */
+  private final Map<String, CachedCode> mEntries;
+
+  /**
+   * Time correction (milliseconds) of the cached codes.
+   *
+   * @GuardedBy {@link #mEntries}
+   */
+  private long mTimeCorrectionMillis;
+
+  /**
+   * Number of invalidations so far.
+   *
+   * @GuardedBy {@link #mEntries}
+   */
+  private long mGeneration;
+
+  TotpCodeCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  TotpCodeCache(final int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Size must be positive: " + maxSize);
+    }
+    mEntries = new LinkedHashMap<String, CachedCode>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedCode> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Gets the cached code of the provided account.
+   *
+   * @param accountName name of the account.
+   * @param otpState value of the {@link TotpCounter} for which to get the code.
+   * @param timeCorrectionMillis current time correction of the {@link TotpClock}.
+   *
+   * @return code or {@code null} if the code for this state is not cached.
+   */
+  String get(String accountName, long otpState, long timeCorrectionMillis) {
+    synchronized (mEntries) {
+      if (timeCorrectionMillis != mTimeCorrectionMillis) {
+        invalidateAllLocked();
+        mTimeCorrectionMillis = timeCorrectionMillis;
+        return null;
+      }
+      CachedCode entry = mEntries.get(accountName);
+      return ((entry != null) && (entry.otpState == otpState)) ? entry.code : null;
+    }
+  }
+
+  /**
+   * Gets the current generation, to be passed to {@link #put(String, long, long, String, long)}.
+   * Must be obtained before reading the secret from which the code is computed.
+   */
+  long getGeneration() {
+    synchronized (mEntries) {
+      return mGeneration;
+    }
+  }
+
+  /**
+   * Caches the code of the provided account, replacing any code cached for it, unless the cache
+   * has been invalidated since the provided generation was obtained.
+   *
+   * @param accountName name of the account.
+   * @param otpState value of the {@link TotpCounter} for which the code was computed.
+   * @param timeCorrectionMillis time correction of the {@link TotpClock} with which the code was
+   *        computed.
+   * @param code the code.
+   * @param generation value of {@link #getGeneration()} before the secret was read.
+   */
+  void put(String accountName, long otpState, long timeCorrectionMillis, String code,
+      long generation) {
+    synchronized (mEntries) {
+      if ((generation != mGeneration) || (timeCorrectionMillis != mTimeCorrectionMillis)) {
+        return;
+      }
+      mEntries.put(accountName, new CachedCode(otpState, code));
+    }
+  }
+
+  /**
+   * Removes the cached code of the provided account.
+   */
+  void invalidate(String accountName) {
+    synchronized (mEntries) {
+      mEntries.remove(accountName);
+      mGeneration++;
+    }
+  }
+
+  /**
+   * Removes all cached codes.
+   */
+  void invalidateAll() {
+    synchronized (mEntries) {
+      invalidateAllLocked();
+    }
+  }
+
+  /** @GuardedBy {@link #mEntries} */
+  private void invalidateAllLocked() {
+    mEntries.clear();
+    mGeneration++;
+  }
+
+  /**
+   * Gets the number of accounts for which codes are currently cached.
+   */
+  int size() {
+    synchronized (mEntries) {
+      return mEntries.size();
+    }
+  }
+
+  private static class CachedCode {
+    private final long otpState;
+    private final String code;
+
+    private CachedCode(long otpState, String code) {
+      this.otpState = otpState;
+      this.code = code;
+    }
+  }
+}
@@ -20,10 +20,12 @@ import io.authup.android.apps.authenticator.AccountDb;
 import io.authup.android.apps.authenticator.AuthenticatorActivity;
 import io.authup.android.apps.authenticator.MarketBuildOptionalFeatures;
 import io.authup.android.apps.authenticator.OptionalFeatures;
+import io.authup.android.apps.authenticator.OtpProvider;
 import io.authup.android.apps.authenticator.OtpSource;
 import io.authup.android.apps.authenticator.TotpClock;
 import io.authup.android.apps.authenticator.dataimport.ExportServiceBasedImportController;
 import io.authup.android.apps.authenticator.dataimport.ImportController;
+import io.authup.android.apps.authenticator.timesync.DriftTracker;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
@@ -57,6 +59,7 @@ public final class DependencyInjector {
   private static AccountDb sAccountDb;
   private static OtpSource sOtpProvider;
   private static TotpClock sTotpClock;
+  private static DriftTracker sDriftTracker;
   private static PackageManager sPackageManager;
   private static StartActivityListener sStartActivityListener;
   private static HttpClient sHttpClient;
@@ -133,6 +136,21 @@ public final class DependencyInjector {
     return sTotpClock;
   }
 
+  /**
+   * Sets the {@link DriftTracker} instance returned by this injector. This will prevent the
+   * injector from creating its own instance.
+   */
+  public static synchronized void setDriftTracker(DriftTracker driftTracker) {
+    sDriftTracker = driftTracker;
+  }
+
+  public static synchronized DriftTracker getDriftTracker() {
+    if (sDriftTracker == null) {
+      sDriftTracker = new DriftTracker(getContext());
+    }
+    return sDriftTracker;
+  }
+
   /**
    * Sets the {@link PackageManager} instance returned by this injector. This will prevent the
    * injector from creating its own instance.
@@ -259,6 +277,9 @@ public final class DependencyInjector {
    * {@link #resetForIntegrationTesting(Context)}.
    */
   public static synchronized void close() {
+    if (sOtpProvider instanceof OtpProvider) {
+      ((OtpProvider) sOtpProvider).close();
+    }
     if (sAccountDb != null) {
       sAccountDb.close();
     }
@@ -274,6 +295,7 @@ public final class DependencyInjector {
     sAccountDb = null;
     sOtpProvider = null;
     sTotpClock = null;
+    sDriftTracker = null;
     sPackageManager = null;
     sStartActivityListener = null;
     sHttpClient = null;
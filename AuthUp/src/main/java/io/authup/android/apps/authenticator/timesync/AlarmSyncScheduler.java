@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator.timesync;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+
+/**
+ * {@link DriftTracker.SyncScheduler} that delivers an alarm to the {@link TimeSyncAlarmReceiver}.
+ *
+ * <p>The alarm does not wake the device up: a sync that is due while the device sleeps runs once it
+ * wakes up, which is before any codes are shown.
+ */
+class AlarmSyncScheduler implements DriftTracker.SyncScheduler {
+
+  private final Context mContext;
+
+  AlarmSyncScheduler(Context context) {
+    mContext = context;
+  }
+
+  @Override
+  public void scheduleSync(long delayMillis) {
+    Intent intent = new Intent(mContext, TimeSyncAlarmReceiver.class);
+    intent.setAction(TimeSyncAlarmReceiver.ACTION_SYNC);
+    // Replaces the alarm scheduled previously, because the PendingIntent is the same
+    PendingIntent operation =
+        PendingIntent.getBroadcast(mContext, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    AlarmManager alarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+    alarmManager.set(
+        AlarmManager.ELAPSED_REALTIME, SystemClock.elapsedRealtime() + delayMillis, operation);
+  }
+}
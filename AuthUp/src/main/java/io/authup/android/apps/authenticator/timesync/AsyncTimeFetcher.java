@@ -0,0 +1,262 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator.timesync;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetcher of the time correction, which obtains it from {@link TimeSource}s, trying each in turn
+ * until one succeeds, on background threads shared by all fetches.
+ *
+ * <p>A fetch can be cancelled through its {@link Future}. Cancelling aborts the request in progress
+ * by closing its connection, rather than waiting for the request to time out. The connection is
+ * closed on a background thread, because closing it can block, so that a fetch can be cancelled
+ * from the UI thread. A fetch that has not completed by its deadline is cancelled in the same way
+ * and reported as failed.
+ */
+class AsyncTimeFetcher {
+
+  /** Receiver of the outcome of a fetch that has not been cancelled. */
+  interface Callback {
+
+    /**
+     * Invoked when the time correction has been obtained.
+     *
+     * @param timeCorrectionMillis number of milliseconds by which this device is behind the
+     *        correct time.
+     */
+    void onTimeCorrectionObtained(long timeCorrectionMillis);
+
+    /** Invoked when none of the sources provided the time correction by the deadline. */
+    void onTimeCorrectionNotObtained();
+  }
+
+  private static final String LOG_TAG = "TimeSync";
+
+  /** Threads shared by the fetches, which exit after being idle for a while. */
+  private static ExecutorService sSharedExecutor;
+
+  /** Thread that cancels the fetches that exceed their deadline. */
+  private static ScheduledExecutorService sDeadlineExecutor;
+
+  private final Executor mBackgroundExecutor;
+  private final Executor mAbortExecutor;
+
+  AsyncTimeFetcher() {
+    this(getSharedExecutor());
+  }
+
+  // @VisibleForTesting
+  AsyncTimeFetcher(Executor backgroundExecutor) {
+    mBackgroundExecutor = backgroundExecutor;
+    // Not the background executor, whose threads may be blocked by the requests to abort
+    mAbortExecutor = getSharedExecutor();
+  }
+
+  /**
+   * Starts fetching the time correction.
+   *
+   * @param timeSources sources of the time, in order of preference. A source is only used if the
+   *        preceding sources fail.
+   * @param deadlineMillis time (milliseconds) after which the fetch is cancelled.
+   * @param callback receiver of the outcome, unless the fetch is cancelled through the returned
+   *        {@code Future}.
+   * @param callbackExecutor executor on which the callback is invoked.
+   *
+   * @return the fetch, whose result is the time correction (milliseconds).
+   */
+  Future<Long> fetch(List<TimeSource> timeSources, long deadlineMillis, Callback callback,
+      Executor callbackExecutor) {
+    Fetch fetch = new Fetch(
+        new ArrayList<TimeSource>(timeSources), callback, callbackExecutor, mAbortExecutor);
+    fetch.scheduleDeadline(deadlineMillis);
+    mBackgroundExecutor.execute(fetch);
+    return fetch;
+  }
+
+  private static synchronized ExecutorService getSharedExecutor() {
+    if (sSharedExecutor == null) {
+      sSharedExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+          Thread thread = new Thread("TimeSync") {
+            @Override
+            public void run() {
+              Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+              r.run();
+            }
+          };
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return sSharedExecutor;
+  }
+
+  private static synchronized ScheduledExecutorService getDeadlineExecutor() {
+    if (sDeadlineExecutor == null) {
+      sDeadlineExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "TimeSyncDeadline");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return sDeadlineExecutor;
+  }
+
+  /**
+   * Obtains the time correction from the first of the provided sources that succeeds.
+   *
+   * @throws IOException if none of the sources succeeded.
+   * @throws InterruptedIOException if interrupted, e.g., because the fetch was cancelled.
+   */
+  private static long getTimeCorrectionMillis(List<TimeSource> timeSources) throws IOException {
+    for (TimeSource timeSource : timeSources) {
+      try {
+        return timeSource.getTimeCorrectionMillis();
+      } catch (IOException e) {
+        Log.w(LOG_TAG, "Failed to obtain network time from "
+            + timeSource.getClass().getSimpleName() + ": " + e);
+      }
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedIOException("Cancelled");
+      }
+    }
+    throw new IOException("Failed to obtain network time from any source");
+  }
+
+  /** Fetch that aborts its time sources when cancelled. */
+  private static class Fetch extends FutureTask<Long> {
+    private final List<TimeSource> mTimeSources;
+    private final Callback mCallback;
+    private final Executor mCallbackExecutor;
+    private final Executor mAbortExecutor;
+
+    private volatile ScheduledFuture<?> mDeadline;
+    private volatile boolean mDeadlineExceeded;
+
+    Fetch(final List<TimeSource> timeSources, Callback callback, Executor callbackExecutor,
+        Executor abortExecutor) {
+      super(new Callable<Long>() {
+        @Override
+        public Long call() throws IOException {
+          return getTimeCorrectionMillis(timeSources);
+        }
+      });
+      mTimeSources = timeSources;
+      mCallback = callback;
+      mCallbackExecutor = callbackExecutor;
+      mAbortExecutor = abortExecutor;
+    }
+
+    void scheduleDeadline(long deadlineMillis) {
+      mDeadline = getDeadlineExecutor().schedule(new Runnable() {
+        @Override
+        public void run() {
+          mDeadlineExceeded = true;
+          cancel(true);
+        }
+      }, deadlineMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void done() {
+      ScheduledFuture<?> deadline = mDeadline;
+      if (deadline != null) {
+        deadline.cancel(false);
+      }
+
+      if (isCancelled()) {
+        // Aborting may block, so it is done neither on the thread that cancelled this fetch,
+        // possibly the UI thread, nor on the deadline thread shared by all fetches.
+        final boolean deadlineExceeded = mDeadlineExceeded;
+        mAbortExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            abortTimeSources();
+            // When cancelled by the client, the client is no longer interested in the outcome
+            if (deadlineExceeded) {
+              Log.w(LOG_TAG, "Failed to obtain network time by the deadline");
+              reportOutcome(null);
+            }
+          }
+        });
+        return;
+      }
+
+      Long timeCorrectionMillis = null;
+      try {
+        timeCorrectionMillis = get();
+      } catch (ExecutionException e) {
+        Log.w(LOG_TAG, "Failed to obtain network time due to connectivity issues");
+      } catch (InterruptedException e) {
+        // Does not block because this fetch is done
+        Thread.currentThread().interrupt();
+      }
+      reportOutcome(timeCorrectionMillis);
+    }
+
+    /**
+     * Invokes the callback on the callback executor.
+     *
+     * @param timeCorrectionMillis time correction or {@code null} if it was not obtained.
+     */
+    private void reportOutcome(final Long timeCorrectionMillis) {
+      mCallbackExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (timeCorrectionMillis != null) {
+            mCallback.onTimeCorrectionObtained(timeCorrectionMillis);
+          } else {
+            mCallback.onTimeCorrectionNotObtained();
+          }
+        }
+      });
+    }
+
+    /**
+     * Aborts the request in progress, because blocking socket I/O does not respond to interrupts.
+     */
+    private void abortTimeSources() {
+      for (TimeSource timeSource : mTimeSources) {
+        timeSource.abort();
+      }
+    }
+  }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator.timesync;
+
+import io.authup.android.apps.authenticator.Utilities;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tracker of the drift of this device's clock from the network time, which schedules Time Syncs
+ * in the background so that the time correction stays accurate without polling the network.
+ *
+ * <p>Each Time Sync records a sample of the wall-clock time, the time since boot
+ * ({@link SystemClock#elapsedRealtime()}) and the measured offset. The drift rate is the slope of
+ * the network time against the time since boot, fitted over the recent samples by least squares.
+ * The interval until the next sync doubles while the measured offsets are as predicted from the
+ * previous samples, halves when they are not, and is capped so that the predicted drift between
+ * syncs stays within {@link #MAX_DRIFT_MILLIS}.
+ *
+ * <p>Setting the wall clock, e.g., by the user or when the device reboots, changes its difference
+ * from the time since boot. Such a jump is detected by {@link #isClockJumped()}, after which the
+ * next sync is due immediately and the earlier samples are discarded.
+ *
+ * <p>A sync that fails is retried after a delay which doubles with each consecutive failure, up to
+ * {@link #MAX_RETRY_DELAY_MILLIS}. The delay is persisted so that it also holds across restarts of
+ * the process, and is reset by the next successful sync.
+ */
+public class DriftTracker {
+
+  /** Scheduler of the background Time Syncs. */
+  interface SyncScheduler {
+
+    /** Schedules the next sync to start after the provided delay, replacing any scheduled sync. */
+    void scheduleSync(long delayMillis);
+  }
+
+  /** Source of the wall-clock time and of the time since boot. */
+  // @VisibleForTesting
+  interface Clock {
+    long currentTimeMillis();
+
+    long elapsedRealtime();
+  }
+
+  private static final Clock SYSTEM_CLOCK = new Clock() {
+    @Override
+    public long currentTimeMillis() {
+      return System.currentTimeMillis();
+    }
+
+    @Override
+    public long elapsedRealtime() {
+      return SystemClock.elapsedRealtime();
+    }
+  };
+
+  private static final String LOG_TAG = "TimeSync";
+
+  // @VisibleForTesting
+  static final String PREFERENCE_KEY_SAMPLES = "timeSyncSamples";
+  private static final String PREFERENCE_KEY_SYNC_INTERVAL_MILLIS = "timeSyncIntervalMillis";
+  private static final String PREFERENCE_KEY_NEXT_SYNC_ELAPSED_REALTIME =
+      "timeSyncNextElapsedRealtime";
+  private static final String PREFERENCE_KEY_RETRY_DELAY_MILLIS = "timeSyncRetryDelayMillis";
+
+  private static final long HOUR_IN_MILLIS = 60 * Utilities.MINUTE_IN_MILLIS;
+
+  /** Number of the most recent samples used to estimate the drift rate. */
+  // @VisibleForTesting
+  static final int MAX_SAMPLES = 8;
+
+  // @VisibleForTesting
+  static final long MIN_SYNC_INTERVAL_MILLIS = HOUR_IN_MILLIS;
+  // @VisibleForTesting
+  static final long INITIAL_SYNC_INTERVAL_MILLIS = 6 * HOUR_IN_MILLIS;
+  // @VisibleForTesting
+  static final long MAX_SYNC_INTERVAL_MILLIS = 7 * 24 * HOUR_IN_MILLIS;
+
+  /** Delay before retrying after the first of consecutive failed syncs. */
+  // @VisibleForTesting
+  static final long MIN_RETRY_DELAY_MILLIS = MIN_SYNC_INTERVAL_MILLIS;
+  // @VisibleForTesting
+  static final long MAX_RETRY_DELAY_MILLIS = 24 * HOUR_IN_MILLIS;
+
+  /**
+   * Largest difference (milliseconds) between the measured and the predicted offset for which the
+   * offset is considered stable.
+   */
+  // @VisibleForTesting
+  static final long STABLE_OFFSET_TOLERANCE_MILLIS =
+      SyncNowController.TIME_ALREADY_CORRECT_TOLERANCE_MILLIS;
+
+  /** Largest drift (milliseconds) predicted to accumulate between syncs. */
+  // @VisibleForTesting
+  static final long MAX_DRIFT_MILLIS = 2 * Utilities.SECOND_IN_MILLIS;
+
+  /**
+   * Smallest change (milliseconds) in the difference between the wall-clock time and the time since
+   * boot that is considered a jump of the wall clock rather than a small adjustment.
+   */
+  // @VisibleForTesting
+  static final long CLOCK_JUMP_THRESHOLD_MILLIS = 2 * Utilities.SECOND_IN_MILLIS;
+
+  private final SharedPreferences mPreferences;
+  private final SyncScheduler mScheduler;
+  private final Clock mClock;
+
+  public DriftTracker(Context context) {
+    this(PreferenceManager.getDefaultSharedPreferences(context), new AlarmSyncScheduler(context),
+        SYSTEM_CLOCK);
+  }
+
+  // @VisibleForTesting
+  DriftTracker(SharedPreferences preferences, SyncScheduler scheduler, Clock clock) {
+    mPreferences = preferences;
+    mScheduler = scheduler;
+    mClock = clock;
+  }
+
+  /**
+   * Records the offset measured by a successful Time Sync and schedules the next sync.
+   *
+   * @param offsetMillis number of milliseconds by which this device is behind the network time.
+   */
+  public synchronized void onSyncSucceeded(long offsetMillis) {
+    long wallClockMillis = mClock.currentTimeMillis();
+    long elapsedRealtimeMillis = mClock.elapsedRealtime();
+    List<Sample> samples = readSamples();
+    long intervalMillis =
+        mPreferences.getLong(PREFERENCE_KEY_SYNC_INTERVAL_MILLIS, INITIAL_SYNC_INTERVAL_MILLIS);
+    if (!samples.isEmpty()) {
+      Sample lastSample = samples.get(samples.size() - 1);
+      if (isClockJumped(lastSample, wallClockMillis, elapsedRealtimeMillis)) {
+        samples.clear();
+        intervalMillis = INITIAL_SYNC_INTERVAL_MILLIS;
+      } else {
+        long predictedOffsetMillis =
+            predictOffsetMillis(samples, wallClockMillis, elapsedRealtimeMillis);
+        if (Math.abs(offsetMillis - predictedOffsetMillis) <= STABLE_OFFSET_TOLERANCE_MILLIS) {
+          intervalMillis *= 2;
+        } else {
+          intervalMillis /= 2;
+        }
+      }
+    }
+
+    samples.add(new Sample(wallClockMillis, elapsedRealtimeMillis, offsetMillis));
+    if (samples.size() > MAX_SAMPLES) {
+      samples.subList(0, samples.size() - MAX_SAMPLES).clear();
+    }
+    double driftRate = estimateDriftRate(samples);
+    if (driftRate != 0) {
+      intervalMillis = Math.min(intervalMillis, (long) (MAX_DRIFT_MILLIS / Math.abs(driftRate)));
+    }
+    intervalMillis =
+        Math.max(MIN_SYNC_INTERVAL_MILLIS, Math.min(MAX_SYNC_INTERVAL_MILLIS, intervalMillis));
+    Log.i(LOG_TAG, "Drift rate: " + Math.round(driftRate * 1000000) + " ppm, next sync in "
+        + intervalMillis / Utilities.MINUTE_IN_MILLIS + " min");
+
+    mPreferences.edit()
+        .putString(PREFERENCE_KEY_SAMPLES, writeSamples(samples))
+        .putLong(PREFERENCE_KEY_SYNC_INTERVAL_MILLIS, intervalMillis)
+        .putLong(PREFERENCE_KEY_NEXT_SYNC_ELAPSED_REALTIME, elapsedRealtimeMillis + intervalMillis)
+        .remove(PREFERENCE_KEY_RETRY_DELAY_MILLIS)
+        .commit();
+    mScheduler.scheduleSync(intervalMillis);
+  }
+
+  /**
+   * Schedules the retry of a Time Sync that failed, e.g., because the network is not available.
+   * The retry delay doubles with each consecutive failure. The interval reached so far is kept.
+   */
+  public synchronized void onSyncFailed() {
+    long retryDelayMillis = mPreferences.getLong(PREFERENCE_KEY_RETRY_DELAY_MILLIS, 0);
+    retryDelayMillis = (retryDelayMillis <= 0)
+        ? MIN_RETRY_DELAY_MILLIS : Math.min(MAX_RETRY_DELAY_MILLIS, retryDelayMillis * 2);
+    Log.i(LOG_TAG, "Retrying sync in " + retryDelayMillis / Utilities.MINUTE_IN_MILLIS + " min");
+
+    mPreferences.edit()
+        .putLong(PREFERENCE_KEY_RETRY_DELAY_MILLIS, retryDelayMillis)
+        .putLong(PREFERENCE_KEY_NEXT_SYNC_ELAPSED_REALTIME,
+            mClock.elapsedRealtime() + retryDelayMillis)
+        .commit();
+    mScheduler.scheduleSync(retryDelayMillis);
+  }
+
+  /**
+   * Schedules the next Time Sync, for example when the alarms of the scheduler may have been
+   * cleared on reboot.
+   */
+  public synchronized void scheduleNextSync() {
+    mScheduler.scheduleSync(getNextSyncDelayMillis());
+  }
+
+  /**
+   * Gets the time until the next Time Sync is due. The first sync, and a sync after the wall clock
+   * has jumped, are due immediately, unless they are being retried after failing.
+   */
+  // @VisibleForTesting
+  synchronized long getNextSyncDelayMillis() {
+    long nextSyncDelayMillis = Math.max(0,
+        mPreferences.getLong(PREFERENCE_KEY_NEXT_SYNC_ELAPSED_REALTIME, 0)
+            - mClock.elapsedRealtime());
+    long retryDelayMillis = mPreferences.getLong(PREFERENCE_KEY_RETRY_DELAY_MILLIS, 0);
+    if (retryDelayMillis > 0) {
+      // The time since boot starts over when the device reboots, which would postpone the retry
+      // beyond its delay
+      return Math.min(nextSyncDelayMillis, retryDelayMillis);
+    }
+    if (readSamples().isEmpty() || isClockJumped()) {
+      return 0;
+    }
+    return nextSyncDelayMillis;
+  }
+
+  /**
+   * Checks whether the wall clock has been set, or the device rebooted, since the last successful
+   * Time Sync. Small adjustments of the wall clock are not considered jumps.
+   */
+  public synchronized boolean isClockJumped() {
+    List<Sample> samples = readSamples();
+    if (samples.isEmpty()) {
+      return false;
+    }
+    return isClockJumped(
+        samples.get(samples.size() - 1), mClock.currentTimeMillis(), mClock.elapsedRealtime());
+  }
+
+  private static boolean isClockJumped(
+      Sample sample, long wallClockMillis, long elapsedRealtimeMillis) {
+    if (elapsedRealtimeMillis < sample.elapsedRealtimeMillis) {
+      // Rebooted
+      return true;
+    }
+    long bootTimeChangeMillis = (wallClockMillis - elapsedRealtimeMillis)
+        - (sample.wallClockMillis - sample.elapsedRealtimeMillis);
+    return Math.abs(bootTimeChangeMillis) >= CLOCK_JUMP_THRESHOLD_MILLIS;
+  }
+
+  /**
+   * Predicts the offset at the provided time from the last sample and the drift rate of the
+   * samples. The prediction follows adjustments of the wall clock since the last sample.
+   */
+  private static long predictOffsetMillis(
+      List<Sample> samples, long wallClockMillis, long elapsedRealtimeMillis) {
+    Sample lastSample = samples.get(samples.size() - 1);
+    double driftMillis =
+        estimateDriftRate(samples) * (elapsedRealtimeMillis - lastSample.elapsedRealtimeMillis);
+    return lastSample.getNetworkTimeSinceBootMillis()
+        - (wallClockMillis - elapsedRealtimeMillis) + Math.round(driftMillis);
+  }
+
+  /**
+   * Estimates the rate at which the network time gains on the time since boot of this device. The
+   * rate is {@code 0} if the samples do not span the {@link #MIN_SYNC_INTERVAL_MILLIS}, or if the
+   * drift over the samples is within the accuracy of the measurements.
+   *
+   * @return milliseconds gained per millisecond.
+   */
+  // @VisibleForTesting
+  static double estimateDriftRate(List<Sample> samples) {
+    int count = samples.size();
+    if (count < 2) {
+      return 0;
+    }
+    long spanMillis =
+        samples.get(count - 1).elapsedRealtimeMillis - samples.get(0).elapsedRealtimeMillis;
+    if (spanMillis < MIN_SYNC_INTERVAL_MILLIS) {
+      return 0;
+    }
+    // Least squares fit, relative to the first sample to preserve precision
+    Sample first = samples.get(0);
+    double meanX = 0;
+    double meanY = 0;
+    for (Sample sample : samples) {
+      meanX += sample.elapsedRealtimeMillis - first.elapsedRealtimeMillis;
+      meanY += sample.getNetworkTimeSinceBootMillis() - first.getNetworkTimeSinceBootMillis();
+    }
+    meanX /= count;
+    meanY /= count;
+    double covariance = 0;
+    double variance = 0;
+    for (Sample sample : samples) {
+      double x = sample.elapsedRealtimeMillis - first.elapsedRealtimeMillis - meanX;
+      double y = sample.getNetworkTimeSinceBootMillis() - first.getNetworkTimeSinceBootMillis()
+          - meanY;
+      covariance += x * y;
+      variance += x * x;
+    }
+    double rate = covariance / variance;
+    return (Math.abs(rate * spanMillis) <= STABLE_OFFSET_TOLERANCE_MILLIS) ? 0 : rate;
+  }
+
+  private List<Sample> readSamples() {
+    List<Sample> samples = new ArrayList<Sample>();
+    String value = mPreferences.getString(PREFERENCE_KEY_SAMPLES, "");
+    if (value.length() == 0) {
+      return samples;
+    }
+    try {
+      for (String sample : value.split(";")) {
+        String[] fields = sample.split(",");
+        samples.add(new Sample(
+            Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+      }
+    } catch (RuntimeException e) {
+      Log.w(LOG_TAG, "Discarding invalid samples: " + value);
+      samples.clear();
+    }
+    return samples;
+  }
+
+  private static String writeSamples(List<Sample> samples) {
+    StringBuilder result = new StringBuilder();
+    for (Sample sample : samples) {
+      if (result.length() > 0) {
+        result.append(';');
+      }
+      result.append(sample.wallClockMillis).append(',')
+          .append(sample.elapsedRealtimeMillis).append(',')
+          .append(sample.offsetMillis);
+    }
+    return result.toString();
+  }
+
+  /** Offset measured by a Time Sync and the times at which it was measured. */
+  // @VisibleForTesting
+  static final class Sample {
+    final long wallClockMillis;
+    final long elapsedRealtimeMillis;
+    final long offsetMillis;
+
+    Sample(long wallClockMillis, long elapsedRealtimeMillis, long offsetMillis) {
+      this.wallClockMillis = wallClockMillis;
+      this.elapsedRealtimeMillis = elapsedRealtimeMillis;
+      this.offsetMillis = offsetMillis;
+    }
+
+    /**
+     * Gets the network time relative to the boot of this device, which does not change when the
+     * wall clock is set, only as the clock of this device drifts.
+     */
+    long getNetworkTimeSinceBootMillis() {
+      return wallClockMillis + offsetMillis - elapsedRealtimeMillis;
+    }
+  }
+}
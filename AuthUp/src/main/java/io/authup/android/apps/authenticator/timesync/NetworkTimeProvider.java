@@ -16,6 +16,8 @@
 
 package io.authup.android.apps.authenticator.timesync;
 
+import io.authup.android.apps.authenticator.Utilities;
+
 import android.util.Log;
 
 import org.apache.http.Header;
@@ -26,24 +28,194 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.impl.cookie.DateParseException;
 import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.params.HttpConnectionParams;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Date;
 
 /**
  * Provider of network time that obtains the time by making a network request to Google.
  *
+ * <p>The time is taken from the {@code Date} header of the response, which only has a resolution
+ * of one second. {@link #getTimeCorrectionMillis()} thus makes a few requests, timed so that the
+ * header ticks over to the next second while they are in flight, to narrow down the sub-second
+ * phase of the network time.
+ *
+ * <p>The requests are made with the shared {@link HttpClient}, whose pooled keep-alive connections
+ * spare all but the first request the TCP and TLS handshakes, and have deadlines of their own.
+ * {@link #abort()} aborts the request in progress, closing its connection.
+ *
  * @author klyubin@google.com (Alex Klyubin)
  */
-public class NetworkTimeProvider {
+public class NetworkTimeProvider implements TimeSource {
 
   private static final String LOG_TAG = NetworkTimeProvider.class.getSimpleName();
   private static final String URL = "https://www.google.com";
 
+  /** Maximum number of requests made by {@link #getTimeCorrectionMillis()} by default. */
+  // @VisibleForTesting
+  static final int TIME_CORRECTION_SAMPLES = 4;
+
+  /** Deadline (milliseconds) for connecting, and for each read, used by default. */
+  public static final int DEFAULT_REQUEST_TIMEOUT_MILLIS = 10 * 1000;
+
+  /** Resolution (milliseconds) of the time in the {@code Date} header. */
+  private static final long DATE_RESOLUTION_MILLIS = Utilities.SECOND_IN_MILLIS;
+
+  /**
+   * Source of the local time, and means of waiting, used by {@link #getTimeCorrectionMillis()}.
+   */
+  // @VisibleForTesting
+  interface LocalClock {
+    long currentTimeMillis();
+
+    void sleep(long millis) throws InterruptedException;
+  }
+
+  private static final LocalClock SYSTEM_CLOCK = new LocalClock() {
+    @Override
+    public long currentTimeMillis() {
+      return System.currentTimeMillis();
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+      Thread.sleep(millis);
+    }
+  };
+
   private final HttpClient mHttpClient;
+  private final int mRequestTimeoutMillis;
+  private final int mMaxRequests;
+  private final LocalClock mLocalClock;
+
+  /** Request in progress, if any, to be aborted by {@link #abort()}. */
+  private volatile HttpHead mCurrentRequest;
+  private volatile boolean mAborted;
 
   public NetworkTimeProvider(HttpClient httpClient) {
+    this(httpClient, DEFAULT_REQUEST_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * @param requestTimeoutMillis deadline (milliseconds) for connecting, and for each read, of a
+   *        request.
+   */
+  public NetworkTimeProvider(HttpClient httpClient, int requestTimeoutMillis) {
+    this(httpClient, requestTimeoutMillis, TIME_CORRECTION_SAMPLES);
+  }
+
+  /**
+   * @param requestTimeoutMillis deadline (milliseconds) for connecting, and for each read, of a
+   *        request.
+   * @param maxRequests maximum number of requests made by {@link #getTimeCorrectionMillis()}. A
+   *        single request only narrows down the time correction to about a second, but does not
+   *        wait for the {@code Date} header to tick over.
+   */
+  public NetworkTimeProvider(HttpClient httpClient, int requestTimeoutMillis, int maxRequests) {
+    this(httpClient, requestTimeoutMillis, maxRequests, SYSTEM_CLOCK);
+  }
+
+  // @VisibleForTesting
+  NetworkTimeProvider(HttpClient httpClient, LocalClock localClock) {
+    this(httpClient, DEFAULT_REQUEST_TIMEOUT_MILLIS, TIME_CORRECTION_SAMPLES, localClock);
+  }
+
+  // @VisibleForTesting
+  NetworkTimeProvider(
+      HttpClient httpClient, int requestTimeoutMillis, int maxRequests, LocalClock localClock) {
+    if (maxRequests < 1) {
+      throw new IllegalArgumentException("maxRequests: " + maxRequests);
+    }
     mHttpClient = httpClient;
+    mRequestTimeoutMillis = requestTimeoutMillis;
+    mMaxRequests = maxRequests;
+    mLocalClock = localClock;
+  }
+
+  @Override
+  public void abort() {
+    mAborted = true;
+    HttpHead request = mCurrentRequest;
+    if (request != null) {
+      request.abort();
+    }
+  }
+
+  /**
+   * Measures the offset between the network time and the time of this device.
+   *
+   * <p>Each request bounds the offset: at some instant between sending the request and receiving
+   * the response, the network time was within the second of the {@code Date} header. The first
+   * request leaves the offset uncertain by a second plus the round-trip time. Each further request
+   * is sent so that, if the offset were in the middle of the remaining range, the header would tick
+   * over to the next second at the midpoint of the round trip, which halves the range. The offset
+   * returned is the middle of the final range, typically within a few hundred milliseconds of the
+   * actual offset.
+   *
+   * @return number of milliseconds by which this device is behind the network time.
+   *
+   * @throws IOException if an I/O error occurs.
+   * @throws InterruptedIOException if interrupted while waiting to send a request, or aborted.
+   */
+  @Override
+  public long getTimeCorrectionMillis() throws IOException {
+    // Bounds of the offset: [minOffset, maxOffset)
+    long minOffset = Long.MIN_VALUE;
+    long maxOffset = Long.MAX_VALUE;
+    long roundTripMillis = 0;
+    for (int i = 0; i < mMaxRequests; i++) {
+      if (i > 0) {
+        if (maxOffset - minOffset <= roundTripMillis) {
+          // Further requests cannot narrow the range
+          break;
+        }
+        waitForNextSample(minOffset + (maxOffset - minOffset) / 2, roundTripMillis);
+      }
+
+      long sendMillis = mLocalClock.currentTimeMillis();
+      long dateMillis = getNetworkTime();
+      long receiveMillis = mLocalClock.currentTimeMillis();
+      roundTripMillis = Math.max(0, receiveMillis - sendMillis);
+      long sampleMinOffset = dateMillis - receiveMillis;
+      long sampleMaxOffset = dateMillis + DATE_RESOLUTION_MILLIS - sendMillis;
+      if ((sampleMaxOffset <= minOffset) || (sampleMinOffset >= maxOffset)) {
+        // Inconsistent with the earlier requests, e.g., because either clock has been changed in
+        // the meantime. Start over from this request.
+        minOffset = sampleMinOffset;
+        maxOffset = sampleMaxOffset;
+      } else {
+        minOffset = Math.max(minOffset, sampleMinOffset);
+        maxOffset = Math.min(maxOffset, sampleMaxOffset);
+      }
+    }
+
+    long offset = minOffset + (maxOffset - minOffset) / 2;
+    Log.i(LOG_TAG, "Time correction: " + offset + " ms +/- " + (maxOffset - minOffset) / 2 + " ms");
+    return offset;
+  }
+
+  /**
+   * Waits until the time at which to send the next request, so that the midpoint of its round trip
+   * falls onto the start of a second of the network time if the offset is as estimated.
+   */
+  private void waitForNextSample(long estimatedOffset, long roundTripMillis)
+      throws InterruptedIOException {
+    long now = mLocalClock.currentTimeMillis();
+    long earliestNetworkMidpoint = now + roundTripMillis / 2 + estimatedOffset;
+    long phase = ((earliestNetworkMidpoint % DATE_RESOLUTION_MILLIS) + DATE_RESOLUTION_MILLIS)
+        % DATE_RESOLUTION_MILLIS;
+    long delayMillis = (phase == 0) ? 0 : DATE_RESOLUTION_MILLIS - phase;
+    if (delayMillis == 0) {
+      return;
+    }
+    try {
+      mLocalClock.sleep(delayMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to send request");
+    }
   }
 
   /**
@@ -52,17 +224,31 @@ public class NetworkTimeProvider {
    * @return time (milliseconds since epoch).
    *
    * @throws IOException if an I/O error occurs.
+   * @throws InterruptedIOException if aborted.
    */
   public long getNetworkTime() throws IOException {
     HttpHead request = new HttpHead(URL);
-    Log.i(LOG_TAG, "Sending request to " + request.getURI());
+    // Takes precedence over the timeouts of the client
+    HttpConnectionParams.setConnectionTimeout(request.getParams(), mRequestTimeoutMillis);
+    HttpConnectionParams.setSoTimeout(request.getParams(), mRequestTimeoutMillis);
+    mCurrentRequest = request;
     HttpResponse httpResponse;
     try {
+      if (mAborted) {
+        throw new InterruptedIOException("Aborted");
+      }
+      Log.i(LOG_TAG, "Sending request to " + request.getURI());
       httpResponse = mHttpClient.execute(request);
     } catch (ClientProtocolException e) {
       throw new IOException(String.valueOf(e));
     } catch (IOException e) {
+      // Includes timeouts, which are InterruptedIOExceptions too
+      if (mAborted) {
+        throw new InterruptedIOException("Aborted");
+      }
       throw new IOException("Failed due to connectivity issues: " + e);
+    } finally {
+      mCurrentRequest = null;
     }
 
     try {
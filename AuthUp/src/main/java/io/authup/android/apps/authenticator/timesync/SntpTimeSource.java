@@ -0,0 +1,391 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator.timesync;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * {@link TimeSource} that obtains the time from NTP servers using SNTP (RFC 4330).
+ *
+ * <p>Each server is queried a few times. The queries of a round are sent to all servers at once
+ * and their responses are collected on a single socket. Each response yields a sample of the
+ * offset of the server's clock from this device's clock and of the round-trip delay of the
+ * exchange, with millisecond or better resolution. The samples are combined into a single offset
+ * as specified by the {@link Selection}. {@link #abort()} closes the socket, which ends the wait
+ * for responses at once.
+ */
+public class SntpTimeSource implements TimeSource {
+
+  /** Way in which the offset is selected from the samples. */
+  public enum Selection {
+    /**
+     * Offset of the sample with the shortest round-trip delay, which is the least affected by
+     * queueing and asymmetric routes.
+     */
+    MIN_DELAY,
+
+    /** Median offset of all samples, which tolerates a minority of servers with the wrong time. */
+    MEDIAN,
+  }
+
+  private static final String LOG_TAG = SntpTimeSource.class.getSimpleName();
+
+  /** Standard UDP port of NTP servers. */
+  public static final int NTP_PORT = 123;
+
+  /** Servers queried by default. Their addresses are resolved when the time is obtained. */
+  public static final List<InetSocketAddress> DEFAULT_SERVERS = Collections.unmodifiableList(
+      Arrays.asList(
+          InetSocketAddress.createUnresolved("time1.google.com", NTP_PORT),
+          InetSocketAddress.createUnresolved("time2.google.com", NTP_PORT),
+          InetSocketAddress.createUnresolved("time3.google.com", NTP_PORT),
+          InetSocketAddress.createUnresolved("time4.google.com", NTP_PORT)));
+
+  /** Number of rounds of queries made by default. */
+  public static final int DEFAULT_QUERIES_PER_SERVER = 2;
+
+  /** Time (milliseconds) for which the responses of a round are awaited by default. */
+  public static final int DEFAULT_TIMEOUT_MILLIS = 2000;
+
+  // @VisibleForTesting
+  static final int PACKET_LENGTH = 48;
+  // @VisibleForTesting
+  static final int MODE_CLIENT = 3;
+  // @VisibleForTesting
+  static final int MODE_SERVER = 4;
+  private static final int VERSION = 3;
+  private static final int LEAP_NOT_IN_SYNC = 3;
+  private static final int MAX_STRATUM = 15;
+  // @VisibleForTesting
+  static final int ORIGINATE_TIMESTAMP_OFFSET = 24;
+  // @VisibleForTesting
+  static final int RECEIVE_TIMESTAMP_OFFSET = 32;
+  // @VisibleForTesting
+  static final int TRANSMIT_TIMESTAMP_OFFSET = 40;
+
+  /** Number of seconds between the NTP epoch (1900) and the Java epoch (1970). */
+  private static final long NTP_EPOCH_OFFSET_SECONDS = 2208988800L;
+  private static final long NANOS_PER_SECOND = 1000000000L;
+  private static final long NANOS_PER_MILLI = 1000000L;
+
+  private final List<InetSocketAddress> mServers;
+  private final int mQueriesPerServer;
+  private final int mTimeoutMillis;
+  private final Selection mSelection;
+
+  /** Socket of the queries in progress, if any, to be closed by {@link #abort()}. */
+  private volatile DatagramSocket mSocket;
+  private volatile boolean mAborted;
+
+  /** Source of the values of the transmit timestamps of queries, see {@link #queryServers}. */
+  private Random mRandom;
+
+  public SntpTimeSource() {
+    this(DEFAULT_SERVERS, DEFAULT_QUERIES_PER_SERVER, DEFAULT_TIMEOUT_MILLIS, Selection.MEDIAN);
+  }
+
+  /**
+   * @param servers addresses of the servers to query. Unresolved addresses are resolved when the
+   *        time is obtained.
+   * @param queriesPerServer number of queries sent to each server.
+   * @param timeoutMillis time (milliseconds) for which the responses to the queries sent to the
+   *        servers at once are awaited.
+   * @param selection way in which the offset is selected from the samples.
+   */
+  public SntpTimeSource(List<InetSocketAddress> servers, int queriesPerServer, int timeoutMillis,
+      Selection selection) {
+    if (servers.isEmpty()) {
+      throw new IllegalArgumentException("No servers");
+    }
+    if (queriesPerServer < 1) {
+      throw new IllegalArgumentException("queriesPerServer: " + queriesPerServer);
+    }
+    if (timeoutMillis < 1) {
+      throw new IllegalArgumentException("timeoutMillis: " + timeoutMillis);
+    }
+    mServers = new ArrayList<InetSocketAddress>(servers);
+    mQueriesPerServer = queriesPerServer;
+    mTimeoutMillis = timeoutMillis;
+    mSelection = selection;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IOException if none of the servers could be resolved or responded with a valid time.
+   * @throws InterruptedIOException if interrupted between rounds of queries, or aborted.
+   */
+  @Override
+  public long getTimeCorrectionMillis() throws IOException {
+    List<InetSocketAddress> servers = resolveServers();
+    // Local times are measured on a monotonic clock, anchored once to the wall clock, so that the
+    // samples are not skewed by changes to the wall clock while the queries are in flight.
+    long anchorNanos = System.currentTimeMillis() * NANOS_PER_MILLI - System.nanoTime();
+
+    List<Sample> samples = new ArrayList<Sample>();
+    DatagramSocket socket = new DatagramSocket();
+    mSocket = socket;
+    try {
+      for (int i = 0; i < mQueriesPerServer; i++) {
+        if (mAborted) {
+          throw new InterruptedIOException("Aborted");
+        }
+        if (Thread.currentThread().isInterrupted()) {
+          throw new InterruptedIOException("Interrupted while querying NTP servers");
+        }
+        queryServers(socket, servers, anchorNanos, samples);
+      }
+    } catch (IOException e) {
+      if (mAborted) {
+        // The socket was closed while in use
+        throw new InterruptedIOException("Aborted");
+      }
+      throw e;
+    } finally {
+      mSocket = null;
+      socket.close();
+    }
+    if (samples.isEmpty()) {
+      throw new IOException("No valid responses from " + servers);
+    }
+
+    long offsetNanos = selectOffsetNanos(samples, mSelection);
+    long offset = Math.round((double) offsetNanos / NANOS_PER_MILLI);
+    Log.i(LOG_TAG, "Time correction: " + offset + " ms, " + mSelection + " of " + samples.size()
+        + " samples");
+    return offset;
+  }
+
+  @Override
+  public void abort() {
+    mAborted = true;
+    DatagramSocket socket = mSocket;
+    if (socket != null) {
+      socket.close();
+    }
+  }
+
+  private List<InetSocketAddress> resolveServers() throws IOException {
+    List<InetSocketAddress> result = new ArrayList<InetSocketAddress>(mServers.size());
+    for (InetSocketAddress server : mServers) {
+      if (server.isUnresolved()) {
+        server = new InetSocketAddress(server.getHostName(), server.getPort());
+        if (server.isUnresolved()) {
+          Log.w(LOG_TAG, "Failed to resolve " + server.getHostName());
+          continue;
+        }
+      }
+      result.add(server);
+    }
+    if (result.isEmpty()) {
+      throw new IOException("Failed to resolve any of " + mServers);
+    }
+    return result;
+  }
+
+  /**
+   * Sends a query to each of the servers and adds a sample for each valid response received within
+   * the timeout.
+   *
+   * <p>The transmit timestamp of each query is random rather than the time of this device. Servers
+   * return it as the originate timestamp of their response, which thus identifies the query that
+   * the response belongs to, and makes it hard to forge a response without seeing the query.
+   */
+  private void queryServers(DatagramSocket socket, List<InetSocketAddress> servers,
+      long anchorNanos, List<Sample> samples) throws IOException {
+    if (mRandom == null) {
+      mRandom = new SecureRandom();
+    }
+    int serverCount = servers.size();
+    long[] nonces = new long[serverCount];
+    long[] sendTimesNanos = new long[serverCount];
+    boolean[] done = new boolean[serverCount];
+    int pendingCount = 0;
+
+    byte[] query = new byte[PACKET_LENGTH];
+    query[0] = (byte) ((VERSION << 3) | MODE_CLIENT);
+    for (int i = 0; i < serverCount; i++) {
+      nonces[i] = mRandom.nextLong();
+      ByteBuffer.wrap(query).putLong(TRANSMIT_TIMESTAMP_OFFSET, nonces[i]);
+      sendTimesNanos[i] = anchorNanos + System.nanoTime();
+      try {
+        socket.send(new DatagramPacket(query, PACKET_LENGTH, servers.get(i)));
+        pendingCount++;
+      } catch (IOException e) {
+        Log.w(LOG_TAG, "Failed to send query to " + servers.get(i) + ": " + e);
+        done[i] = true;
+      }
+    }
+
+    byte[] response = new byte[PACKET_LENGTH];
+    DatagramPacket responsePacket = new DatagramPacket(response, PACKET_LENGTH);
+    long deadlineNanos = System.nanoTime() + mTimeoutMillis * NANOS_PER_MILLI;
+    while (pendingCount > 0) {
+      long remainingMillis = (deadlineNanos - System.nanoTime()) / NANOS_PER_MILLI;
+      if (remainingMillis <= 0) {
+        break;
+      }
+      socket.setSoTimeout((int) remainingMillis);
+      responsePacket.setLength(PACKET_LENGTH);
+      try {
+        socket.receive(responsePacket);
+      } catch (SocketTimeoutException e) {
+        break;
+      }
+      long receiveTimeNanos = anchorNanos + System.nanoTime();
+      if (responsePacket.getLength() < PACKET_LENGTH) {
+        continue;
+      }
+
+      ByteBuffer buffer = ByteBuffer.wrap(response);
+      long originateTimestamp = buffer.getLong(ORIGINATE_TIMESTAMP_OFFSET);
+      int i = 0;
+      while ((i < serverCount) && (done[i] || (nonces[i] != originateTimestamp)
+          || !servers.get(i).getAddress().equals(responsePacket.getAddress())
+          || (servers.get(i).getPort() != responsePacket.getPort()))) {
+        i++;
+      }
+      if (i == serverCount) {
+        // Duplicate, late or forged response
+        continue;
+      }
+      done[i] = true;
+      pendingCount--;
+
+      Sample sample = parseResponse(buffer, sendTimesNanos[i], receiveTimeNanos);
+      if (sample == null) {
+        Log.w(LOG_TAG, "Invalid response from " + servers.get(i));
+      } else {
+        samples.add(sample);
+      }
+    }
+    if (pendingCount > 0) {
+      Log.w(LOG_TAG, pendingCount + " of " + serverCount + " servers did not respond in time");
+    }
+  }
+
+  /**
+   * Computes the sample from the provided response, or returns {@code null} if the server does not
+   * know the time.
+   */
+  private static Sample parseResponse(ByteBuffer response, long sendTimeNanos,
+      long receiveTimeNanos) {
+    int leapIndicator = (response.get(0) >> 6) & 3;
+    int mode = response.get(0) & 7;
+    int stratum = response.get(1) & 0xff;
+    long serverReceiveTimestamp = response.getLong(RECEIVE_TIMESTAMP_OFFSET);
+    long serverTransmitTimestamp = response.getLong(TRANSMIT_TIMESTAMP_OFFSET);
+    if ((leapIndicator == LEAP_NOT_IN_SYNC) || (mode != MODE_SERVER)
+        // Stratum 0 is a Kiss-o'-Death message, e.g., asking to reduce the rate of queries
+        || (stratum == 0) || (stratum > MAX_STRATUM)
+        || (serverReceiveTimestamp == 0) || (serverTransmitTimestamp == 0)) {
+      return null;
+    }
+    long serverReceiveTimeNanos = ntpTimestampToNanos(serverReceiveTimestamp);
+    long serverTransmitTimeNanos = ntpTimestampToNanos(serverTransmitTimestamp);
+    if (serverTransmitTimeNanos < serverReceiveTimeNanos) {
+      return null;
+    }
+    long offsetNanos = ((serverReceiveTimeNanos - sendTimeNanos)
+        + (serverTransmitTimeNanos - receiveTimeNanos)) / 2;
+    long delayNanos = (receiveTimeNanos - sendTimeNanos)
+        - (serverTransmitTimeNanos - serverReceiveTimeNanos);
+    return new Sample(offsetNanos, Math.max(0, delayNanos));
+  }
+
+  // @VisibleForTesting
+  static long selectOffsetNanos(List<Sample> samples, Selection selection) {
+    switch (selection) {
+      case MIN_DELAY:
+        Sample best = samples.get(0);
+        for (Sample sample : samples) {
+          if (sample.delayNanos < best.delayNanos) {
+            best = sample;
+          }
+        }
+        return best.offsetNanos;
+      case MEDIAN:
+        long[] offsets = new long[samples.size()];
+        for (int i = 0; i < offsets.length; i++) {
+          offsets[i] = samples.get(i).offsetNanos;
+        }
+        Arrays.sort(offsets);
+        int middle = offsets.length / 2;
+        if ((offsets.length % 2) == 1) {
+          return offsets[middle];
+        }
+        // Average without overflowing
+        return offsets[middle - 1] + (offsets[middle] - offsets[middle - 1]) / 2;
+      default:
+        throw new IllegalArgumentException(String.valueOf(selection));
+    }
+  }
+
+  /**
+   * Converts the provided NTP timestamp to nanoseconds since the Java epoch. Timestamps whose most
+   * significant bit is clear are taken to be in era 1, which starts in 2036.
+   */
+  // @VisibleForTesting
+  static long ntpTimestampToNanos(long timestamp) {
+    long seconds = timestamp >>> 32;
+    if ((seconds & 0x80000000L) == 0) {
+      seconds += 1L << 32;
+    }
+    long fraction = timestamp & 0xffffffffL;
+    return (seconds - NTP_EPOCH_OFFSET_SECONDS) * NANOS_PER_SECOND
+        + ((fraction * NANOS_PER_SECOND) >>> 32);
+  }
+
+  /**
+   * Converts the provided time (nanoseconds since the Java epoch, not negative) to an NTP
+   * timestamp.
+   */
+  // @VisibleForTesting
+  static long nanosToNtpTimestamp(long nanos) {
+    long seconds = nanos / NANOS_PER_SECOND + NTP_EPOCH_OFFSET_SECONDS;
+    // Rounded up so that converting back yields the same time
+    long fraction = (((nanos % NANOS_PER_SECOND) << 32) + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND;
+    return ((seconds & 0xffffffffL) << 32) | fraction;
+  }
+
+  /** Offset of a server's clock and round-trip delay measured by a query. */
+  // @VisibleForTesting
+  static final class Sample {
+    final long offsetNanos;
+    final long delayNanos;
+
+    Sample(long offsetNanos, long delayNanos) {
+      this.offsetNanos = offsetNanos;
+      this.delayNanos = delayNanos;
+    }
+  }
+}
@@ -28,8 +28,8 @@ import android.os.Bundle;
 
 /**
  * Activity that adjusts the application's internal system time offset (for the purposes of
- * computing TOTP verification codes) by making a network request to Google and comparing Google's
- * time to the device's time.
+ * computing TOTP verification codes) by querying Google's NTP servers, or by making a network
+ * request to Google if they cannot be reached, and comparing Google's time to the device's time.
  *
  * @author klyubin@google.com (Alex Klyubin)
  */
@@ -56,7 +56,8 @@ public class SyncNowActivity extends Activity implements SyncNowController.Prese
     } else {
       mController = new SyncNowController(
           DependencyInjector.getTotpClock(),
-          new NetworkTimeProvider(DependencyInjector.getHttpClient()));
+          DependencyInjector.getDriftTracker(),
+          SyncNowController.createDefaultTimeSources());
     }
 
     mController.attach(this);
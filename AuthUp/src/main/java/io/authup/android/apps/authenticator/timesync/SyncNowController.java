@@ -19,20 +19,22 @@ package io.authup.android.apps.authenticator.timesync;
 import io.authup.android.apps.authenticator.RunOnThisLooperThreadExecutor;
 import io.authup.android.apps.authenticator.TotpClock;
 import io.authup.android.apps.authenticator.Utilities;
+import io.authup.android.apps.authenticator.testability.DependencyInjector;
 
-import android.os.Handler;
 import android.util.Log;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Controller of the {@link SyncNowActivity}. As soon as started, the controller attempts to
- * obtain the network time using a {@link NetworkTimeProvider}, then computes the offset between
- * the device's system time and the network time and updates {@link TotpClock} to use that as
- * its time correction value.
+ * obtain the offset between the device's system time and the network time from each of its
+ * {@link TimeSource}s in turn, until one succeeds, and updates {@link TotpClock} to use that as
+ * its time correction value. The outcome is recorded by the {@link DriftTracker}, which schedules
+ * the next Time Sync in the background.
  *
  * @author klyubin@google.com (Alex Klyubin)
  */
@@ -62,40 +64,87 @@ class SyncNowController {
 
   private static final String LOG_TAG = "TimeSync";
 
+  /**
+   * Largest difference (milliseconds) between the new and the current time correction for which
+   * the time is considered already correct. Smaller differences are within the accuracy of the
+   * measurement.
+   */
+  // @VisibleForTesting
+  static final long TIME_ALREADY_CORRECT_TOLERANCE_MILLIS = 500;
+
+  /**
+   * Time (milliseconds) after which obtaining the time correction is given up, while the user
+   * waits for it.
+   */
+  // @VisibleForTesting
+  static final long TIME_SYNC_DEADLINE_MILLIS = 30 * Utilities.SECOND_IN_MILLIS;
+
   private final TotpClock mTotpClock;
-  private final NetworkTimeProvider mNetworkTimeProvider;
-  private final Executor mBackgroundExecutor;
+  private final DriftTracker mDriftTracker;
+  private final List<TimeSource> mTimeSources;
+  private final AsyncTimeFetcher mTimeFetcher;
+  private final long mDeadlineMillis;
   private final Executor mCallbackFromBackgroundExecutor;
-  private final boolean mBackgroundExecutorServiceOwnedByThisController;
 
   private Presenter mPresenter;
   private State mState = State.NOT_STARTED;
   private Result mResult;
 
+  /** Fetch of the time correction, cancelled when this controller finishes. */
+  private Future<Long> mTimeCorrectionFetch;
+
   // @VisibleForTesting
   SyncNowController(
       TotpClock totpClock,
-      NetworkTimeProvider networkTimeProvider,
-      Executor backgroundExecutor,
-      boolean backgroundExecutorServiceOwnedByThisController,
+      DriftTracker driftTracker,
+      List<TimeSource> timeSources,
+      long deadlineMillis,
+      AsyncTimeFetcher timeFetcher,
       Executor callbackFromBackgroundExecutor) {
     mTotpClock = totpClock;
-    mNetworkTimeProvider = networkTimeProvider;
-    mBackgroundExecutor = backgroundExecutor;
-    mBackgroundExecutorServiceOwnedByThisController =
-        backgroundExecutorServiceOwnedByThisController;
+    mDriftTracker = driftTracker;
+    mTimeSources = new ArrayList<TimeSource>(timeSources);
+    mDeadlineMillis = deadlineMillis;
+    mTimeFetcher = timeFetcher;
     mCallbackFromBackgroundExecutor = callbackFromBackgroundExecutor;
   }
 
-  SyncNowController(TotpClock totpClock, NetworkTimeProvider networkTimeProvider) {
+  /**
+   * @param timeSources sources of the time, in order of preference. A source is only used if the
+   *        preceding sources fail.
+   */
+  SyncNowController(
+      TotpClock totpClock, DriftTracker driftTracker, List<TimeSource> timeSources) {
+    this(totpClock, driftTracker, timeSources, TIME_SYNC_DEADLINE_MILLIS);
+  }
+
+  /**
+   * @param timeSources sources of the time, in order of preference. A source is only used if the
+   *        preceding sources fail.
+   * @param deadlineMillis time (milliseconds) after which obtaining the time correction is given
+   *        up.
+   */
+  SyncNowController(TotpClock totpClock, DriftTracker driftTracker, List<TimeSource> timeSources,
+      long deadlineMillis) {
     this(
         totpClock,
-        networkTimeProvider,
-        Executors.newSingleThreadExecutor(),
-        true,
+        driftTracker,
+        timeSources,
+        deadlineMillis,
+        new AsyncTimeFetcher(),
         new RunOnThisLooperThreadExecutor());
   }
 
+  /**
+   * Creates the sources of the time used outside of tests, in order of preference: NTP servers,
+   * and an HTTP server for networks on which they cannot be reached.
+   */
+  static List<TimeSource> createDefaultTimeSources() {
+    return Arrays.<TimeSource>asList(
+        new SntpTimeSource(),
+        new NetworkTimeProvider(DependencyInjector.getHttpClient()));
+  }
+
   /**
    * Attaches the provided presentation layer to this controller. The previously attached
    * presentation layer (if any) stops receiving events from this controller.
@@ -160,14 +209,23 @@ class SyncNowController {
     if (mPresenter != null) {
       mPresenter.onStarted();
     }
-    // Avoid blocking this thread on the Time Sync operation by invoking it on a different thread
-    // (provided by the Executor) and posting the results back to this thread.
-    mBackgroundExecutor.execute(new Runnable() {
-      @Override
-      public void run() {
-        runBackgroundSyncAndPostResult(mCallbackFromBackgroundExecutor);
-      }
-    });
+    // Avoid blocking this thread on the Time Sync operation by fetching the time correction on a
+    // background thread and posting the results back to this thread.
+    mTimeCorrectionFetch = mTimeFetcher.fetch(
+        mTimeSources,
+        mDeadlineMillis,
+        new AsyncTimeFetcher.Callback() {
+          @Override
+          public void onTimeCorrectionObtained(long timeCorrectionMillis) {
+            onNewTimeCorrectionObtained(timeCorrectionMillis);
+          }
+
+          @Override
+          public void onTimeCorrectionNotObtained() {
+            onNewTimeCorrectionNotObtained();
+          }
+        },
+        mCallbackFromBackgroundExecutor);
   }
 
   private void onCancelledByUser() {
@@ -175,12 +233,12 @@ class SyncNowController {
   }
 
   /**
-   * Invoked when the time correction value was successfully obtained from the network time
-   * provider.
+   * Invoked when the time correction value was successfully obtained from a time source.
    *
-   * @param timeCorrectionMinutes number of minutes by which this device is behind the correct time.
+   * @param timeCorrectionMillis number of milliseconds by which this device is behind the correct
+   *        time.
    */
-  private void onNewTimeCorrectionObtained(int timeCorrectionMinutes) {
+  private void onNewTimeCorrectionObtained(long timeCorrectionMillis) {
     if (mState != State.IN_PROGRESS) {
       // Don't apply the new time correction if this controller is not waiting for this.
       // This callback may be invoked after the Time Sync operation has been cancelled or stopped
@@ -188,18 +246,31 @@ class SyncNowController {
       return;
     }
 
-    long oldTimeCorrectionMinutes = mTotpClock.getTimeCorrectionMinutes();
+    mDriftTracker.onSyncSucceeded(timeCorrectionMillis);
+    long oldTimeCorrectionMillis = mTotpClock.getTimeCorrectionMillis();
     Log.i(LOG_TAG, "Obtained new time correction: "
-        + timeCorrectionMinutes + " min, old time correction: "
-        + oldTimeCorrectionMinutes + " min");
-    if (timeCorrectionMinutes == oldTimeCorrectionMinutes) {
+        + timeCorrectionMillis + " ms, old time correction: "
+        + oldTimeCorrectionMillis + " ms");
+    if (Math.abs(timeCorrectionMillis - oldTimeCorrectionMillis)
+        <= TIME_ALREADY_CORRECT_TOLERANCE_MILLIS) {
       finish(Result.TIME_ALREADY_CORRECT);
     } else {
-      mTotpClock.setTimeCorrectionMinutes(timeCorrectionMinutes);
+      mTotpClock.setTimeCorrectionMillis(timeCorrectionMillis);
       finish(Result.TIME_CORRECTED);
     }
   }
 
+  /**
+   * Invoked when none of the time sources provided the time correction value.
+   */
+  private void onNewTimeCorrectionNotObtained() {
+    if (mState != State.IN_PROGRESS) {
+      return;
+    }
+    mDriftTracker.onSyncFailed();
+    finish(Result.ERROR_CONNECTIVITY_ISSUE);
+  }
+
   /**
    * Terminates this controller's operation with the provided result/outcome.
    */
@@ -208,8 +279,9 @@ class SyncNowController {
       // Not permitted to change state when already DONE
       return;
     }
-    if (mBackgroundExecutorServiceOwnedByThisController) {
-      ((ExecutorService) mBackgroundExecutor).shutdownNow();
+    if (mTimeCorrectionFetch != null) {
+      // Aborts the request in progress, if any
+      mTimeCorrectionFetch.cancel(true);
     }
     mState = State.DONE;
     mResult = result;
@@ -217,34 +289,4 @@ class SyncNowController {
       mPresenter.onDone(result);
     }
   }
-
-  /**
-   * Obtains the time correction value (<b>may block for a while</b>) and posts the result/error
-   * using the provided {@link Handler}.
-   */
-  private void runBackgroundSyncAndPostResult(Executor callbackExecutor) {
-    long networkTimeMillis;
-    try {
-      networkTimeMillis = mNetworkTimeProvider.getNetworkTime();
-    } catch (IOException e) {
-      Log.w(LOG_TAG, "Failed to obtain network time due to connectivity issues");
-      callbackExecutor.execute(new Runnable() {
-        @Override
-        public void run() {
-          finish(Result.ERROR_CONNECTIVITY_ISSUE);
-        }
-      });
-      return;
-    }
-
-    long timeCorrectionMillis = networkTimeMillis - System.currentTimeMillis();
-    final int timeCorrectionMinutes = (int) Math.round(
-        ((double) timeCorrectionMillis) / Utilities.MINUTE_IN_MILLIS);
-    callbackExecutor.execute(new Runnable() {
-      @Override
-      public void run() {
-        onNewTimeCorrectionObtained(timeCorrectionMinutes);
-      }
-    });
-  }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator.timesync;
+
+import java.io.IOException;
+
+/**
+ * Source of the correct time, used by {@link SyncNowController} to correct the time of this
+ * device.
+ */
+interface TimeSource {
+
+  /**
+   * Measures the offset between the correct time and the time of this device. <b>May block for a
+   * while.</b>
+   *
+   * @return number of milliseconds by which this device is behind the correct time.
+   *
+   * @throws IOException if the time could not be obtained.
+   */
+  long getTimeCorrectionMillis() throws IOException;
+
+  /**
+   * Aborts {@link #getTimeCorrectionMillis()} in progress on another thread by closing its
+   * connection, so that it throws an {@link java.io.InterruptedIOException} without waiting for a
+   * timeout. The time cannot be obtained from this source afterwards.
+   */
+  void abort();
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator.timesync;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Receiver of the alarms of the {@link AlarmSyncScheduler}, which runs the background Time Syncs
+ * scheduled by the {@link DriftTracker}. The receiver is not exported, so that other apps cannot
+ * make it sync.
+ */
+public class TimeSyncAlarmReceiver extends BroadcastReceiver {
+
+  /** Action of the alarms of the {@link AlarmSyncScheduler}. */
+  static final String ACTION_SYNC = "io.authup.android.apps.authenticator.timesync.SYNC";
+
+  @Override
+  public void onReceive(Context context, Intent intent) {
+    if (!ACTION_SYNC.equals(intent.getAction())) {
+      return;
+    }
+    TimeSyncReceiver.startBackgroundSync(goAsync());
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator.timesync;
+
+import io.authup.android.apps.authenticator.Utilities;
+import io.authup.android.apps.authenticator.testability.DependencyInjector;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Receiver that runs a Time Sync as soon as the wall clock jumps. The receiver is exported so that
+ * the system can deliver {@link Intent#ACTION_TIME_CHANGED}, which other apps cannot send, and it
+ * ignores any other broadcast. The syncs scheduled by the {@link DriftTracker} are run by the
+ * {@link TimeSyncAlarmReceiver}, which is not exported.
+ */
+public class TimeSyncReceiver extends BroadcastReceiver {
+
+  private static final String LOG_TAG = "TimeSync";
+
+  /**
+   * Time (milliseconds) after which a background Time Sync is given up. The broadcast is held with
+   * {@link #goAsync()} until then, which must end well before the system considers the receiver
+   * not responding (10 seconds for a broadcast in the foreground). A sync that is given up is
+   * retried later, as when the network is not available.
+   */
+  // @VisibleForTesting
+  static final long BACKGROUND_TIME_SYNC_DEADLINE_MILLIS = 8 * Utilities.SECOND_IN_MILLIS;
+
+  /**
+   * Time (milliseconds) for which the responses of the NTP servers are awaited in the background.
+   */
+  private static final int BACKGROUND_SNTP_TIMEOUT_MILLIS = 2000;
+
+  /**
+   * Deadline (milliseconds) for connecting to the HTTP server, and for reading its response, in the
+   * background.
+   */
+  private static final int BACKGROUND_HTTP_REQUEST_TIMEOUT_MILLIS = 2500;
+
+  @Override
+  public void onReceive(Context context, Intent intent) {
+    if (!Intent.ACTION_TIME_CHANGED.equals(intent.getAction())) {
+      return;
+    }
+    if (!DependencyInjector.getDriftTracker().isClockJumped()) {
+      // Small adjustment, e.g., by the automatic network time of the device
+      return;
+    }
+    startBackgroundSync(goAsync());
+  }
+
+  /**
+   * Starts a Time Sync on behalf of a receiver, finishing the broadcast once the sync is done.
+   *
+   * @param pendingResult result of the broadcast, obtained with {@link #goAsync()}.
+   */
+  static void startBackgroundSync(final PendingResult pendingResult) {
+    // The controller does its work on a background thread and reports back on this thread
+    SyncNowController controller = new SyncNowController(
+        DependencyInjector.getTotpClock(),
+        DependencyInjector.getDriftTracker(),
+        createBackgroundTimeSources(),
+        BACKGROUND_TIME_SYNC_DEADLINE_MILLIS);
+    controller.attach(new SyncNowController.Presenter() {
+      @Override
+      public void onStarted() {}
+
+      @Override
+      public void onDone(SyncNowController.Result result) {
+        Log.i(LOG_TAG, "Background Time Sync done: " + result);
+        pendingResult.finish();
+      }
+    });
+  }
+
+  /**
+   * Creates the sources of the time used in the background. Unlike the default sources, which may
+   * take longer than {@link #BACKGROUND_TIME_SYNC_DEADLINE_MILLIS}, they make a single round of
+   * queries to the NTP servers and a single request to the HTTP server, whose timeouts together
+   * leave time for resolving the servers' addresses.
+   */
+  private static List<TimeSource> createBackgroundTimeSources() {
+    return Arrays.<TimeSource>asList(
+        new SntpTimeSource(SntpTimeSource.DEFAULT_SERVERS, 1, BACKGROUND_SNTP_TIMEOUT_MILLIS,
+            SntpTimeSource.Selection.MEDIAN),
+        new NetworkTimeProvider(
+            DependencyInjector.getHttpClient(), BACKGROUND_HTTP_REQUEST_TIMEOUT_MILLIS, 1));
+  }
+}
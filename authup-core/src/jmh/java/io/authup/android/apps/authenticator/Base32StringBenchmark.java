@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import io.authup.android.apps.authenticator.Base32String.DecodingException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link Base32String} encoding and decoding of secrets of typical sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class Base32StringBenchmark {
+
+  /** Length of the secret in bytes. */
+  @Param({"10", "16", "20", "32", "64"})
+  public int secretLength;
+
+  private byte[] mSecret;
+  private String mEncodedSecret;
+  private byte[] mDecodeBuffer;
+
+  @Setup
+  public void setUp() {
+    mSecret = new byte[secretLength];
+    new Random(1).nextBytes(mSecret);
+    mEncodedSecret = Base32String.encode(mSecret);
+    mDecodeBuffer = new byte[secretLength];
+  }
+
+  @Benchmark
+  public String encode() {
+    return Base32String.encode(mSecret);
+  }
+
+  @Benchmark
+  public byte[] decode() throws DecodingException {
+    return Base32String.decode(mEncodedSecret);
+  }
+
+  @Benchmark
+  public int decodeIntoArray() throws DecodingException {
+    return Base32String.decode(mEncodedSecret, mDecodeBuffer, 0);
+  }
+}
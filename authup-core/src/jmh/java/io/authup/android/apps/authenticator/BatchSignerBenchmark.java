@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares generating the passcodes of many keys for the same state with
+ * {@link PasscodeGenerator#generateCodes} against generating them one key at a time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class BatchSignerBenchmark {
+
+  @Param({"16", "256"})
+  public int keyCount;
+
+  private Sha1HmacBatchSigner mBatchSigner;
+  private PasscodeGenerator[] mGenerators;
+  private int[] mCodes;
+  private long mState;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(1);
+    byte[][] keys = new byte[keyCount][20];
+    mGenerators = new PasscodeGenerator[keyCount];
+    for (int i = 0; i < keyCount; i++) {
+      random.nextBytes(keys[i]);
+      mGenerators[i] = new PasscodeGenerator(new Sha1HmacSigner(keys[i]));
+    }
+    mBatchSigner = new Sha1HmacBatchSigner(keys);
+    mCodes = new int[keyCount];
+  }
+
+  @Benchmark
+  public int[] generateCodes() {
+    PasscodeGenerator.generateCodes(mState++, mBatchSigner, 6, mCodes);
+    return mCodes;
+  }
+
+  @Benchmark
+  public int[] generateCodesOneByOne() throws GeneralSecurityException {
+    long state = mState++;
+    for (int i = 0; i < keyCount; i++) {
+      mCodes[i] = mGenerators[i].generateCode(state);
+    }
+    return mCodes;
+  }
+}
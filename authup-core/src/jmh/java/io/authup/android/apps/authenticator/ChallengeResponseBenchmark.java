@@ -0,0 +1,103 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures challenge-response (reflective) passcodes for transaction-signing sized challenges:
+ * signing a {@code byte[]} copied together with the state, as done before
+ * {@link PasscodeGenerator#generateChallengeCode(long, ByteBuffer)}, against signing the state and
+ * the challenge in place.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ChallengeResponseBenchmark {
+
+  /** Name of the {@link SignerFactory} backend, see {@link Signers#FACTORIES}. */
+  @Param({"jce-mac", "java"})
+  public String implementation;
+
+  /** Length (characters, all ASCII) of the challenge. */
+  @Param({"32", "4096"})
+  public int challengeLength;
+
+  private PasscodeGenerator mGenerator;
+  private String mChallenge;
+  private ByteBuffer mChallengeBuffer;
+  private long mState;
+
+  @Setup
+  public void setUp() throws Exception {
+    byte[] key = Base32String.decode(PasscodeGeneratorBenchmark.SECRET);
+    for (SignerFactory factory : Signers.FACTORIES) {
+      if (factory.getName().equals(implementation)) {
+        mGenerator = new PasscodeGenerator(factory.createSigner(key), 9);
+      }
+    }
+    if (mGenerator == null) {
+      throw new IllegalArgumentException("Unknown implementation: " + implementation);
+    }
+    StringBuilder challenge = new StringBuilder(challengeLength);
+    while (challenge.length() < challengeLength) {
+      challenge.append((char) ('a' + challenge.length() % 26));
+    }
+    mChallenge = challenge.toString();
+    mChallengeBuffer = ByteBuffer.allocateDirect(challengeLength);
+    mChallengeBuffer.put(mChallenge.getBytes("UTF-8")).flip();
+  }
+
+  @Benchmark
+  public int concatenatedBytes() throws Exception {
+    byte[] challenge = mChallenge.getBytes("UTF-8");
+    byte[] value = ByteBuffer.allocate(8 + challenge.length)
+        .putLong(mState++)
+        .put(challenge)
+        .array();
+    return mGenerator.generateCode(value);
+  }
+
+  @Benchmark
+  public int byteBuffer() throws GeneralSecurityException {
+    mChallengeBuffer.rewind();
+    return mGenerator.generateChallengeCode(mState++, mChallengeBuffer);
+  }
+
+  @Benchmark
+  public int charSequence() throws GeneralSecurityException {
+    return mGenerator.generateChallengeCode(mState++, mChallenge);
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import io.authup.android.apps.authenticator.PasscodeGenerator.Signer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the HMAC-SHA1 {@link Signer} implementations on the 8-byte messages of HOTP/TOTP.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class HmacSignerBenchmark {
+
+  /**
+   * Name of the {@link SignerFactory} backend, see {@link Signers#FACTORIES}. {@code conscrypt} is
+   * only available where its provider is installed and can be selected with
+   * {@code -p implementation=conscrypt}.
+   */
+  @Param({"jce-mac", "jce-digest", "java"})
+  public String implementation;
+
+  private Signer mSigner;
+  private PasscodeGenerator mGenerator;
+  private final byte[] mMessage = new byte[8];
+  private long mState;
+
+  @Setup
+  public void setUp() throws Exception {
+    byte[] key = Base32String.decode(PasscodeGeneratorBenchmark.SECRET);
+    for (SignerFactory factory : Signers.FACTORIES) {
+      if (factory.getName().equals(implementation)) {
+        mSigner = factory.createSigner(key);
+      }
+    }
+    if (mSigner == null) {
+      throw new IllegalArgumentException("Unknown implementation: " + implementation);
+    }
+    mGenerator = new PasscodeGenerator(mSigner);
+  }
+
+  @Benchmark
+  public byte[] sign() throws GeneralSecurityException {
+    mMessage[7]++;
+    return mSigner.sign(mMessage);
+  }
+
+  @Benchmark
+  public int generateCode() throws GeneralSecurityException {
+    return mGenerator.generateCode(mState++);
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link AccountDb} held in memory in place of the SQLite database, which is not available
+ * outside of Android. Only the accessors used by {@link OtpProvider} are supported.
+ */
+class InMemoryAccountDb extends AccountDb {
+
+  /** @GuardedBy this */
+  private final Map<String, Account> mAccounts = new LinkedHashMap<String, Account>();
+
+  /** @GuardedBy this */
+  private final Map<String, String> mSecrets = new LinkedHashMap<String, String>();
+
+  private final List<Listener> mListeners = new CopyOnWriteArrayList<Listener>();
+
+  /**
+   * Adds or replaces an account, notifying the listeners as {@link AccountDb#update} does.
+   */
+  void put(String name, String secret, OtpType type, int counter) {
+    synchronized (this) {
+      mAccounts.put(name, new Account(name, type, counter, null));
+      mSecrets.put(name, secret);
+    }
+    for (Listener listener : mListeners) {
+      listener.onAccountChanged(name);
+    }
+  }
+
+  @Override
+  public void addListener(Listener listener) {
+    mListeners.add(listener);
+  }
+
+  @Override
+  public void removeListener(Listener listener) {
+    mListeners.remove(listener);
+  }
+
+  @Override
+  public synchronized boolean nameExists(String email) {
+    return mAccounts.containsKey(email);
+  }
+
+  @Override
+  public synchronized String getSecret(String email) {
+    return mSecrets.get(email);
+  }
+
+  @Override
+  public synchronized OtpType getType(String email) {
+    Account account = mAccounts.get(email);
+    return (account != null) ? account.type : null;
+  }
+
+  @Override
+  public synchronized Integer getCounter(String email) {
+    Account account = mAccounts.get(email);
+    return (account != null) ? account.counter : null;
+  }
+
+  @Override
+  synchronized Integer incrementAndGetCounter(String email) {
+    Account account = mAccounts.get(email);
+    if (account == null) {
+      return null;
+    }
+    account = new Account(email, account.type, account.counter + 1, account.providerType);
+    mAccounts.put(email, account);
+    return account.counter;
+  }
+
+  @Override
+  public synchronized int getNames(Collection<String> result) {
+    result.addAll(mAccounts.keySet());
+    return mAccounts.size();
+  }
+
+  @Override
+  public synchronized List<Account> getAccounts() {
+    return Collections.unmodifiableList(new ArrayList<Account>(mAccounts.values()));
+  }
+}
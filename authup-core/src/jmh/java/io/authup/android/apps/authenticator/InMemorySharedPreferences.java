@@ -0,0 +1,190 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link SharedPreferences} held in memory, so that classes which keep their state in preferences
+ * can be benchmarked outside of Android. Edits are committed synchronously and notify the
+ * registered listeners.
+ */
+class InMemorySharedPreferences implements SharedPreferences {
+
+  /** @GuardedBy this */
+  private final Map<String, Object> mValues = new HashMap<String, Object>();
+
+  private final List<OnSharedPreferenceChangeListener> mListeners =
+      new CopyOnWriteArrayList<OnSharedPreferenceChangeListener>();
+
+  @Override
+  public synchronized Map<String, ?> getAll() {
+    return new HashMap<String, Object>(mValues);
+  }
+
+  @Override
+  public String getString(String key, String defValue) {
+    return (String) get(key, defValue);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public Set<String> getStringSet(String key, Set<String> defValues) {
+    return (Set<String>) get(key, defValues);
+  }
+
+  @Override
+  public int getInt(String key, int defValue) {
+    return (Integer) get(key, defValue);
+  }
+
+  @Override
+  public long getLong(String key, long defValue) {
+    return (Long) get(key, defValue);
+  }
+
+  @Override
+  public float getFloat(String key, float defValue) {
+    return (Float) get(key, defValue);
+  }
+
+  @Override
+  public boolean getBoolean(String key, boolean defValue) {
+    return (Boolean) get(key, defValue);
+  }
+
+  @Override
+  public synchronized boolean contains(String key) {
+    return mValues.containsKey(key);
+  }
+
+  @Override
+  public Editor edit() {
+    return new InMemoryEditor();
+  }
+
+  @Override
+  public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+    mListeners.add(listener);
+  }
+
+  @Override
+  public void unregisterOnSharedPreferenceChangeListener(
+      OnSharedPreferenceChangeListener listener) {
+    mListeners.remove(listener);
+  }
+
+  private synchronized Object get(String key, Object defValue) {
+    return mValues.containsKey(key) ? mValues.get(key) : defValue;
+  }
+
+  private class InMemoryEditor implements Editor {
+    private final Map<String, Object> mChanges = new HashMap<String, Object>();
+    private final Set<String> mRemovals = new HashSet<String>();
+    private boolean mClear;
+
+    @Override
+    public Editor putString(String key, String value) {
+      return put(key, value);
+    }
+
+    @Override
+    public Editor putStringSet(String key, Set<String> values) {
+      return put(key, (values != null) ? new HashSet<String>(values) : null);
+    }
+
+    @Override
+    public Editor putInt(String key, int value) {
+      return put(key, value);
+    }
+
+    @Override
+    public Editor putLong(String key, long value) {
+      return put(key, value);
+    }
+
+    @Override
+    public Editor putFloat(String key, float value) {
+      return put(key, value);
+    }
+
+    @Override
+    public Editor putBoolean(String key, boolean value) {
+      return put(key, value);
+    }
+
+    @Override
+    public Editor remove(String key) {
+      mRemovals.add(key);
+      return this;
+    }
+
+    @Override
+    public Editor clear() {
+      mClear = true;
+      return this;
+    }
+
+    @Override
+    public boolean commit() {
+      Set<String> changedKeys = new HashSet<String>();
+      synchronized (InMemorySharedPreferences.this) {
+        if (mClear) {
+          changedKeys.addAll(mValues.keySet());
+          mValues.clear();
+        }
+        for (String key : mRemovals) {
+          if (mValues.remove(key) != null) {
+            changedKeys.add(key);
+          }
+        }
+        for (Map.Entry<String, Object> change : mChanges.entrySet()) {
+          if (change.getValue() == null) {
+            mValues.remove(change.getKey());
+          } else {
+            mValues.put(change.getKey(), change.getValue());
+          }
+          changedKeys.add(change.getKey());
+        }
+      }
+      for (String key : changedKeys) {
+        for (OnSharedPreferenceChangeListener listener : mListeners) {
+          listener.onSharedPreferenceChanged(InMemorySharedPreferences.this, key);
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void apply() {
+      commit();
+    }
+
+    private Editor put(String key, Object value) {
+      mChanges.put(key, value);
+      return this;
+    }
+  }
+}
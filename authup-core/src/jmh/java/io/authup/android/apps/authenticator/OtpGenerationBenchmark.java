@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import io.authup.android.apps.authenticator.AccountDb.OtpType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks generating TOTP codes end-to-end through {@link OtpProvider}, as the app does, with
+ * the accounts held by an {@link InMemoryAccountDb} in place of the SQLite database and the time
+ * correction held by {@link InMemorySharedPreferences}, neither of which is available outside of
+ * Android.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class OtpGenerationBenchmark {
+
+  /** Number of accounts whose codes are generated in turn. */
+  @Param({"1", "20"})
+  public int accountCount;
+
+  private InMemoryAccountDb mAccountDb;
+  private OtpProvider mOtpProvider;
+  private String[] mAccountNames;
+  private String[] mSecrets;
+  private int mNextAccount;
+
+  @Setup
+  public void setUp() {
+    mAccountDb = new InMemoryAccountDb();
+    mOtpProvider = new OtpProvider(mAccountDb, new TotpClock(new InMemorySharedPreferences()));
+    mAccountNames = new String[accountCount];
+    mSecrets = new String[accountCount];
+    Random random = new Random(1);
+    for (int i = 0; i < accountCount; i++) {
+      byte[] secret = new byte[10];
+      random.nextBytes(secret);
+      mAccountNames[i] = "user" + i + "@example.com";
+      mSecrets[i] = Base32String.encode(secret);
+      mAccountDb.put(mAccountNames[i], mSecrets[i], OtpType.TOTP, 0);
+    }
+  }
+
+  /**
+   * Gets the code of an account, which is computed once per time step and then cached.
+   */
+  @Benchmark
+  public String getNextCode() throws OtpSourceException {
+    return mOtpProvider.getNextCode(mAccountNames[nextAccount()]);
+  }
+
+  /**
+   * Gets the code of an account whose secret has just been changed, so that neither its generator
+   * nor its code are cached.
+   */
+  @Benchmark
+  public String getNextCode_uncached() throws OtpSourceException {
+    int account = nextAccount();
+    mAccountDb.put(mAccountNames[account], mSecrets[account], OtpType.TOTP, 0);
+    return mOtpProvider.getNextCode(mAccountNames[account]);
+  }
+
+  /**
+   * Gets the codes of all accounts, as the app does to refresh its list of accounts.
+   */
+  @Benchmark
+  public Map<String, String> getCurrentTotpCodes() throws OtpSourceException {
+    return mOtpProvider.getCurrentTotpCodes();
+  }
+
+  private int nextAccount() {
+    int account = mNextAccount;
+    mNextAccount = (mNextAccount + 1) % mAccountNames.length;
+    return account;
+  }
+}
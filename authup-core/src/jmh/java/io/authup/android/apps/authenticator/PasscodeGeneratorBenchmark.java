@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks generation of passcodes of different lengths by {@link PasscodeGenerator}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class PasscodeGeneratorBenchmark {
+
+  static final String SECRET = "7777777777777777";
+
+  @Param({"6", "8", "9"})
+  public int codeLength;
+
+  private PasscodeGenerator mGenerator;
+  private long mState;
+
+  @Setup
+  public void setUp() throws Exception {
+    mGenerator = new PasscodeGenerator(Signers.forSecret(SECRET), codeLength);
+  }
+
+  @Benchmark
+  public String generateResponseCode() throws GeneralSecurityException {
+    return mGenerator.generateResponseCode(mState++);
+  }
+
+  @Benchmark
+  public int generateCode() throws GeneralSecurityException {
+    return mGenerator.generateCode(mState++);
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import android.content.SharedPreferences;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading the time correction of a {@link TotpClock} shared by several threads, as the
+ * UI and the code generation do. The clock is backed by {@link InMemorySharedPreferences} in place
+ * of Android's preferences, which it only reads on the first call and when they change.
+ *
+ * <p>The {@code locked} benchmarks are the baseline: they read the correction under a lock, as
+ * {@link TotpClock} did before it published the correction through a volatile field. Each read is
+ * measured with one thread and with four threads contending for the clock.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class TimeCorrectionReadBenchmark {
+
+  private TotpClock mTotpClock;
+  private LockedTimeCorrection mLockedTimeCorrection;
+
+  @Setup
+  public void setUp() {
+    mTotpClock = new TotpClock(new InMemorySharedPreferences());
+    mTotpClock.setTimeCorrectionMillis(3 * Utilities.MINUTE_IN_MILLIS + 250);
+
+    InMemorySharedPreferences lockedPreferences = new InMemorySharedPreferences();
+    lockedPreferences.edit().putInt(LockedTimeCorrection.PREFERENCE_KEY_OFFSET_MINUTES, 3).commit();
+    mLockedTimeCorrection = new LockedTimeCorrection(lockedPreferences);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public long getTimeCorrectionMillis() {
+    return mTotpClock.getTimeCorrectionMillis();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public long lockedGetTimeCorrectionMillis() {
+    return mLockedTimeCorrection.getTimeCorrectionMinutes() * Utilities.MINUTE_IN_MILLIS;
+  }
+
+  @Benchmark
+  @Threads(4)
+  public long getTimeCorrectionMillisContended() {
+    return mTotpClock.getTimeCorrectionMillis();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public long lockedGetTimeCorrectionMillisContended() {
+    return mLockedTimeCorrection.getTimeCorrectionMinutes() * Utilities.MINUTE_IN_MILLIS;
+  }
+
+  @Benchmark
+  @Threads(1)
+  public long currentTimeMillis() {
+    return mTotpClock.currentTimeMillis();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public long lockedCurrentTimeMillis() {
+    return mLockedTimeCorrection.currentTimeMillis();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public long currentTimeMillisContended() {
+    return mTotpClock.currentTimeMillis();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public long lockedCurrentTimeMillisContended() {
+    return mLockedTimeCorrection.currentTimeMillis();
+  }
+
+  /**
+   * Time correction cached under a lock, as {@link TotpClock} held it before it published the
+   * correction through a volatile field.
+   */
+  private static class LockedTimeCorrection {
+    static final String PREFERENCE_KEY_OFFSET_MINUTES = "timeCorrectionMinutes";
+
+    private final SharedPreferences mPreferences;
+
+    private final Object mLock = new Object();
+
+    /** @GuardedBy {@link #mLock} */
+    private Integer mCachedCorrectionMinutes;
+
+    LockedTimeCorrection(SharedPreferences preferences) {
+      mPreferences = preferences;
+    }
+
+    long currentTimeMillis() {
+      return System.currentTimeMillis() + getTimeCorrectionMinutes() * Utilities.MINUTE_IN_MILLIS;
+    }
+
+    int getTimeCorrectionMinutes() {
+      synchronized (mLock) {
+        if (mCachedCorrectionMinutes == null) {
+          mCachedCorrectionMinutes = mPreferences.getInt(PREFERENCE_KEY_OFFSET_MINUTES, 0);
+        }
+        return mCachedCorrectionMinutes;
+      }
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks verification of TOTP codes by {@link PasscodeGenerator} for different numbers of
+ * adjacent intervals checked on either side of the current one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class VerifyTimeoutCodeBenchmark {
+
+  private static final long CURRENT_INTERVAL = 1234567;
+
+  @Param({"0", "1", "2", "5", "10"})
+  public int adjacentIntervals;
+
+  private PasscodeGenerator mGenerator;
+  /** Code valid for the earliest interval of the window. */
+  private String mValidCode;
+  /** Code not valid for any interval of the window. */
+  private String mInvalidCode;
+
+  @Setup
+  public void setUp() throws Exception {
+    mGenerator = new PasscodeGenerator(Signers.forSecret(PasscodeGeneratorBenchmark.SECRET));
+    mValidCode = mGenerator.generateResponseCode(CURRENT_INTERVAL - adjacentIntervals);
+    for (int code = 0; mInvalidCode == null; code++) {
+      if (mGenerator.findTimeoutCodeOffset(
+          code, CURRENT_INTERVAL, adjacentIntervals, adjacentIntervals)
+          == PasscodeGenerator.NO_MATCH) {
+        mInvalidCode = String.format("%06d", code);
+      }
+    }
+  }
+
+  @Benchmark
+  public boolean verifyValidCode() throws GeneralSecurityException {
+    return mGenerator.verifyTimeoutCode(
+        mValidCode, CURRENT_INTERVAL, adjacentIntervals, adjacentIntervals);
+  }
+
+  @Benchmark
+  public boolean verifyInvalidCode() throws GeneralSecurityException {
+    return mGenerator.verifyTimeoutCode(
+        mInvalidCode, CURRENT_INTERVAL, adjacentIntervals, adjacentIntervals);
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * {@link OutputStream} which encodes the bytes written to it as {@link Base32String} text and
+ * writes the text, as ASCII, to the underlying stream. The last partial group of bytes is only
+ * encoded by {@link #finish()} or {@link #close()}.
+ *
+ * <p>The amount of memory used does not depend on the amount of data written.
+ */
+public class Base32OutputStream extends FilterOutputStream {
+
+  /** Number of bytes buffered before being encoded. Multiple of the five-byte group size. */
+  private static final int BUFFER_SIZE = 640;
+
+  private final ByteBuffer mInput = ByteBuffer.allocate(BUFFER_SIZE);
+  private final CharBuffer mOutput = CharBuffer.allocate(BUFFER_SIZE * 8 / 5);
+  private final byte[] mOutputBytes = new byte[mOutput.capacity()];
+  private boolean mFinished;
+
+  public Base32OutputStream(OutputStream out) {
+    super(out);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    checkNotFinished();
+    if (!mInput.hasRemaining()) {
+      encodeInput(false);
+    }
+    mInput.put((byte) b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    checkNotFinished();
+    if ((off < 0) || (len < 0) || (off > b.length - len)) {
+      throw new IndexOutOfBoundsException();
+    }
+    while (len > 0) {
+      if (!mInput.hasRemaining()) {
+        encodeInput(false);
+      }
+      int chunk = Math.min(len, mInput.remaining());
+      mInput.put(b, off, chunk);
+      off += chunk;
+      len -= chunk;
+    }
+  }
+
+  /**
+   * Writes the encoded form of all bytes written so far to the underlying stream. A partial group
+   * of bytes at the end is held back until more bytes are written or the stream is finished.
+   */
+  @Override
+  public void flush() throws IOException {
+    if (!mFinished) {
+      encodeInput(false);
+    }
+    out.flush();
+  }
+
+  /**
+   * Encodes any remaining bytes and writes them to the underlying stream, without closing it. No
+   * further bytes may be written afterwards.
+   */
+  public void finish() throws IOException {
+    if (!mFinished) {
+      encodeInput(true);
+      mFinished = true;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      finish();
+    } finally {
+      out.close();
+    }
+  }
+
+  private void encodeInput(boolean endOfInput) throws IOException {
+    mInput.flip();
+    Base32String.encode(mInput, mOutput, endOfInput);
+    mInput.compact();
+
+    int length = mOutput.position();
+    char[] chars = mOutput.array();
+    for (int i = 0; i < length; i++) {
+      mOutputBytes[i] = (byte) chars[i];
+    }
+    mOutput.clear();
+    out.write(mOutputBytes, 0, length);
+  }
+
+  private void checkNotFinished() throws IOException {
+    if (mFinished) {
+      throw new IOException("Stream finished");
+    }
+  }
+}
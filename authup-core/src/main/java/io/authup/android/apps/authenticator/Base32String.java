@@ -0,0 +1,341 @@
+/*
+ * Copyright 2009 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes arbitrary byte arrays as case-insensitive base-32 strings.
+ * <p>
+ * The implementation is slightly different than in RFC 4648. During encoding,
+ * padding is not added, and during decoding the last incomplete chunk is not
+ * taken into account. The result is that multiple strings decode to the same
+ * byte array, for example, string of sixteen 7s ("7...7") and seventeen 7s both
+ * decode to the same byte array.
+ * TODO(sarvar): Revisit this encoding and whether this ambiguity needs fixing.
+ *
+ * @author sweis@google.com (Steve Weis)
+ * @author Neal Gafter
+ */
+public class Base32String {
+  // singleton
+
+  private static final Base32String INSTANCE =
+    new Base32String("ABCDEFGHIJKLMNOPQRSTUVWXYZ234567"); // RFC 4648/3548
+
+  static Base32String getInstance() {
+    return INSTANCE;
+  }
+
+  // 32 alpha-numeric characters.
+  private String ALPHABET;
+  private char[] DIGITS;
+  private int MASK;
+  private int SHIFT;
+  // Value of each ASCII character, either case, in the alphabet, or -1 if not in the alphabet.
+  private byte[] DECODE_TABLE;
+
+  static final String SEPARATOR = "-";
+  private static final char SEPARATOR_CHAR = '-';
+  private static final char PADDING_CHAR = '=';
+
+  protected Base32String(String alphabet) {
+    this.ALPHABET = alphabet;
+    DIGITS = ALPHABET.toCharArray();
+    MASK = DIGITS.length - 1;
+    SHIFT = Integer.numberOfTrailingZeros(DIGITS.length);
+    DECODE_TABLE = new byte[128];
+    Arrays.fill(DECODE_TABLE, (byte) -1);
+    for (int i = 0; i < DIGITS.length; i++) {
+      char c = DIGITS[i];
+      if (c >= DECODE_TABLE.length) {
+        throw new IllegalArgumentException("Non-ASCII character in alphabet: " + c);
+      }
+      DECODE_TABLE[Character.toUpperCase(c)] = (byte) i;
+      DECODE_TABLE[Character.toLowerCase(c)] = (byte) i;
+    }
+  }
+
+  public static byte[] decode(String encoded) throws DecodingException {
+    return getInstance().decodeInternal(encoded);
+  }
+
+  /**
+   * Decodes the provided string into the provided array.
+   *
+   * @param encoded the string to decode. Leading and trailing whitespace, separators, spaces and
+   *        trailing padding are skipped.
+   * @param dest array into which to write the decoded bytes.
+   * @param offset index in {@code dest} at which to write the first byte.
+   * @return number of bytes written.
+   * @throws IllegalArgumentException if {@code dest} is too small to hold the decoded bytes, which
+   *         never happens if it can hold {@code encoded.length() * 5 / 8} bytes.
+   */
+  public static int decode(CharSequence encoded, byte[] dest, int offset)
+      throws DecodingException {
+    return getInstance().decodeInternal(encoded, dest, offset);
+  }
+
+  protected byte[] decodeInternal(String encoded) throws DecodingException {
+    byte[] result = new byte[encoded.length() * SHIFT / 8];
+    int length = decodeInternal(encoded, result, 0);
+    return (length == result.length) ? result : Arrays.copyOf(result, length);
+  }
+
+  protected int decodeInternal(CharSequence encoded, byte[] dest, int offset)
+      throws DecodingException {
+    // Skip leading and trailing whitespace the same way as String.trim()
+    int start = 0;
+    int end = encoded.length();
+    while ((start < end) && (encoded.charAt(start) <= ' ')) {
+      start++;
+    }
+    while ((start < end) && (encoded.charAt(end - 1) <= ' ')) {
+      end--;
+    }
+
+    int buffer = 0;
+    int next = offset;
+    int bitsLeft = 0;
+    boolean padding = false;
+    for (int i = start; i < end; i++) {
+      char c = encoded.charAt(i);
+      // Remove whitespace and separators
+      if ((c == SEPARATOR_CHAR) || (c == ' ')) {
+        continue;
+      }
+      // Remove padding. Note: the padding is used as hint to determine how many
+      // bits to decode from the last incomplete chunk (which is commented out
+      // below, so this may have been wrong to start with).
+      if (c == PADDING_CHAR) {
+        padding = true;
+        continue;
+      }
+      int value = (c < DECODE_TABLE.length) ? DECODE_TABLE[c] : -1;
+      if ((value < 0) || (padding)) {
+        throw new DecodingException("Illegal character: " + (padding ? PADDING_CHAR : c));
+      }
+      buffer <<= SHIFT;
+      buffer |= value & MASK;
+      bitsLeft += SHIFT;
+      if (bitsLeft >= 8) {
+        if (next >= dest.length) {
+          throw new IllegalArgumentException("Destination array too small: " + dest.length);
+        }
+        dest[next++] = (byte) (buffer >> (bitsLeft - 8));
+        bitsLeft -= 8;
+      }
+    }
+    // We'll ignore leftover bits for now.
+    //
+    // if (next != outLength || bitsLeft >= SHIFT) {
+    //  throw new DecodingException("Bits left: " + bitsLeft);
+    // }
+    return next - offset;
+  }
+
+  public static String encode(byte[] data) {
+    return getInstance().encodeInternal(data);
+  }
+
+  protected String encodeInternal(byte[] data) {
+    if (data.length == 0) {
+      return "";
+    }
+
+    // SHIFT is the number of bits per output character, so the length of the
+    // output is the length of the input multiplied by 8/SHIFT, rounded up.
+    if (data.length >= (1 << 28)) {
+      // The computation below will fail, so don't do it.
+      throw new IllegalArgumentException();
+    }
+
+    int outputLength = (data.length * 8 + SHIFT - 1) / SHIFT;
+    StringBuilder result = new StringBuilder(outputLength);
+
+    int buffer = data[0];
+    int next = 1;
+    int bitsLeft = 8;
+    while (bitsLeft > 0 || next < data.length) {
+      if (bitsLeft < SHIFT) {
+        if (next < data.length) {
+          buffer <<= 8;
+          buffer |= (data[next++] & 0xff);
+          bitsLeft += 8;
+        } else {
+          int pad = SHIFT - bitsLeft;
+          buffer <<= pad;
+          bitsLeft += pad;
+        }
+      }
+      int index = MASK & (buffer >> (bitsLeft - SHIFT));
+      bitsLeft -= SHIFT;
+      result.append(DIGITS[index]);
+    }
+    return result.toString();
+  }
+
+  /**
+   * Encodes the bytes remaining in {@code src} into {@code dst}, advancing the positions of both
+   * buffers. Encoding stops when {@code src} has fewer than five bytes left or {@code dst} cannot
+   * hold the next eight characters, so that a trailing partial group can be completed by a later
+   * call once more input is available.
+   *
+   * @param endOfInput {@code true} if {@code src} holds the final bytes of the input, in which case
+   *        the last partial group is encoded as well provided {@code dst} has room for it.
+   */
+  public static void encode(ByteBuffer src, CharBuffer dst, boolean endOfInput) {
+    getInstance().encodeInternal(src, dst, endOfInput);
+  }
+
+  /**
+   * Creates a {@link Decoder} for decoding a base-32 string supplied in chunks.
+   */
+  public static Decoder newDecoder() {
+    return getInstance().new Decoder();
+  }
+
+  protected void encodeInternal(ByteBuffer src, CharBuffer dst, boolean endOfInput) {
+    // Fast path: five bytes map onto exactly eight characters.
+    while ((src.remaining() >= 5) && (dst.remaining() >= 8)) {
+      long group = ((long) (src.get() & 0xff) << 32)
+          | ((long) (src.get() & 0xff) << 24)
+          | ((src.get() & 0xff) << 16)
+          | ((src.get() & 0xff) << 8)
+          | (src.get() & 0xff);
+      for (int shift = 35; shift >= 0; shift -= SHIFT) {
+        dst.put(DIGITS[(int) (group >>> shift) & MASK]);
+      }
+    }
+
+    int length = src.remaining();
+    if ((!endOfInput) || (length == 0) || (length >= 5)
+        || (dst.remaining() < (length * 8 + SHIFT - 1) / SHIFT)) {
+      return;
+    }
+    int buffer = 0;
+    int bitsLeft = 0;
+    while ((bitsLeft > 0) || (src.hasRemaining())) {
+      if (bitsLeft < SHIFT) {
+        if (src.hasRemaining()) {
+          buffer <<= 8;
+          buffer |= (src.get() & 0xff);
+          bitsLeft += 8;
+        } else {
+          int pad = SHIFT - bitsLeft;
+          buffer <<= pad;
+          bitsLeft += pad;
+        }
+      }
+      dst.put(DIGITS[MASK & (buffer >> (bitsLeft - SHIFT))]);
+      bitsLeft -= SHIFT;
+    }
+  }
+
+  /**
+   * Decodes a base-32 string supplied in chunks, for example while it is being read from a stream.
+   * Unlike {@link Base32String#decode(String)}, whitespace is skipped anywhere in the input, so
+   * that line-wrapped text can be decoded. Separators and padding are handled the same way.
+   *
+   * <p>Instances are not thread-safe.
+   */
+  public final class Decoder {
+    private int mBuffer;
+    private int mBitsLeft;
+    private boolean mPadding;
+
+    private Decoder() {}
+
+    /**
+     * Decodes the characters remaining in {@code src} into {@code dst}, advancing the positions of
+     * both buffers. Decoding stops when {@code src} is exhausted or {@code dst} is full. Bits of an
+     * incomplete trailing byte are carried over to the next call.
+     *
+     * @throws DecodingException if {@code src} contains a character outside of the alphabet, or a
+     *         data character after padding.
+     */
+    public void decode(CharBuffer src, ByteBuffer dst) throws DecodingException {
+      while (src.hasRemaining()) {
+        // Fast path: eight characters of the alphabet map onto exactly five bytes.
+        if ((mBitsLeft == 0) && (!mPadding)
+            && (src.remaining() >= 8) && (dst.remaining() >= 5)) {
+          int position = src.position();
+          long group = 0;
+          int invalid = 0;
+          for (int i = 0; i < 8; i++) {
+            int value = getValue(src.get(position + i));
+            invalid |= value;
+            group = (group << SHIFT) | (value & MASK);
+          }
+          if (invalid >= 0) {
+            src.position(position + 8);
+            dst.put((byte) (group >>> 32));
+            dst.put((byte) (group >>> 24));
+            dst.put((byte) (group >>> 16));
+            dst.put((byte) (group >>> 8));
+            dst.put((byte) group);
+            continue;
+          }
+        }
+
+        char c = src.get(src.position());
+        if ((c == SEPARATOR_CHAR) || (c <= ' ')) {
+          src.get();
+          continue;
+        }
+        if (c == PADDING_CHAR) {
+          mPadding = true;
+          src.get();
+          continue;
+        }
+        int value = getValue(c);
+        if ((value < 0) || (mPadding)) {
+          throw new DecodingException("Illegal character: " + (mPadding ? PADDING_CHAR : c));
+        }
+        if ((mBitsLeft + SHIFT >= 8) && (!dst.hasRemaining())) {
+          return;
+        }
+        src.get();
+        mBuffer <<= SHIFT;
+        mBuffer |= value;
+        mBitsLeft += SHIFT;
+        if (mBitsLeft >= 8) {
+          dst.put((byte) (mBuffer >> (mBitsLeft - 8)));
+          mBitsLeft -= 8;
+        }
+      }
+    }
+
+    private int getValue(char c) {
+      return (c < DECODE_TABLE.length) ? DECODE_TABLE[c] : -1;
+    }
+  }
+
+  @Override
+  // enforce that this class is a singleton
+  public Object clone() throws CloneNotSupportedException {
+    throw new CloneNotSupportedException();
+  }
+
+  public static class DecodingException extends Exception {
+    public DecodingException(String message) {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+/**
+ * Source of the current time, such as the system clock or the app's {@code TotpClock}, which
+ * corrects the system clock by the offset measured by the Time Sync.
+ */
+public interface Clock {
+
+  /** Clock which provides the system time. */
+  Clock SYSTEM = new Clock() {
+    @Override
+    public long currentTimeMillis() {
+      return System.currentTimeMillis();
+    }
+  };
+
+  /**
+   * Gets the current time.
+   *
+   * @return number of milliseconds since epoch.
+   */
+  long currentTimeMillis();
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Hexadecimal encoding where each byte is represented by two hexadecimal digits.
+ *
+ * @author klyubin@google.com (Alex Klyubin)
+ */
+public class HexEncoding {
+
+  /** Hidden constructor to prevent instantiation. */
+  private HexEncoding() {}
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  /** Value of each ASCII hexadecimal digit, either case, or {@code -1} for other characters. */
+  private static final byte[] DIGIT_VALUES = new byte[128];
+  static {
+    Arrays.fill(DIGIT_VALUES, (byte) -1);
+    for (int i = 0; i < HEX_DIGITS.length; i++) {
+      DIGIT_VALUES[HEX_DIGITS[i]] = (byte) i;
+      DIGIT_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
+    }
+  }
+
+  /**
+   * Encodes the provided data as a hexadecimal string.
+   */
+  public static String encode(byte[] data) {
+    StringBuilder result = new StringBuilder(data.length * 2);
+    for (byte b : data) {
+      result.append(HEX_DIGITS[(b >>> 4) & 0x0f]);
+      result.append(HEX_DIGITS[b & 0x0f]);
+    }
+    return result.toString();
+  }
+
+  /**
+   * Decodes the provided hexadecimal string into an array of bytes.
+   */
+  public static byte[] decode(String encoded) {
+    // IMPLEMENTATION NOTE: Special care is taken to permit odd number of hexadecimal digits.
+    int resultLengthBytes = (encoded.length() + 1) / 2;
+    byte[] result = new byte[resultLengthBytes];
+    int resultOffset = 0;
+    int encodedCharOffset = 0;
+    if ((encoded.length() % 2) != 0) {
+      // Odd number of digits -- the first digit is the lower 4 bits of the first result byte.
+      result[resultOffset++] = (byte) getHexadecimalDigitValue(encoded.charAt(encodedCharOffset));
+      encodedCharOffset++;
+    }
+    for (int len = encoded.length(); encodedCharOffset < len; encodedCharOffset += 2) {
+      result[resultOffset++] = (byte)
+          ((getHexadecimalDigitValue(encoded.charAt(encodedCharOffset)) << 4)
+          | getHexadecimalDigitValue(encoded.charAt(encodedCharOffset + 1)));
+    }
+    return result;
+  }
+
+  /**
+   * Encodes the bytes remaining in {@code src} into {@code dst}, advancing the positions of both
+   * buffers. Encoding stops when {@code src} is exhausted or {@code dst} cannot hold the two digits
+   * of the next byte.
+   */
+  public static void encode(ByteBuffer src, CharBuffer dst) {
+    // Fast path: eight bytes at a time
+    boolean littleEndian = (src.order() == ByteOrder.LITTLE_ENDIAN);
+    while ((src.remaining() >= 8) && (dst.remaining() >= 16)) {
+      long value = src.getLong();
+      if (littleEndian) {
+        value = Long.reverseBytes(value);
+      }
+      for (int shift = 60; shift >= 0; shift -= 4) {
+        dst.put(HEX_DIGITS[(int) (value >>> shift) & 0x0f]);
+      }
+    }
+    while ((src.hasRemaining()) && (dst.remaining() >= 2)) {
+      byte b = src.get();
+      dst.put(HEX_DIGITS[(b >>> 4) & 0x0f]);
+      dst.put(HEX_DIGITS[b & 0x0f]);
+    }
+  }
+
+  /**
+   * Decodes the pairs of hexadecimal digits remaining in {@code src} into {@code dst}, advancing
+   * the positions of both buffers. Decoding stops when {@code src} has fewer than two digits left
+   * or {@code dst} is full. A trailing odd digit is thus left in {@code src} for a later call to
+   * pair up with more input.
+   *
+   * @throws IllegalArgumentException if {@code src} contains a character which is not a
+   *         hexadecimal digit. The positions of the buffers are unspecified in that case.
+   */
+  public static void decode(CharBuffer src, ByteBuffer dst) {
+    // Fast path: sixteen digits at a time
+    boolean littleEndian = (dst.order() == ByteOrder.LITTLE_ENDIAN);
+    while ((src.remaining() >= 16) && (dst.remaining() >= 8)) {
+      int position = src.position();
+      long value = 0;
+      for (int i = 0; i < 16; i++) {
+        value = (value << 4) | getHexadecimalDigitValue(src.get(position + i));
+      }
+      src.position(position + 16);
+      dst.putLong(littleEndian ? Long.reverseBytes(value) : value);
+    }
+    while ((src.remaining() >= 2) && (dst.hasRemaining())) {
+      int high = getHexadecimalDigitValue(src.get());
+      dst.put((byte) ((high << 4) | getHexadecimalDigitValue(src.get())));
+    }
+  }
+
+  private static int getHexadecimalDigitValue(char c) {
+    int value = (c < DIGIT_VALUES.length) ? DIGIT_VALUES[c] : -1;
+    if (value < 0) {
+      throw new IllegalArgumentException(
+          "Invalid hexadecimal digit at position : '" + c + "' (0x" + Integer.toHexString(c) + ")");
+    }
+    return value;
+  }
+}
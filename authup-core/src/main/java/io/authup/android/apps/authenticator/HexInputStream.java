@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * {@link InputStream} which reads {@link HexEncoding hexadecimal} text, as ASCII, from the
+ * underlying stream and returns the decoded bytes. Unlike {@link HexEncoding#decode(String)}, the
+ * text must consist of an even number of digits. Malformed text is reported as an
+ * {@link IOException}.
+ *
+ * <p>The amount of memory used does not depend on the amount of data read.
+ */
+public class HexInputStream extends FilterInputStream {
+
+  private static final int BUFFER_SIZE = 1024;
+
+  private final byte[] mInputBytes = new byte[BUFFER_SIZE];
+  /** Characters read but not yet decoded. Always ready to be read from. */
+  private final CharBuffer mInput = CharBuffer.allocate(BUFFER_SIZE);
+  private final byte[] mSingleByte = new byte[1];
+  private boolean mEndOfInput;
+
+  public HexInputStream(InputStream in) {
+    super(in);
+    mInput.flip();
+  }
+
+  @Override
+  public int read() throws IOException {
+    return (read(mSingleByte, 0, 1) == -1) ? -1 : (mSingleByte[0] & 0xff);
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    ByteBuffer dst = ByteBuffer.wrap(b, off, len);
+    if (len == 0) {
+      return 0;
+    }
+    while (true) {
+      try {
+        HexEncoding.decode(mInput, dst);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Malformed hexadecimal input: " + e.getMessage(), e);
+      }
+      if (dst.position() > off) {
+        return dst.position() - off;
+      }
+      if (mEndOfInput) {
+        if (mInput.hasRemaining()) {
+          throw new IOException("Odd number of hexadecimal digits");
+        }
+        return -1;
+      }
+      fillInput();
+    }
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    // FilterInputStream.skip would skip encoded rather than decoded bytes.
+    if (n <= 0) {
+      return 0;
+    }
+    byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+    long skipped = 0;
+    while (skipped < n) {
+      int count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+      if (count == -1) {
+        break;
+      }
+      skipped += count;
+    }
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    return 0;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public void mark(int readlimit) {}
+
+  @Override
+  public void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+
+  private void fillInput() throws IOException {
+    mInput.compact();
+    int count = in.read(mInputBytes, 0, mInput.remaining());
+    if (count == -1) {
+      mEndOfInput = true;
+    }
+    for (int i = 0; i < count; i++) {
+      mInput.put((char) (mInputBytes[i] & 0xff));
+    }
+    mInput.flip();
+  }
+}
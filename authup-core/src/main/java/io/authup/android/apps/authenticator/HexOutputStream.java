@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * {@link OutputStream} which encodes the bytes written to it as {@link HexEncoding hexadecimal}
+ * text and writes the text, as ASCII, to the underlying stream.
+ *
+ * <p>The amount of memory used does not depend on the amount of data written.
+ */
+public class HexOutputStream extends FilterOutputStream {
+
+  private static final int BUFFER_SIZE = 1024;
+
+  private final CharBuffer mOutput = CharBuffer.allocate(BUFFER_SIZE);
+  private final byte[] mOutputBytes = new byte[BUFFER_SIZE];
+  private final ByteBuffer mSingleByte = ByteBuffer.allocate(1);
+
+  public HexOutputStream(OutputStream out) {
+    super(out);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (mOutput.remaining() < 2) {
+      writeOutput();
+    }
+    mSingleByte.clear();
+    mSingleByte.put((byte) b);
+    mSingleByte.flip();
+    HexEncoding.encode(mSingleByte, mOutput);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    ByteBuffer src = ByteBuffer.wrap(b, off, len);
+    while (src.hasRemaining()) {
+      if (mOutput.remaining() < 2) {
+        writeOutput();
+      }
+      HexEncoding.encode(src, mOutput);
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    writeOutput();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    // FilterOutputStream.close() ignores exceptions thrown while flushing.
+    try {
+      flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  private void writeOutput() throws IOException {
+    int length = mOutput.position();
+    char[] chars = mOutput.array();
+    for (int i = 0; i < length; i++) {
+      mOutputBytes[i] = (byte) chars[i];
+    }
+    mOutput.clear();
+    out.write(mOutputBytes, 0, length);
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Verifier of HOTP codes which resynchronizes with tokens whose counter has moved ahead of the
+ * stored counter, for example because the user generated codes without submitting them
+ * (RFC 4226, section 7.4).
+ *
+ * <p>A code is accepted if it matches any counter value from the stored counter up to the stored
+ * counter plus the look-ahead. For every account the codes of the look-ahead window are computed
+ * once and indexed by code, so that verifying a code is a hash lookup regardless of the size of
+ * the window. When the stored counter moves forward, only the codes of the counter values entering
+ * the window are computed.
+ *
+ * <p>Thread-safety: Instances of this class are thread-safe.
+ */
+public class HotpLookAheadVerifier {
+
+  /** Value returned by {@link #findCounter(String, PasscodeGenerator, long, int)} on mismatch. */
+  public static final long NO_MATCH = -1;
+
+  /** Default maximum number of accounts for which windows are cached. */
+  public static final int DEFAULT_MAX_ACCOUNTS = 256;
+
+  private final int mLookAhead;
+
+  /** @GuardedBy this */
+  private final Map<String, Window> mWindows;
+
+  /**
+   * @param lookAhead number of counter values after the stored counter for which codes are
+   *        accepted.
+   */
+  public HotpLookAheadVerifier(int lookAhead) {
+    this(lookAhead, DEFAULT_MAX_ACCOUNTS);
+  }
+
+  /**
+   * @param lookAhead number of counter values after the stored counter for which codes are
+   *        accepted.
+   * @param maxAccounts maximum number of accounts for which windows are cached. The least
+   *        recently verified accounts are evicted first.
+   */
+  public HotpLookAheadVerifier(int lookAhead, final int maxAccounts) {
+    if (lookAhead < 0) {
+      throw new IllegalArgumentException("Negative look-ahead: " + lookAhead);
+    }
+    if (maxAccounts < 1) {
+      throw new IllegalArgumentException("Maximum number of accounts must be positive: "
+          + maxAccounts);
+    }
+    mLookAhead = lookAhead;
+    mWindows = new LinkedHashMap<String, Window>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Window> eldest) {
+        return size() > maxAccounts;
+      }
+    };
+  }
+
+  /**
+   * Finds the counter value for which the provided code of the account is valid.
+   *
+   * @param accountName name of the account.
+   * @param generator generator for the account's codes. If it differs from the generator used for
+   *        the previous verification of the account, the account's window is recomputed.
+   * @param counter the account's stored counter, that is, the first counter value to check.
+   * @param code the code to verify, as returned by {@link PasscodeGenerator#generateCode(long)}.
+   *
+   * @return the earliest counter value in {@code [counter, counter + lookAhead]} for which the code
+   *         is valid or {@link #NO_MATCH} if there is none. When a code is accepted, the stored
+   *         counter should be set to the returned value plus one.
+   */
+  public synchronized long findCounter(
+      String accountName, PasscodeGenerator generator, long counter, int code)
+      throws GeneralSecurityException {
+    if (counter < 0) {
+      throw new IllegalArgumentException("Negative counter: " + counter);
+    }
+    Window window = mWindows.get(accountName);
+    if (window == null) {
+      window = new Window(mLookAhead + 1);
+      mWindows.put(accountName, window);
+    }
+    window.moveTo(generator, counter);
+    return window.index.get(code);
+  }
+
+  /**
+   * Removes the cached window of the provided account, for example because its secret has changed.
+   */
+  public synchronized void remove(String accountName) {
+    mWindows.remove(accountName);
+  }
+
+  /**
+   * Codes of the counter values in {@code [firstCounter, firstCounter + size)}.
+   */
+  private static class Window {
+    /** Codes of the window, indexed by counter value modulo the window size. */
+    private final int[] codes;
+    private final CodeIndex index;
+    private PasscodeGenerator generator;
+    private long firstCounter;
+
+    private Window(int size) {
+      codes = new int[size];
+      index = new CodeIndex(size);
+    }
+
+    private void moveTo(PasscodeGenerator newGenerator, long newFirstCounter)
+        throws GeneralSecurityException {
+      int size = codes.length;
+      long shift = newFirstCounter - firstCounter;
+      if ((newGenerator == generator) && (shift == 0)) {
+        return;
+      }
+
+      long firstNewCounter;
+      if ((newGenerator != generator) || (shift < 0) || (shift >= size)) {
+        index.clear();
+        firstNewCounter = newFirstCounter;
+      } else {
+        // The window moved forward -- drop the codes of the counter values which left the window
+        // and compute only those of the values entering it.
+        for (long counter = firstCounter; counter < newFirstCounter; counter++) {
+          index.remove(codes[slot(counter)], counter, this);
+        }
+        firstNewCounter = firstCounter + size;
+      }
+
+      // Mark the window as not computed in case the generator fails.
+      generator = null;
+      firstCounter = newFirstCounter;
+      synchronized (newGenerator) {
+        for (long counter = firstNewCounter; counter < newFirstCounter + size; counter++) {
+          int code = newGenerator.generateCode(counter);
+          codes[slot(counter)] = code;
+          index.add(code, counter);
+        }
+      }
+      generator = newGenerator;
+    }
+
+    /**
+     * Finds the earliest counter value after {@code afterCounter} in this window whose code is the
+     * provided code.
+     */
+    private long findNext(int code, long afterCounter) {
+      for (long counter = afterCounter + 1; counter < firstCounter + codes.length; counter++) {
+        if (codes[slot(counter)] == code) {
+          return counter;
+        }
+      }
+      return NO_MATCH;
+    }
+
+    private int slot(long counter) {
+      return (int) (counter % codes.length);
+    }
+  }
+
+  /**
+   * Open-addressing (linear probing) map from code to the earliest counter value of the window
+   * with that code, along with the number of counter values with that code.
+   */
+  private static class CodeIndex {
+    private static final int EMPTY = -1;
+
+    private final int[] keys;
+    private final long[] firstCounters;
+    private final int[] counts;
+    private final int mask;
+
+    private CodeIndex(int maxSize) {
+      int capacity = Integer.highestOneBit(Math.max(maxSize, 2) * 2 - 1) << 1;
+      keys = new int[capacity];
+      firstCounters = new long[capacity];
+      counts = new int[capacity];
+      mask = capacity - 1;
+      clear();
+    }
+
+    private void clear() {
+      Arrays.fill(keys, EMPTY);
+    }
+
+    private int find(int code) {
+      for (int i = hash(code) & mask; ; i = (i + 1) & mask) {
+        if ((keys[i] == code) || (keys[i] == EMPTY)) {
+          return i;
+        }
+      }
+    }
+
+    private long get(int code) {
+      if (code < 0) {
+        return NO_MATCH;
+      }
+      int i = find(code);
+      return (keys[i] == EMPTY) ? NO_MATCH : firstCounters[i];
+    }
+
+    /**
+     * Adds the code of a counter value. Counter values must be added in increasing order.
+     */
+    private void add(int code, long counter) {
+      int i = find(code);
+      if (keys[i] == EMPTY) {
+        keys[i] = code;
+        firstCounters[i] = counter;
+        counts[i] = 1;
+      } else {
+        counts[i]++;
+      }
+    }
+
+    /**
+     * Removes the code of a counter value which is leaving the window.
+     */
+    private void remove(int code, long counter, Window window) {
+      int i = find(code);
+      if (keys[i] == EMPTY) {
+        return;
+      }
+      if (--counts[i] == 0) {
+        removeSlot(i);
+      } else if (firstCounters[i] == counter) {
+        // Codes collide rarely, thus the window is only scanned in the rare case of a duplicate.
+        firstCounters[i] = window.findNext(code, counter);
+      }
+    }
+
+    private void removeSlot(int i) {
+      // Shift back subsequent entries of the probe sequence so that lookups stay correct.
+      for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+        int ideal = hash(keys[j]) & mask;
+        boolean idealInRange =
+            (i <= j) ? ((i < ideal) && (ideal <= j)) : ((i < ideal) || (ideal <= j));
+        if (!idealInRange) {
+          keys[i] = keys[j];
+          firstCounters[i] = firstCounters[j];
+          counts[i] = counts[j];
+          i = j;
+        }
+      }
+      keys[i] = EMPTY;
+    }
+
+    private static int hash(int code) {
+      int h = code * 0x9E3779B9;
+      return h ^ (h >>> 16);
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import io.authup.android.apps.authenticator.PasscodeGenerator.IncrementalSigner;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+
+/**
+ * {@link IncrementalSigner} backed by an initialized {@link Mac}.
+ *
+ * <p>Thread-safety: Instances of this class are not thread-safe, as is the case with the
+ * underlying {@link Mac}.
+ */
+final class MacSigner implements IncrementalSigner {
+
+  private final Mac mMac;
+
+  /**
+   * @param mac initialized MAC.
+   */
+  MacSigner(Mac mac) {
+    mMac = mac;
+  }
+
+  @Override
+  public byte[] sign(byte[] data) {
+    return mMac.doFinal(data);
+  }
+
+  @Override
+  public int getSignatureLength() {
+    return mMac.getMacLength();
+  }
+
+  @Override
+  public void update(ByteBuffer input) {
+    mMac.update(input);
+  }
+
+  @Override
+  public void doFinal(byte[] signature) throws GeneralSecurityException {
+    mMac.doFinal(signature, 0);
+  }
+}
@@ -0,0 +1,678 @@
+/*
+ * Copyright 2009 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+
+/**
+ * An implementation of the HOTP generator specified by RFC 4226. Generates
+ * short passcodes that may be used in challenge-response protocols or as
+ * timeout passcodes that are only valid for a short period.
+ *
+ * The default passcode is a 6-digit decimal code. The maximum passcode length is 9 digits.
+ *
+ * <p>Thread-safety: Instances of this class are not thread-safe, as is the case with the
+ * underlying {@link Mac}.
+ *
+ * @author sweis@google.com (Steve Weis)
+ *
+ */
+public class PasscodeGenerator {
+  static final int MAX_PASSCODE_LENGTH = 9;
+
+  /** Default time interval */
+  public static final int INTERVAL = 30;
+
+  /** Default decimal passcode length */
+  private static final int PASS_CODE_LENGTH = 6;
+
+  /** The number of previous and future intervals to check */
+  private static final int ADJACENT_INTERVALS = 1;
+
+  /**
+   * Value returned by {@link #findTimeoutCodeOffset(int, long, int, int)} when the code does not
+   * match any of the checked intervals.
+   */
+  public static final int NO_MATCH = Integer.MIN_VALUE;
+
+  /** Powers of 10 used to shorten the pin to the desired number of digits */
+  private static final int[] DIGITS_POWER
+      // 0 1  2   3    4     5      6       7        8         9
+      = {1,10,100,1000,10000,100000,1000000,10000000,100000000,1000000000};
+
+  /** Encoding of challenges provided as characters. */
+  private static final Charset CHALLENGE_CHARSET = Charset.forName("UTF-8");
+
+  /** Size (bytes) of the chunks in which challenges provided as characters are encoded. */
+  private static final int CHALLENGE_CHUNK_LENGTH = 768;
+
+  private final Signer signer;
+  private final int codeLength;
+
+  /** {@link #signer} if it is a {@link StateSigner}, or {@code null}. */
+  private final StateSigner stateSigner;
+
+  /** {@link #signer} if it is an {@link IncrementalSigner}, or {@code null}. */
+  private final IncrementalSigner incrementalSigner;
+
+  /** Reusable buffer for the big-endian representation of the OTP state. */
+  private final byte[] stateBytes = new byte[8];
+
+  /** {@link #stateBytes} wrapped for {@link IncrementalSigner#update(ByteBuffer)}. */
+  private final ByteBuffer stateBuffer = ByteBuffer.wrap(stateBytes);
+
+  /**
+   * Reusable buffer for signatures of a {@link StateSigner} or {@link IncrementalSigner}, or
+   * {@code null}.
+   */
+  private final byte[] signatureBytes;
+
+  /** Reusable buffer for chunks of challenges given as characters. Created when first needed. */
+  private char[] challengeChars;
+
+  /** Reusable buffer for chunks of encoded challenges. Created when first needed. */
+  private ByteBuffer challengeChunk;
+
+  /**
+   * Using an interface to allow us to inject different signature
+   * implementations.
+   */
+  interface Signer {
+    /**
+     * @param data Preimage to sign, represented as sequence of arbitrary bytes
+     * @return Signature as sequence of bytes.
+     * @throws GeneralSecurityException
+     */
+    byte[] sign(byte[] data) throws GeneralSecurityException;
+  }
+
+  /**
+   * {@link Signer} which can also sign an OTP state without allocating memory.
+   */
+  interface StateSigner extends Signer {
+    /**
+     * Gets the length (bytes) of the signatures.
+     */
+    int getSignatureLength();
+
+    /**
+     * @param state OTP state to sign, represented by its 8-byte big-endian encoding
+     * @param signature array into which to write the signature
+     * @throws GeneralSecurityException
+     */
+    void sign(long state, byte[] signature) throws GeneralSecurityException;
+  }
+
+  /**
+   * {@link Signer} which can also sign a message provided in parts, without the parts being
+   * copied into a single array first.
+   */
+  interface IncrementalSigner extends Signer {
+    /**
+     * Gets the length (bytes) of the signatures.
+     */
+    int getSignatureLength();
+
+    /**
+     * Appends the remaining bytes of the provided buffer to the message being signed. The
+     * buffer's position is advanced to its limit.
+     *
+     * @throws GeneralSecurityException
+     */
+    void update(ByteBuffer input) throws GeneralSecurityException;
+
+    /**
+     * Completes the message being signed and starts a new one.
+     *
+     * @param signature array into which to write the signature of the message
+     * @throws GeneralSecurityException
+     */
+    void doFinal(byte[] signature) throws GeneralSecurityException;
+  }
+
+  /**
+   * @param mac A {@link Mac} used to generate passcodes
+   */
+  public PasscodeGenerator(Mac mac) {
+    this(mac, PASS_CODE_LENGTH);
+  }
+
+  public PasscodeGenerator(Signer signer) {
+    this(signer, PASS_CODE_LENGTH);
+  }
+
+  /**
+   * @param mac A {@link Mac} used to generate passcodes
+   * @param passCodeLength The length of the decimal passcode
+   */
+  public PasscodeGenerator(Mac mac, int passCodeLength) {
+    this(new MacSigner(mac), passCodeLength);
+  }
+
+  public PasscodeGenerator(Signer signer, int passCodeLength) {
+    if ((passCodeLength < 0) || (passCodeLength > MAX_PASSCODE_LENGTH)) {
+      throw new IllegalArgumentException(
+        "PassCodeLength must be between 1 and " + MAX_PASSCODE_LENGTH
+        + " digits.");
+    }
+    this.signer = signer;
+    this.codeLength = passCodeLength;
+    this.stateSigner = (signer instanceof StateSigner) ? (StateSigner) signer : null;
+    this.incrementalSigner =
+        (signer instanceof IncrementalSigner) ? (IncrementalSigner) signer : null;
+    if (stateSigner != null) {
+      this.signatureBytes = new byte[stateSigner.getSignatureLength()];
+    } else if (incrementalSigner != null) {
+      this.signatureBytes = new byte[incrementalSigner.getSignatureLength()];
+    } else {
+      this.signatureBytes = null;
+    }
+  }
+
+  private String padOutput(int value) {
+    char[] result = new char[codeLength];
+    writeCode(value, result, 0);
+    return new String(result);
+  }
+
+  /**
+   * Gets the number of decimal digits in the passcodes produced by this generator.
+   */
+  public int getCodeLength() {
+    return codeLength;
+  }
+
+  /**
+   * Generates the passcode for the provided state as an integer. Apart from the work done by the
+   * {@link Signer}, this does not allocate any memory.
+   *
+   * @param state 8-byte integer value representing internal OTP state.
+   * @return the passcode as a non-negative integer with at most {@link #getCodeLength()} digits.
+   * @throws GeneralSecurityException If a JCE exception occur
+   */
+  public int generateCode(long state) throws GeneralSecurityException {
+    if (stateSigner != null) {
+      stateSigner.sign(state, signatureBytes);
+      return truncate(signatureBytes);
+    }
+    return generateCode(putState(state));
+  }
+
+  /**
+   * Writes the big-endian representation of the provided state into {@link #stateBytes}.
+   *
+   * @return {@link #stateBytes}
+   */
+  private byte[] putState(long state) {
+    byte[] value = stateBytes;
+    for (int i = value.length - 1; i >= 0; i--) {
+      value[i] = (byte) state;
+      state >>>= 8;
+    }
+    return value;
+  }
+
+  /**
+   * Generates the passcode for the provided state followed by the provided challenge, such as
+   * transaction details. With an {@link IncrementalSigner}, the state and the challenge are
+   * signed in place, without being copied into a combined array.
+   *
+   * @param state 8-byte integer value representing internal OTP state.
+   * @param challenge challenge consisting of the buffer's remaining bytes. The buffer's position
+   *        is advanced to its limit.
+   * @return the passcode as a non-negative integer with at most {@link #getCodeLength()} digits.
+   * @throws GeneralSecurityException If a JCE exception occur
+   */
+  public int generateChallengeCode(long state, ByteBuffer challenge)
+      throws GeneralSecurityException {
+    if (incrementalSigner == null) {
+      byte[] value = new byte[8 + challenge.remaining()];
+      ByteBuffer.wrap(value).putLong(state).put(challenge);
+      return generateCode(value);
+    }
+    putState(state);
+    stateBuffer.clear();
+    incrementalSigner.update(stateBuffer);
+    incrementalSigner.update(challenge);
+    incrementalSigner.doFinal(signatureBytes);
+    return truncate(signatureBytes);
+  }
+
+  /**
+   * Generates the passcode for the provided state followed by the UTF-8 encoding of the provided
+   * challenge, such as transaction details. With an {@link IncrementalSigner}, the challenge is
+   * encoded and signed in small chunks instead of being encoded into an array first.
+   *
+   * @param state 8-byte integer value representing internal OTP state.
+   * @param challenge challenge as characters. Unpaired surrogates are encoded as {@code '?'}, as
+   *        done by {@link String#getBytes(String)}.
+   * @return the passcode as a non-negative integer with at most {@link #getCodeLength()} digits.
+   * @throws GeneralSecurityException If a JCE exception occur
+   */
+  public int generateChallengeCode(long state, CharSequence challenge)
+      throws GeneralSecurityException {
+    if (incrementalSigner == null) {
+      return generateChallengeCode(
+          state, ByteBuffer.wrap(challenge.toString().getBytes(CHALLENGE_CHARSET)));
+    }
+    if (challengeChunk == null) {
+      // Each character takes at most three bytes, surrogate pairs four.
+      challengeChars = new char[CHALLENGE_CHUNK_LENGTH / 3];
+      challengeChunk = ByteBuffer.allocate(CHALLENGE_CHUNK_LENGTH);
+    }
+
+    putState(state);
+    stateBuffer.clear();
+    incrementalSigner.update(stateBuffer);
+
+    // The characters are copied and encoded a chunk at a time, which avoids both the call per
+    // character of CharSequence.charAt and an array holding the whole encoded challenge.
+    ByteBuffer chunk = challengeChunk;
+    byte[] bytes = chunk.array();
+    char[] chars = challengeChars;
+    int length = challenge.length();
+    int count = 0;
+    for (int start = 0; start < length; ) {
+      int end = Math.min(length, start + chars.length);
+      if (challenge instanceof String) {
+        ((String) challenge).getChars(start, end, chars, 0);
+      } else {
+        for (int i = start; i < end; i++) {
+          chars[i - start] = challenge.charAt(i);
+        }
+      }
+      int charCount = end - start;
+      if (Character.isHighSurrogate(chars[charCount - 1]) && (end < length)) {
+        // Keep the pair together
+        charCount--;
+      }
+      for (int i = 0; i < charCount; i++) {
+        char c = chars[i];
+        if (c < 0x80) {
+          bytes[count++] = (byte) c;
+        } else if (c < 0x800) {
+          bytes[count++] = (byte) (0xc0 | (c >> 6));
+          bytes[count++] = (byte) (0x80 | (c & 0x3f));
+        } else if ((c < Character.MIN_SURROGATE) || (c > Character.MAX_SURROGATE)) {
+          bytes[count++] = (byte) (0xe0 | (c >> 12));
+          bytes[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+          bytes[count++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && (i + 1 < charCount)
+            && Character.isLowSurrogate(chars[i + 1])) {
+          int codePoint = Character.toCodePoint(c, chars[++i]);
+          bytes[count++] = (byte) (0xf0 | (codePoint >> 18));
+          bytes[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+          bytes[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+          bytes[count++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else {
+          bytes[count++] = '?';
+        }
+      }
+      chunk.limit(count).position(0);
+      incrementalSigner.update(chunk);
+      count = 0;
+      start += charCount;
+    }
+
+    incrementalSigner.doFinal(signatureBytes);
+    return truncate(signatureBytes);
+  }
+
+  /**
+   * Generates the passcodes for the provided state followed by each of the provided challenges.
+   *
+   * @param state 8-byte integer value representing internal OTP state.
+   * @param challenges challenges, each consisting of the buffer's remaining bytes. The buffers'
+   *        positions are advanced to their limits.
+   * @param codes array into which to write the passcodes, in the order of the challenges.
+   * @throws GeneralSecurityException If a JCE exception occur
+   * @see #generateChallengeCode(long, ByteBuffer)
+   */
+  public void generateChallengeCodes(long state, ByteBuffer[] challenges, int[] codes)
+      throws GeneralSecurityException {
+    for (int i = 0; i < challenges.length; i++) {
+      codes[i] = generateChallengeCode(state, challenges[i]);
+    }
+  }
+
+  /**
+   * Generates the passcodes for the provided state followed by the UTF-8 encoding of each of the
+   * provided challenges.
+   *
+   * @param state 8-byte integer value representing internal OTP state.
+   * @param challenges challenges as characters.
+   * @param codes array into which to write the passcodes, in the order of the challenges.
+   * @throws GeneralSecurityException If a JCE exception occur
+   * @see #generateChallengeCode(long, CharSequence)
+   */
+  public void generateChallengeCodes(long state, CharSequence[] challenges, int[] codes)
+      throws GeneralSecurityException {
+    for (int i = 0; i < challenges.length; i++) {
+      codes[i] = generateChallengeCode(state, challenges[i]);
+    }
+  }
+
+  /**
+   * @param challenge An arbitrary byte array used as a challenge
+   * @return the passcode as a non-negative integer with at most {@link #getCodeLength()} digits.
+   * @throws GeneralSecurityException If a JCE exception occur
+   */
+  public int generateCode(byte[] challenge) throws GeneralSecurityException {
+    return truncate(signer.sign(challenge));
+  }
+
+  /**
+   * Generates the passcode for the provided state and writes its zero-padded decimal digits into
+   * the provided array.
+   *
+   * @param state 8-byte integer value representing internal OTP state.
+   * @param dest array into which to write the digits.
+   * @param offset index in {@code dest} at which to write the first digit.
+   * @return number of characters written, which is always {@link #getCodeLength()}.
+   * @throws GeneralSecurityException If a JCE exception occur
+   */
+  public int generateCode(long state, char[] dest, int offset) throws GeneralSecurityException {
+    return writeCode(generateCode(state), dest, offset);
+  }
+
+  /**
+   * Generates the passcode for the provided state and appends its zero-padded decimal digits to
+   * the provided {@link StringBuilder}.
+   *
+   * @param state 8-byte integer value representing internal OTP state.
+   * @param dest builder to which to append the digits.
+   * @throws GeneralSecurityException If a JCE exception occur
+   */
+  public void generateCode(long state, StringBuilder dest) throws GeneralSecurityException {
+    int code = generateCode(state);
+    for (int divisor = DIGITS_POWER[codeLength] / 10; divisor > 0; divisor /= 10) {
+      dest.append((char) ('0' + (code / divisor) % 10));
+    }
+  }
+
+  /**
+   * Writes the zero-padded decimal digits of the provided passcode into the provided array.
+   *
+   * @return number of characters written.
+   */
+  private int writeCode(int code, char[] dest, int offset) {
+    for (int i = offset + codeLength - 1; i >= offset; i--) {
+      dest[i] = (char) ('0' + code % 10);
+      code /= 10;
+    }
+    return codeLength;
+  }
+
+  /**
+   * @param state 8-byte integer value representing internal OTP state.
+   * @return A decimal response code
+   * @throws GeneralSecurityException If a JCE exception occur
+   */
+  public String generateResponseCode(long state)
+      throws GeneralSecurityException {
+    return padOutput(generateCode(state));
+  }
+
+
+  /**
+   * @param state 8-byte integer value representing internal OTP state.
+   * @param challenge Optional challenge as array of bytes.
+   * @return A decimal response code
+   * @throws GeneralSecurityException If a JCE exception occur
+   */
+  public String generateResponseCode(long state, byte[] challenge)
+      throws GeneralSecurityException {
+    if (challenge == null) {
+      return generateResponseCode(state);
+    } else {
+      return padOutput(generateChallengeCode(state, ByteBuffer.wrap(challenge)));
+    }
+  }
+
+  /**
+   * @param state 8-byte integer value representing internal OTP state.
+   * @param challenge challenge consisting of the buffer's remaining bytes.
+   * @return A decimal response code
+   * @throws GeneralSecurityException If a JCE exception occur
+   * @see #generateChallengeCode(long, ByteBuffer)
+   */
+  public String generateChallengeResponseCode(long state, ByteBuffer challenge)
+      throws GeneralSecurityException {
+    return padOutput(generateChallengeCode(state, challenge));
+  }
+
+  /**
+   * @param state 8-byte integer value representing internal OTP state.
+   * @param challenge challenge as characters, signed in their UTF-8 encoding.
+   * @return A decimal response code
+   * @throws GeneralSecurityException If a JCE exception occur
+   * @see #generateChallengeCode(long, CharSequence)
+   */
+  public String generateChallengeResponseCode(long state, CharSequence challenge)
+      throws GeneralSecurityException {
+    return padOutput(generateChallengeCode(state, challenge));
+  }
+
+  /**
+   * @param challenge An arbitrary byte array used as a challenge
+   * @return A decimal response code
+   * @throws GeneralSecurityException If a JCE exception occur
+   */
+  public String generateResponseCode(byte[] challenge)
+      throws GeneralSecurityException {
+    return padOutput(generateCode(challenge));
+  }
+
+  /**
+   * Generates the passcodes for the provided state under all keys of the provided signer. This is
+   * considerably faster than generating the passcodes one key at a time.
+   *
+   * @param state 8-byte integer value representing internal OTP state.
+   * @param signer HMAC-SHA1 keys.
+   * @param codeLength length of the decimal passcodes.
+   * @param codes array into which to write the passcodes, in the order of the signer's keys, as
+   *        non-negative integers with at most {@code codeLength} digits.
+   */
+  public static void generateCodes(long state, Sha1HmacBatchSigner signer, int codeLength,
+      int[] codes) {
+    if ((codeLength < 0) || (codeLength > MAX_PASSCODE_LENGTH)) {
+      throw new IllegalArgumentException(
+          "PassCodeLength must be between 1 and " + MAX_PASSCODE_LENGTH + " digits.");
+    }
+    int[] signatures = new int[signer.size() * 5];
+    signer.sign(state, signatures);
+    for (int i = 0, offset = 0; i < signer.size(); i++, offset += 5) {
+      codes[i] = truncate(signatures, offset, codeLength);
+    }
+  }
+
+  /**
+   * Dynamically truncates the provided hash to a decimal passcode as specified by RFC 4226.
+   */
+  private int truncate(byte[] hash) {
+    // OffsetBits are the low order bits of the last byte of the hash
+    int offset = hash[hash.length - 1] & 0xF;
+    // Grab a positive integer value starting at the given offset.
+    int truncatedHash = hashToInt(hash, offset) & 0x7FFFFFFF;
+    return truncatedHash % DIGITS_POWER[codeLength];
+  }
+
+  /**
+   * Dynamically truncates a hash held as big-endian words, as specified by RFC 4226.
+   *
+   * @param words array holding the hash.
+   * @param offset index of the first of the five words of the hash in {@code words}.
+   */
+  private static int truncate(int[] words, int offset, int codeLength) {
+    // OffsetBits are the low order bits of the last byte of the hash
+    int byteOffset = words[offset + 4] & 0xF;
+    int word = offset + (byteOffset >> 2);
+    int shift = (byteOffset & 3) << 3;
+    int truncatedHash = (shift == 0)
+        ? words[word] : ((words[word] << shift) | (words[word + 1] >>> (32 - shift)));
+    return (truncatedHash & 0x7FFFFFFF) % DIGITS_POWER[codeLength];
+  }
+
+  /**
+   * Grabs a positive integer value from the input array starting at
+   * the given offset.
+   * @param bytes the array of bytes
+   * @param start the index into the array to start grabbing bytes
+   * @return the integer constructed from the four bytes in the array
+   */
+  private static int hashToInt(byte[] bytes, int start) {
+    return ((bytes[start] & 0xff) << 24)
+        | ((bytes[start + 1] & 0xff) << 16)
+        | ((bytes[start + 2] & 0xff) << 8)
+        | (bytes[start + 3] & 0xff);
+  }
+
+  /**
+   * @param challenge A challenge to check a response against
+   * @param response A response to verify
+   * @return True if the response is valid
+   */
+  public boolean verifyResponseCode(long challenge, String response)
+      throws GeneralSecurityException {
+    int responseCode = parseCode(response);
+    return (responseCode >= 0) && verifyResponseCode(challenge, responseCode);
+  }
+
+  /**
+   * @param challenge A challenge to check a response against
+   * @param response A response to verify, as returned by {@link #generateCode(long)}
+   * @return True if the response is valid
+   */
+  public boolean verifyResponseCode(long challenge, int response)
+      throws GeneralSecurityException {
+    return generateCode(challenge) == response;
+  }
+
+  /**
+   * Verify a timeout code. The timeout code will be valid for a time
+   * determined by the interval period and the number of adjacent intervals
+   * checked.
+   *
+   * @param timeoutCode The timeout code
+   * @return True if the timeout code is valid
+   */
+  public boolean verifyTimeoutCode(long currentInterval, String timeoutCode)
+      throws GeneralSecurityException {
+    return verifyTimeoutCode(timeoutCode, currentInterval,
+                             ADJACENT_INTERVALS, ADJACENT_INTERVALS);
+  }
+
+  /**
+   * Verify a timeout code. The timeout code will be valid for a time
+   * determined by the interval period and the number of adjacent intervals
+   * checked.
+   *
+   * @param timeoutCode The timeout code
+   * @param pastIntervals The number of past intervals to check
+   * @param futureIntervals The number of future intervals to check
+   * @return True if the timeout code is valid
+   */
+  public boolean verifyTimeoutCode(String timeoutCode,
+                                   long currentInterval,
+                                   int pastIntervals,
+                                   int futureIntervals) throws GeneralSecurityException {
+    int code = parseCode(timeoutCode);
+    if (code < 0) {
+      return false;
+    }
+    // IMPLEMENTATION NOTE: This method has always checked "pastIntervals" after the current
+    // interval and "futureIntervals" before it. The window is mirrored here to preserve that
+    // behavior for existing callers.
+    return findTimeoutCodeOffset(code, currentInterval, futureIntervals, pastIntervals)
+        != NO_MATCH;
+  }
+
+  /**
+   * Finds the interval, relative to the current interval, for which the provided code is valid.
+   * The code is compared against every interval of the window, regardless of where it matches, so
+   * that the time taken does not reveal the position of the match. The returned offset can be used
+   * to track the clock skew of the code's origin or to reject codes which have already been used.
+   *
+   * @param timeoutCode the code to verify, as returned by {@link #generateCode(long)}
+   * @param currentInterval the current interval
+   * @param pastIntervals the number of past intervals to check
+   * @param futureIntervals the number of future intervals to check
+   * @return offset of the matching interval from {@code currentInterval} (negative for past
+   *         intervals) or {@link #NO_MATCH} if the code is not valid for any of the intervals. If
+   *         the code is valid for several intervals, the earliest one is returned.
+   */
+  public int findTimeoutCodeOffset(int timeoutCode,
+                                   long currentInterval,
+                                   int pastIntervals,
+                                   int futureIntervals) throws GeneralSecurityException {
+    // Ensure that look-ahead and look-back counts are not negative.
+    pastIntervals = Math.max(pastIntervals, 0);
+    futureIntervals = Math.max(futureIntervals, 0);
+
+    int matchedOffset = NO_MATCH;
+    for (int i = -pastIntervals; i <= futureIntervals; ++i) {
+      matchedOffset =
+          selectFirstMatch(matchedOffset, generateCode(currentInterval + i), timeoutCode, i);
+    }
+    return matchedOffset;
+  }
+
+  /**
+   * Step of a search for the first of several candidate codes which equals the provided code,
+   * taking the same time whether or not the candidate matches. Invoking it for every candidate,
+   * in order, yields the offset of the first match or {@link #NO_MATCH}.
+   *
+   * @param matchedOffset offset of the first match so far or {@link #NO_MATCH}.
+   * @param candidate candidate code.
+   * @param code the code to find.
+   * @param offset offset of the candidate, which must not be {@link #NO_MATCH}.
+   * @return {@code offset} if the candidate is the first match, otherwise {@code matchedOffset}.
+   */
+  static int selectFirstMatch(int matchedOffset, int candidate, int code, int offset) {
+    // All bits set once a match has been found.
+    int notYetMatched = matchedOffset ^ NO_MATCH;
+    int matchedMask = (notYetMatched | -notYetMatched) >> 31;
+    int difference = candidate ^ code;
+    // All bits set if the candidate equals the code and this is the first match.
+    int firstMatchMask = ~((difference | -difference) >> 31) & ~matchedMask;
+    return (matchedOffset & ~firstMatchMask) | (offset & firstMatchMask);
+  }
+
+  /**
+   * Parses a decimal passcode of this generator's length.
+   *
+   * @return the passcode or {@code -1} if the provided string is not a valid passcode.
+   */
+  private int parseCode(String code) {
+    if ((code == null) || (code.length() != codeLength)) {
+      return -1;
+    }
+    int result = 0;
+    for (int i = 0; i < codeLength; i++) {
+      char c = code.charAt(i);
+      if ((c < '0') || (c > '9')) {
+        return -1;
+      }
+      result = result * 10 + (c - '0');
+    }
+    return result;
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import io.authup.android.apps.authenticator.Base32String.DecodingException;
+import io.authup.android.apps.authenticator.PasscodeGenerator.Signer;
+
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of initialized {@link PasscodeGenerator} instances keyed by account name. Reusing
+ * a generator avoids decoding the secret, looking up the MAC implementation and setting up the key
+ * every time a code is generated.
+ *
+ * <p>An entry is only reused while the account's secret is unchanged. The least recently used
+ * entries are evicted once the cache is full.
+ *
+ * <p>Thread-safety: Instances of this class are thread-safe. The returned generators are not and
+ * callers must synchronize on them while generating codes. Each generator has a {@link Signer} of
+ * its own, so that the lock of the generator is enough to keep its signer's state consistent.
+ */
+final class PasscodeGeneratorCache {
+
+  /** Default maximum number of accounts for which generators are cached. */
+  static final int DEFAULT_MAX_SIZE = 256;
+
+  private final Map<String, CachedGenerators> mEntries;
+
+  PasscodeGeneratorCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  PasscodeGeneratorCache(final int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Size must be positive: " + maxSize);
+    }
+    mEntries = new LinkedHashMap<String, CachedGenerators>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedGenerators> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Gets the generator for the provided account, creating and caching it if necessary.
+   *
+   * @param accountName name of the account.
+   * @param secret the account's secret key as base32 encoded string.
+   * @param codeLength length of the decimal passcodes to generate.
+   *
+   * @return generator or {@code null} if the secret could not be used to create a {@link Signer}.
+   */
+  PasscodeGenerator get(String accountName, String secret, int codeLength) {
+    synchronized (mEntries) {
+      CachedGenerators entry = mEntries.get(accountName);
+      if ((entry != null) && (!entry.secret.equals(secret))) {
+        mEntries.remove(accountName);
+        entry = null;
+      }
+      PasscodeGenerator generator = (entry != null) ? entry.generators[codeLength] : null;
+      if (generator != null) {
+        return generator;
+      }
+
+      // Each generator gets a signer of its own: the signers are not thread-safe, and generators
+      // of different lengths are locked independently of each other.
+      Signer signer;
+      try {
+        signer = Signers.forSecret(secret);
+      } catch (DecodingException e) {
+        return null;
+      } catch (GeneralSecurityException e) {
+        return null;
+      }
+      if (entry == null) {
+        entry = new CachedGenerators(secret);
+        mEntries.put(accountName, entry);
+      }
+      generator = new PasscodeGenerator(signer, codeLength);
+      entry.generators[codeLength] = generator;
+      return generator;
+    }
+  }
+
+  /**
+   * Removes the cached generators of the provided account.
+   */
+  void invalidate(String accountName) {
+    synchronized (mEntries) {
+      mEntries.remove(accountName);
+    }
+  }
+
+  /**
+   * Removes all cached generators.
+   */
+  void invalidateAll() {
+    synchronized (mEntries) {
+      mEntries.clear();
+    }
+  }
+
+  /**
+   * Gets the number of accounts for which generators are currently cached.
+   */
+  int size() {
+    synchronized (mEntries) {
+      return mEntries.size();
+    }
+  }
+
+  private static class CachedGenerators {
+    private final String secret;
+
+    /** Generators for {@link #secret}, indexed by passcode length. */
+    private final PasscodeGenerator[] generators =
+        new PasscodeGenerator[PasscodeGenerator.MAX_PASSCODE_LENGTH + 1];
+
+    private CachedGenerators(String secret) {
+      this.secret = secret;
+    }
+  }
+}
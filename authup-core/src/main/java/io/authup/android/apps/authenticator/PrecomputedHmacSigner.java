@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import io.authup.android.apps.authenticator.PasscodeGenerator.IncrementalSigner;
+import io.authup.android.apps.authenticator.PasscodeGenerator.Signer;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * HMAC-SHA1 {@link Signer} (RFC 2104) which absorbs the inner and outer padded key blocks into
+ * SHA-1 digests once, when constructed. Each signature then starts from copies of these
+ * precomputed digest states, so only the blocks holding the message and the inner hash are
+ * compressed. For the 8-byte messages used by HOTP/TOTP this halves the number of SHA-1
+ * compressions compared to initializing a {@link javax.crypto.Mac} for every code.
+ *
+ * <p>Thread-safety: Instances of this class are not thread-safe.
+ */
+final class PrecomputedHmacSigner implements IncrementalSigner {
+
+  private static final String DIGEST_ALGORITHM = "SHA-1";
+
+  /** Size (bytes) of SHA-1 digests and thus of the signatures. */
+  private static final int DIGEST_LENGTH = 20;
+
+  /** Size (bytes) of the blocks processed by the SHA-1 compression function. */
+  private static final int BLOCK_LENGTH = 64;
+
+  private static final byte INNER_PAD = 0x36;
+  private static final byte OUTER_PAD = 0x5c;
+
+  /** Digest which has absorbed {@code key XOR ipad}. Never updated after construction. */
+  private final MessageDigest mInnerState;
+
+  /** Digest which has absorbed {@code key XOR opad}. Never updated after construction. */
+  private final MessageDigest mOuterState;
+
+  /**
+   * Inner digest of the message passed to {@link #update(ByteBuffer)} since the last
+   * {@link #doFinal(byte[])}, or {@code null} if no message has been started.
+   */
+  private MessageDigest mInnerDigest;
+
+  /**
+   * @param key HMAC key.
+   *
+   * @throws NoSuchAlgorithmException if SHA-1 is not available.
+   * @throws CloneNotSupportedException if the SHA-1 implementation does not support copying its
+   *         state, in which case this signer cannot be used.
+   */
+  PrecomputedHmacSigner(byte[] key) throws NoSuchAlgorithmException, CloneNotSupportedException {
+    MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+    if (key.length > BLOCK_LENGTH) {
+      // Keys longer than the block size are hashed first as required by RFC 2104.
+      key = digest.digest(key);
+    }
+
+    byte[] paddedKey = new byte[BLOCK_LENGTH];
+    mInnerState = absorbPaddedKey(digest, key, paddedKey, INNER_PAD);
+    mOuterState = absorbPaddedKey(digest, key, paddedKey, OUTER_PAD);
+    Arrays.fill(paddedKey, (byte) 0);
+  }
+
+  private static MessageDigest absorbPaddedKey(
+      MessageDigest digest, byte[] key, byte[] paddedKey, byte pad)
+      throws CloneNotSupportedException {
+    for (int i = 0; i < BLOCK_LENGTH; i++) {
+      paddedKey[i] = (byte) (((i < key.length) ? key[i] : 0) ^ pad);
+    }
+    digest.reset();
+    digest.update(paddedKey);
+    MessageDigest result = (MessageDigest) digest.clone();
+    digest.reset();
+    return result;
+  }
+
+  @Override
+  public byte[] sign(byte[] data) throws GeneralSecurityException {
+    MessageDigest inner = copy(mInnerState);
+    inner.update(data);
+    MessageDigest outer = copy(mOuterState);
+    outer.update(inner.digest());
+    return outer.digest();
+  }
+
+  @Override
+  public int getSignatureLength() {
+    return DIGEST_LENGTH;
+  }
+
+  @Override
+  public void update(ByteBuffer input) throws GeneralSecurityException {
+    if (mInnerDigest == null) {
+      mInnerDigest = copy(mInnerState);
+    }
+    mInnerDigest.update(input);
+  }
+
+  @Override
+  public void doFinal(byte[] signature) throws GeneralSecurityException {
+    MessageDigest inner = (mInnerDigest != null) ? mInnerDigest : copy(mInnerState);
+    mInnerDigest = null;
+    MessageDigest outer = copy(mOuterState);
+    outer.update(inner.digest());
+    outer.digest(signature, 0, DIGEST_LENGTH);
+  }
+
+  private static MessageDigest copy(MessageDigest digest) throws GeneralSecurityException {
+    try {
+      return (MessageDigest) digest.clone();
+    } catch (CloneNotSupportedException e) {
+      // Cloning succeeded during construction, thus this is not expected to happen.
+      throw new GeneralSecurityException("Failed to copy digest state", e);
+    }
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import static io.authup.android.apps.authenticator.Sha1HmacSigner.BLOCK_LENGTH;
+import static io.authup.android.apps.authenticator.Sha1HmacSigner.DIGEST_LENGTH;
+import static io.authup.android.apps.authenticator.Sha1HmacSigner.K0;
+import static io.authup.android.apps.authenticator.Sha1HmacSigner.K1;
+import static io.authup.android.apps.authenticator.Sha1HmacSigner.K2;
+import static io.authup.android.apps.authenticator.Sha1HmacSigner.K3;
+
+import java.util.Arrays;
+
+/**
+ * Computes the HMAC-SHA1 of the same OTP state under many keys at once, for example to generate
+ * the codes of all accounts for one time step.
+ *
+ * <p>The keys are processed in groups of {@link #LANES}, one lane per key. The SHA-1 state of a
+ * group is held as one {@code int[]} per state word, indexed by lane, and every round of the
+ * compression function is applied to all lanes of the group in a single loop. The iterations of
+ * these loops are independent, which lets the compiler pipeline and vectorize them. As all keys
+ * sign the same message, the message schedule of the inner hash is computed only once.
+ *
+ * <p>Thread-safety: Instances of this class are not thread-safe.
+ */
+public final class Sha1HmacBatchSigner {
+
+  /** Number of keys processed together. */
+  // @VisibleForTesting
+  static final int LANES = 64;
+
+  /** Number of words in SHA-1 chaining values and digests. */
+  private static final int WORDS = DIGEST_LENGTH / 4;
+
+  private final int mKeyCount;
+
+  /** Chaining values after the inner padded key blocks, {@code [word][key]}. */
+  private final int[][] mInnerStates;
+
+  /** Chaining values after the outer padded key blocks, {@code [word][key]}. */
+  private final int[][] mOuterStates;
+
+  /** Working state of the lanes, {@code [word][lane]}. */
+  private final int[][] mState = new int[WORDS][LANES];
+
+  /** Message schedule of the lanes, {@code [round][lane]}. */
+  private final int[][] mSchedule = new int[80][LANES];
+
+  /**
+   * @param keys HMAC keys. The keys are not retained.
+   */
+  public Sha1HmacBatchSigner(byte[][] keys) {
+    mKeyCount = keys.length;
+    mInnerStates = new int[WORDS][mKeyCount];
+    mOuterStates = new int[WORDS][mKeyCount];
+    int[] innerState = new int[WORDS];
+    int[] outerState = new int[WORDS];
+    for (int i = 0; i < mKeyCount; i++) {
+      new Sha1HmacSigner(keys[i]).getPrecomputedStates(innerState, outerState);
+      for (int word = 0; word < WORDS; word++) {
+        mInnerStates[word][i] = innerState[word];
+        mOuterStates[word][i] = outerState[word];
+      }
+    }
+  }
+
+  /**
+   * Gets the number of keys.
+   */
+  public int size() {
+    return mKeyCount;
+  }
+
+  /**
+   * Signs the 8-byte big-endian representation of the provided OTP state with every key.
+   *
+   * @param signatures array of at least {@code 5 * size()} elements into which to write the
+   *        signatures as big-endian words, the five words of the signature of the {@code i}-th key
+   *        starting at index {@code 5 * i}.
+   */
+  void sign(long state, int[] signatures) {
+    for (int from = 0; from < mKeyCount; from += LANES) {
+      int lanes = Math.min(LANES, mKeyCount - from);
+
+      // Inner hash: the state and padding are the same for all keys.
+      fillRow(0, lanes, (int) (state >>> 32));
+      fillRow(1, lanes, (int) state);
+      fillRow(2, lanes, 0x80000000);
+      for (int t = 3; t < 15; t++) {
+        fillRow(t, lanes, 0);
+      }
+      fillRow(15, lanes, (BLOCK_LENGTH + 8) * 8);
+      compress(mInnerStates, from, lanes);
+
+      // Outer hash of the inner hashes
+      for (int word = 0; word < WORDS; word++) {
+        System.arraycopy(mState[word], 0, mSchedule[word], 0, lanes);
+      }
+      fillRow(5, lanes, 0x80000000);
+      for (int t = 6; t < 15; t++) {
+        fillRow(t, lanes, 0);
+      }
+      fillRow(15, lanes, (BLOCK_LENGTH + DIGEST_LENGTH) * 8);
+      compress(mOuterStates, from, lanes);
+
+      for (int word = 0; word < WORDS; word++) {
+        int[] row = mState[word];
+        for (int lane = 0, i = from * WORDS + word; lane < lanes; lane++, i += WORDS) {
+          signatures[i] = row[lane];
+        }
+      }
+    }
+  }
+
+  private void fillRow(int t, int lanes, int value) {
+    Arrays.fill(mSchedule[t], 0, lanes, value);
+  }
+
+  /**
+   * Applies the SHA-1 compression function to the blocks in the first 16 rows of
+   * {@link #mSchedule}, starting from the provided chaining values, and leaves the resulting
+   * chaining values in {@link #mState}.
+   */
+  private void compress(int[][] states, int from, int lanes) {
+    int[][] w = mSchedule;
+    for (int t = 16; t < 80; t++) {
+      int[] row = w[t];
+      int[] row3 = w[t - 3];
+      int[] row8 = w[t - 8];
+      int[] row14 = w[t - 14];
+      int[] row16 = w[t - 16];
+      for (int lane = 0; lane < lanes; lane++) {
+        row[lane] = Integer.rotateLeft(row3[lane] ^ row8[lane] ^ row14[lane] ^ row16[lane], 1);
+      }
+    }
+
+    int[] a = mState[0];
+    int[] b = mState[1];
+    int[] c = mState[2];
+    int[] d = mState[3];
+    int[] e = mState[4];
+    for (int word = 0; word < WORDS; word++) {
+      System.arraycopy(states[word], from, mState[word], 0, lanes);
+    }
+
+    // Five rounds per iteration, after which the roles of the arrays are back where they
+    // started, so that no values need to be moved between them.
+    for (int t = 0; t < 80; t += 5) {
+      round(t, a, b, c, d, e, lanes);
+      round(t + 1, e, a, b, c, d, lanes);
+      round(t + 2, d, e, a, b, c, lanes);
+      round(t + 3, c, d, e, a, b, lanes);
+      round(t + 4, b, c, d, e, a, lanes);
+    }
+
+    for (int word = 0; word < WORDS; word++) {
+      int[] state = states[word];
+      int[] result = mState[word];
+      for (int lane = 0; lane < lanes; lane++) {
+        result[lane] += state[from + lane];
+      }
+    }
+  }
+
+  /**
+   * Applies round {@code t} of the SHA-1 compression function to all lanes.
+   */
+  private void round(int t, int[] a, int[] b, int[] c, int[] d, int[] e, int lanes) {
+    int[] w = mSchedule[t];
+    if (t < 20) {
+      for (int i = 0; i < lanes; i++) {
+        int bi = b[i];
+        e[i] += Integer.rotateLeft(a[i], 5) + (d[i] ^ (bi & (c[i] ^ d[i]))) + K0 + w[i];
+        b[i] = Integer.rotateLeft(bi, 30);
+      }
+    } else if (t < 40) {
+      for (int i = 0; i < lanes; i++) {
+        int bi = b[i];
+        e[i] += Integer.rotateLeft(a[i], 5) + (bi ^ c[i] ^ d[i]) + K1 + w[i];
+        b[i] = Integer.rotateLeft(bi, 30);
+      }
+    } else if (t < 60) {
+      for (int i = 0; i < lanes; i++) {
+        int bi = b[i];
+        e[i] += Integer.rotateLeft(a[i], 5) + ((bi & c[i]) | (d[i] & (bi | c[i]))) + K2 + w[i];
+        b[i] = Integer.rotateLeft(bi, 30);
+      }
+    } else {
+      for (int i = 0; i < lanes; i++) {
+        int bi = b[i];
+        e[i] += Integer.rotateLeft(a[i], 5) + (bi ^ c[i] ^ d[i]) + K3 + w[i];
+        b[i] = Integer.rotateLeft(bi, 30);
+      }
+    }
+  }
+}
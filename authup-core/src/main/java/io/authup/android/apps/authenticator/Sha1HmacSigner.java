@@ -0,0 +1,362 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import io.authup.android.apps.authenticator.PasscodeGenerator.IncrementalSigner;
+import io.authup.android.apps.authenticator.PasscodeGenerator.StateSigner;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Pure Java HMAC-SHA1 {@link StateSigner} (RFC 2104, FIPS 180-4). The SHA-1 chaining values after
+ * the inner and outer padded key blocks are computed once, when constructed. Messages of up to 55
+ * bytes, which include the 8-byte HOTP/TOTP states and short challenges, then take exactly two
+ * compressions, without the buffering, provider lookups and copying of a
+ * {@link javax.crypto.Mac}. Signing an OTP state with {@link #sign(long, byte[])} does not
+ * allocate any memory, and neither does signing longer messages supplied in parts with
+ * {@link #update(ByteBuffer)}.
+ *
+ * <p>Thread-safety: Instances of this class are not thread-safe.
+ */
+final class Sha1HmacSigner implements StateSigner, IncrementalSigner {
+
+  /** Size (bytes) of the blocks processed by the SHA-1 compression function. */
+  static final int BLOCK_LENGTH = 64;
+
+  /** Size (bytes) of SHA-1 digests and thus of the signatures. */
+  static final int DIGEST_LENGTH = 20;
+
+  private static final int INNER_PAD = 0x36363636;
+  private static final int OUTER_PAD = 0x5c5c5c5c;
+
+  private static final int[] INITIAL_STATE =
+      {0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476, 0xc3d2e1f0};
+
+  static final int K0 = 0x5a827999;
+  static final int K1 = 0x6ed9eba1;
+  static final int K2 = 0x8f1bbcdc;
+  static final int K3 = 0xca62c1d6;
+
+  /** Chaining value after compressing {@code key XOR ipad}. Never modified after construction. */
+  private final int[] mInnerState = new int[5];
+
+  /** Chaining value after compressing {@code key XOR opad}. Never modified after construction. */
+  private final int[] mOuterState = new int[5];
+
+  /** Message schedule: the block being compressed in the first 16 words. */
+  private final int[] mSchedule = new int[80];
+
+  /** Chaining value of the hash being computed. */
+  private final int[] mHash = new int[5];
+
+  /**
+   * Chaining value after the complete blocks of the message passed to {@link #update(ByteBuffer)}
+   * since the last {@link #doFinal(byte[])}.
+   */
+  private final int[] mPartialHash = new int[5];
+
+  /** Bytes of the message passed to {@link #update(ByteBuffer)} not yet compressed. */
+  private final byte[] mPendingBlock = new byte[BLOCK_LENGTH];
+
+  /** Number of bytes held in {@link #mPendingBlock}. */
+  private int mPendingLength;
+
+  /** Length (bytes) of the message passed to {@link #update(ByteBuffer)} so far. */
+  private long mMessageLength;
+
+  /**
+   * @param key HMAC key.
+   */
+  Sha1HmacSigner(byte[] key) {
+    if (key.length > BLOCK_LENGTH) {
+      // Keys longer than the block size are hashed first as required by RFC 2104.
+      hash(INITIAL_STATE, 0, key, mHash);
+      key = new byte[DIGEST_LENGTH];
+      writeHash(mHash, key);
+    }
+
+    loadBlock(key, 0, key.length);
+    for (int i = 0; i < 16; i++) {
+      mSchedule[i] ^= INNER_PAD;
+    }
+    compress(INITIAL_STATE, mSchedule, mInnerState);
+
+    loadBlock(key, 0, key.length);
+    for (int i = 0; i < 16; i++) {
+      mSchedule[i] ^= OUTER_PAD;
+    }
+    compress(INITIAL_STATE, mSchedule, mOuterState);
+
+    Arrays.fill(mSchedule, 0);
+    Arrays.fill(mHash, 0);
+    System.arraycopy(mInnerState, 0, mPartialHash, 0, 5);
+  }
+
+  /**
+   * Copies the chaining values after the inner and outer padded key blocks into the provided
+   * arrays.
+   */
+  void getPrecomputedStates(int[] innerState, int[] outerState) {
+    System.arraycopy(mInnerState, 0, innerState, 0, 5);
+    System.arraycopy(mOuterState, 0, outerState, 0, 5);
+  }
+
+  @Override
+  public byte[] sign(byte[] data) {
+    hash(mInnerState, BLOCK_LENGTH, data, mHash);
+    signInnerHash();
+    byte[] result = new byte[DIGEST_LENGTH];
+    writeHash(mHash, result);
+    return result;
+  }
+
+  @Override
+  public int getSignatureLength() {
+    return DIGEST_LENGTH;
+  }
+
+  @Override
+  public void sign(long state, byte[] signature) {
+    // Inner hash: the state fits into a single block together with the padding.
+    int[] w = mSchedule;
+    w[0] = (int) (state >>> 32);
+    w[1] = (int) state;
+    w[2] = 0x80000000;
+    for (int i = 3; i < 15; i++) {
+      w[i] = 0;
+    }
+    w[15] = (BLOCK_LENGTH + 8) * 8;
+    compress(mInnerState, w, mHash);
+
+    signInnerHash();
+    writeHash(mHash, signature);
+  }
+
+  @Override
+  public void update(ByteBuffer input) {
+    mMessageLength += input.remaining();
+    if (mPendingLength > 0) {
+      int length = Math.min(BLOCK_LENGTH - mPendingLength, input.remaining());
+      input.get(mPendingBlock, mPendingLength, length);
+      mPendingLength += length;
+      if (mPendingLength < BLOCK_LENGTH) {
+        return;
+      }
+      loadBlock(mPendingBlock, 0, BLOCK_LENGTH);
+      compress(mPartialHash, mSchedule, mPartialHash);
+      mPendingLength = 0;
+    }
+
+    if (input.hasArray()) {
+      // Compress the complete blocks straight from the backing array
+      byte[] data = input.array();
+      int offset = input.arrayOffset() + input.position();
+      int end = offset + input.remaining();
+      for (; end - offset >= BLOCK_LENGTH; offset += BLOCK_LENGTH) {
+        loadBlock(data, offset, BLOCK_LENGTH);
+        compress(mPartialHash, mSchedule, mPartialHash);
+      }
+      input.position(offset - input.arrayOffset());
+    } else {
+      while (input.remaining() >= BLOCK_LENGTH) {
+        input.get(mPendingBlock, 0, BLOCK_LENGTH);
+        loadBlock(mPendingBlock, 0, BLOCK_LENGTH);
+        compress(mPartialHash, mSchedule, mPartialHash);
+      }
+    }
+
+    mPendingLength = input.remaining();
+    input.get(mPendingBlock, 0, mPendingLength);
+  }
+
+  @Override
+  public void doFinal(byte[] signature) {
+    System.arraycopy(mPartialHash, 0, mHash, 0, 5);
+    finishHash(mPendingBlock, 0, mPendingLength, BLOCK_LENGTH + mMessageLength, mHash);
+    signInnerHash();
+    writeHash(mHash, signature);
+
+    System.arraycopy(mInnerState, 0, mPartialHash, 0, 5);
+    mPendingLength = 0;
+    mMessageLength = 0;
+  }
+
+  /**
+   * Replaces the inner hash held in {@link #mHash} with the outer hash, i.e., the signature.
+   */
+  private void signInnerHash() {
+    // The inner hash fits into a single block together with the padding.
+    int[] w = mSchedule;
+    System.arraycopy(mHash, 0, w, 0, 5);
+    w[5] = 0x80000000;
+    for (int i = 6; i < 15; i++) {
+      w[i] = 0;
+    }
+    w[15] = (BLOCK_LENGTH + DIGEST_LENGTH) * 8;
+    compress(mOuterState, w, mHash);
+  }
+
+  /**
+   * Hashes the provided data, starting from the provided chaining value.
+   *
+   * @param state chaining value after compressing the blocks preceding the data.
+   * @param prefixLength number of bytes preceding the data, a multiple of {@link #BLOCK_LENGTH}.
+   * @param result array into which to write the resulting hash.
+   */
+  private void hash(int[] state, int prefixLength, byte[] data, int[] result) {
+    System.arraycopy(state, 0, result, 0, 5);
+    int offset = 0;
+    for (; data.length - offset >= BLOCK_LENGTH; offset += BLOCK_LENGTH) {
+      loadBlock(data, offset, BLOCK_LENGTH);
+      compress(result, mSchedule, result);
+    }
+    finishHash(data, offset, data.length - offset, (long) prefixLength + data.length, result);
+  }
+
+  /**
+   * Compresses the last, incomplete, block of a message together with the padding.
+   *
+   * @param length number of bytes of the last block, less than {@link #BLOCK_LENGTH}.
+   * @param messageLength length (bytes) of the whole message, including any prefix.
+   * @param hash chaining value after the complete blocks, updated in place.
+   */
+  private void finishHash(byte[] data, int offset, int length, long messageLength, int[] hash) {
+    // Padding: a single 1 bit, zeros and the length of the message in bits.
+    loadBlock(data, offset, length);
+    mSchedule[length >> 2] |= 0x80 << (24 - ((length & 3) << 3));
+    if (length >= BLOCK_LENGTH - 8) {
+      // No room left for the length
+      compress(hash, mSchedule, hash);
+      Arrays.fill(mSchedule, 0, 16, 0);
+    }
+    long bitLength = messageLength * 8;
+    mSchedule[14] = (int) (bitLength >>> 32);
+    mSchedule[15] = (int) bitLength;
+    compress(hash, mSchedule, hash);
+  }
+
+  /**
+   * Loads up to a block of big-endian data into the first 16 words of {@link #mSchedule}, zeroing
+   * the words following the data.
+   */
+  private void loadBlock(byte[] data, int offset, int length) {
+    int[] w = mSchedule;
+    int words = length >> 2;
+    for (int i = 0; i < words; i++, offset += 4) {
+      w[i] = (data[offset] << 24)
+          | ((data[offset + 1] & 0xff) << 16)
+          | ((data[offset + 2] & 0xff) << 8)
+          | (data[offset + 3] & 0xff);
+    }
+    for (int i = words; i < 16; i++) {
+      w[i] = 0;
+    }
+    for (int i = words << 2; i < length; i++, offset++) {
+      w[i >> 2] |= (data[offset] & 0xff) << (24 - ((i & 3) << 3));
+    }
+  }
+
+  private static void writeHash(int[] hash, byte[] dest) {
+    for (int i = 0, offset = 0; i < 5; i++, offset += 4) {
+      int h = hash[i];
+      dest[offset] = (byte) (h >>> 24);
+      dest[offset + 1] = (byte) (h >>> 16);
+      dest[offset + 2] = (byte) (h >>> 8);
+      dest[offset + 3] = (byte) h;
+    }
+  }
+
+  /**
+   * SHA-1 compression function.
+   *
+   * @param state chaining value before the block.
+   * @param w the block in its first 16 words. The remaining words are overwritten.
+   * @param result array into which to write the chaining value after the block. May be
+   *        {@code state}.
+   */
+  private static void compress(int[] state, int[] w, int[] result) {
+    for (int t = 16; t < 80; t++) {
+      w[t] = Integer.rotateLeft(w[t - 3] ^ w[t - 8] ^ w[t - 14] ^ w[t - 16], 1);
+    }
+
+    int a = state[0];
+    int b = state[1];
+    int c = state[2];
+    int d = state[3];
+    int e = state[4];
+
+    // Five rounds per iteration, after which the roles of the variables are back where they
+    // started, so that no values need to be moved between them.
+    int t = 0;
+    for (; t < 20; t += 5) {
+      e += Integer.rotateLeft(a, 5) + (d ^ (b & (c ^ d))) + K0 + w[t];
+      b = Integer.rotateLeft(b, 30);
+      d += Integer.rotateLeft(e, 5) + (c ^ (a & (b ^ c))) + K0 + w[t + 1];
+      a = Integer.rotateLeft(a, 30);
+      c += Integer.rotateLeft(d, 5) + (b ^ (e & (a ^ b))) + K0 + w[t + 2];
+      e = Integer.rotateLeft(e, 30);
+      b += Integer.rotateLeft(c, 5) + (a ^ (d & (e ^ a))) + K0 + w[t + 3];
+      d = Integer.rotateLeft(d, 30);
+      a += Integer.rotateLeft(b, 5) + (e ^ (c & (d ^ e))) + K0 + w[t + 4];
+      c = Integer.rotateLeft(c, 30);
+    }
+    for (; t < 40; t += 5) {
+      e += Integer.rotateLeft(a, 5) + (b ^ c ^ d) + K1 + w[t];
+      b = Integer.rotateLeft(b, 30);
+      d += Integer.rotateLeft(e, 5) + (a ^ b ^ c) + K1 + w[t + 1];
+      a = Integer.rotateLeft(a, 30);
+      c += Integer.rotateLeft(d, 5) + (e ^ a ^ b) + K1 + w[t + 2];
+      e = Integer.rotateLeft(e, 30);
+      b += Integer.rotateLeft(c, 5) + (d ^ e ^ a) + K1 + w[t + 3];
+      d = Integer.rotateLeft(d, 30);
+      a += Integer.rotateLeft(b, 5) + (c ^ d ^ e) + K1 + w[t + 4];
+      c = Integer.rotateLeft(c, 30);
+    }
+    for (; t < 60; t += 5) {
+      e += Integer.rotateLeft(a, 5) + ((b & c) | (d & (b | c))) + K2 + w[t];
+      b = Integer.rotateLeft(b, 30);
+      d += Integer.rotateLeft(e, 5) + ((a & b) | (c & (a | b))) + K2 + w[t + 1];
+      a = Integer.rotateLeft(a, 30);
+      c += Integer.rotateLeft(d, 5) + ((e & a) | (b & (e | a))) + K2 + w[t + 2];
+      e = Integer.rotateLeft(e, 30);
+      b += Integer.rotateLeft(c, 5) + ((d & e) | (a & (d | e))) + K2 + w[t + 3];
+      d = Integer.rotateLeft(d, 30);
+      a += Integer.rotateLeft(b, 5) + ((c & d) | (e & (c | d))) + K2 + w[t + 4];
+      c = Integer.rotateLeft(c, 30);
+    }
+    for (; t < 80; t += 5) {
+      e += Integer.rotateLeft(a, 5) + (b ^ c ^ d) + K3 + w[t];
+      b = Integer.rotateLeft(b, 30);
+      d += Integer.rotateLeft(e, 5) + (a ^ b ^ c) + K3 + w[t + 1];
+      a = Integer.rotateLeft(a, 30);
+      c += Integer.rotateLeft(d, 5) + (e ^ a ^ b) + K3 + w[t + 2];
+      e = Integer.rotateLeft(e, 30);
+      b += Integer.rotateLeft(c, 5) + (d ^ e ^ a) + K3 + w[t + 3];
+      d = Integer.rotateLeft(d, 30);
+      a += Integer.rotateLeft(b, 5) + (c ^ d ^ e) + K3 + w[t + 4];
+      c = Integer.rotateLeft(c, 30);
+    }
+
+    result[0] = state[0] + a;
+    result[1] = state[1] + b;
+    result[2] = state[2] + c;
+    result[3] = state[3] + d;
+    result[4] = state[4] + e;
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import io.authup.android.apps.authenticator.PasscodeGenerator.Signer;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * Backend creating HMAC-SHA1 {@link Signer}s. {@link Signers} selects the fastest of the available
+ * backends on this device or JVM.
+ */
+interface SignerFactory {
+
+  /**
+   * Gets the short name identifying this backend in diagnostics.
+   */
+  String getName();
+
+  /**
+   * Creates a signer for the provided key.
+   *
+   * @throws GeneralSecurityException if this backend is not available or cannot use the key.
+   */
+  Signer createSigner(byte[] key) throws GeneralSecurityException;
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import io.authup.android.apps.authenticator.Base32String.DecodingException;
+import io.authup.android.apps.authenticator.PasscodeGenerator.Signer;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Factory of HMAC-SHA1 {@link Signer}s for account secrets.
+ *
+ * <p>Signers are created by the fastest {@link SignerFactory} backend which is available and
+ * produces correct signatures. The backends are measured once per process, the first time a
+ * signer is needed or when {@link #calibrate()} is invoked.
+ */
+final class Signers {
+
+  /** Pure Java implementation, see {@link Sha1HmacSigner}. Always available. */
+  static final SignerFactory JAVA = new SignerFactory() {
+    @Override
+    public String getName() {
+      return "java";
+    }
+
+    @Override
+    public Signer createSigner(byte[] key) {
+      return new Sha1HmacSigner(key);
+    }
+  };
+
+  /** The JCE's SHA-1 digest with precomputed key blocks, see {@link PrecomputedHmacSigner}. */
+  static final SignerFactory JCE_DIGEST = new SignerFactory() {
+    @Override
+    public String getName() {
+      return "jce-digest";
+    }
+
+    @Override
+    public Signer createSigner(byte[] key) throws GeneralSecurityException {
+      try {
+        return new PrecomputedHmacSigner(key);
+      } catch (CloneNotSupportedException e) {
+        throw new NoSuchAlgorithmException("SHA-1 digest cannot be copied");
+      }
+    }
+  };
+
+  /** The JCE's default HMAC-SHA1 {@link Mac}. */
+  static final SignerFactory JCE_MAC = new MacSignerFactory("jce-mac");
+
+  /**
+   * HMAC-SHA1 {@link Mac} of Conscrypt (BoringSSL), either the copy built into Android or the
+   * standalone library, if installed as a security provider.
+   */
+  static final SignerFactory CONSCRYPT =
+      new MacSignerFactory("conscrypt", "AndroidOpenSSL", "Conscrypt");
+
+  /** Backends considered by {@link #calibrate()}, in order of preference for equal speed. */
+  // @VisibleForTesting
+  static final List<SignerFactory> FACTORIES =
+      Collections.unmodifiableList(Arrays.asList(JAVA, JCE_DIGEST, JCE_MAC, CONSCRYPT));
+
+  /** Number of codes generated with each backend before measuring it. */
+  private static final int CALIBRATION_WARMUP_CODES = 300;
+
+  /**
+   * Number of rounds in which the backends are measured. Each round measures every backend once,
+   * starting with a different one, so that a pause or a change of CPU frequency hits one round of
+   * all backends rather than all rounds of one backend.
+   */
+  private static final int CALIBRATION_ROUNDS = 8;
+
+  /** Number of codes generated with each backend per round. */
+  private static final int CALIBRATION_CODES_PER_ROUND = 50;
+
+  /** RFC 4226 Appendix D test key. */
+  private static final byte[] RFC4226_KEY = {
+      '1', '2', '3', '4', '5', '6', '7', '8', '9', '0',
+      '1', '2', '3', '4', '5', '6', '7', '8', '9', '0'};
+
+  /** RFC 4226 Appendix D passcodes for counter values from zero. */
+  private static final int[] RFC4226_CODES = {755224, 287082, 359152, 969429, 338314};
+
+  /** RFC 2202 test case 2 data, key and signature. */
+  private static final byte[] RFC2202_DATA = {
+      'w', 'h', 'a', 't', ' ', 'd', 'o', ' ', 'y', 'a', ' ', 'w', 'a', 'n', 't', ' ',
+      'f', 'o', 'r', ' ', 'n', 'o', 't', 'h', 'i', 'n', 'g', '?'};
+  private static final byte[] RFC2202_KEY = {'J', 'e', 'f', 'e'};
+  private static final String RFC2202_SIGNATURE = "effcdf6ae5eb2fa2d27416d5f184df9c259a7c79";
+
+  /** @GuardedBy {@code Signers.class} */
+  private static Calibration sCalibration;
+
+  /** Hidden constructor to prevent instantiation. */
+  private Signers() {}
+
+  /**
+   * Creates a signer for the provided secret.
+   *
+   * @param secret secret key as base32 encoded string.
+   */
+  static Signer forSecret(String secret)
+      throws DecodingException, NoSuchAlgorithmException, InvalidKeyException {
+    return forKey(Base32String.decode(secret));
+  }
+
+  /**
+   * Creates a signer for the provided key using the selected backend.
+   */
+  static Signer forKey(byte[] keyBytes) throws NoSuchAlgorithmException, InvalidKeyException {
+    SignerFactory factory = calibrate().getSelectedFactory();
+    try {
+      return factory.createSigner(keyBytes);
+    } catch (GeneralSecurityException e) {
+      // Fall through to the pure Java backend which supports all keys
+    } catch (IllegalArgumentException e) {
+      // SecretKeySpec rejects empty keys -- fall through to the pure Java backend
+    }
+    return new Sha1HmacSigner(keyBytes);
+  }
+
+  /**
+   * Creates a signer for the provided key which uses the JCE's SHA-1 implementation.
+   */
+  // @VisibleForTesting
+  static Signer forKeyUsingJce(byte[] keyBytes)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+    try {
+      return JCE_DIGEST.createSigner(keyBytes);
+    } catch (NoSuchAlgorithmException e) {
+      // The SHA-1 implementation cannot copy its state -- fall back to the standard Java MAC.
+      return forKeyUsingMac(keyBytes);
+    } catch (GeneralSecurityException e) {
+      throw new NoSuchAlgorithmException(e.getMessage());
+    }
+  }
+
+  /**
+   * Creates a signer for the provided key which uses the standard Java MAC implementation.
+   */
+  // @VisibleForTesting
+  static Signer forKeyUsingMac(byte[] keyBytes)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+    return createMacSigner(Mac.getInstance("HMACSHA1"), keyBytes);
+  }
+
+  private static Signer createMacSigner(Mac mac, byte[] keyBytes)
+      throws InvalidKeyException {
+    mac.init(new SecretKeySpec(keyBytes, ""));
+
+    // Create a signer object out of the standard Java MAC implementation.
+    return new MacSigner(mac);
+  }
+
+  /**
+   * Measures the backends, unless already done, and selects the fastest of them. This takes a few
+   * milliseconds and can thus be invoked at startup, off the main thread, to avoid delaying the
+   * first signer.
+   *
+   * @return outcome of the measurements.
+   */
+  static synchronized Calibration calibrate() {
+    if (sCalibration == null) {
+      sCalibration = calibrate(FACTORIES);
+    }
+    return sCalibration;
+  }
+
+  /**
+   * Measures the provided backends and selects the fastest one which produces correct signatures,
+   * or {@link #JAVA} if none of them do. The time of a backend is the fastest of its rounds, which
+   * is the one least disturbed by the rest of the system.
+   */
+  // @VisibleForTesting
+  static Calibration calibrate(List<SignerFactory> factories) {
+    int factoryCount = factories.size();
+    PasscodeGenerator[] generators = new PasscodeGenerator[factoryCount];
+    long[] nanos = new long[factoryCount];
+    for (int i = 0; i < factoryCount; i++) {
+      nanos[i] = Long.MAX_VALUE;
+      try {
+        generators[i] = createVerifiedGenerator(factories.get(i));
+        if (generators[i] != null) {
+          timeCodes(generators[i], CALIBRATION_WARMUP_CODES);
+        }
+      } catch (GeneralSecurityException e) {
+        generators[i] = null;
+      } catch (RuntimeException e) {
+        generators[i] = null;
+      }
+    }
+
+    for (int round = 0; round < CALIBRATION_ROUNDS; round++) {
+      for (int j = 0; j < factoryCount; j++) {
+        int i = (round + j) % factoryCount;
+        if (generators[i] == null) {
+          continue;
+        }
+        try {
+          nanos[i] = Math.min(nanos[i],
+              timeCodes(generators[i], CALIBRATION_CODES_PER_ROUND) / CALIBRATION_CODES_PER_ROUND);
+        } catch (GeneralSecurityException e) {
+          generators[i] = null;
+        } catch (RuntimeException e) {
+          generators[i] = null;
+        }
+      }
+    }
+
+    Map<String, Long> nanosPerCode = new LinkedHashMap<String, Long>();
+    SignerFactory selected = JAVA;
+    long selectedNanosPerCode = Long.MAX_VALUE;
+    for (int i = 0; i < factoryCount; i++) {
+      if (generators[i] == null) {
+        nanosPerCode.put(factories.get(i).getName(), Calibration.UNAVAILABLE);
+        continue;
+      }
+      nanosPerCode.put(factories.get(i).getName(), nanos[i]);
+      if (nanos[i] < selectedNanosPerCode) {
+        selected = factories.get(i);
+        selectedNanosPerCode = nanos[i];
+      }
+    }
+    return new Calibration(selected, nanosPerCode);
+  }
+
+  /**
+   * Checks the signatures of the provided backend against the RFC 2202 and RFC 4226 test vectors.
+   *
+   * @return generator using a signer of the backend, or {@code null} if the signatures are not
+   *         correct.
+   */
+  private static PasscodeGenerator createVerifiedGenerator(SignerFactory factory)
+      throws GeneralSecurityException {
+    if (!RFC2202_SIGNATURE.equals(
+        HexEncoding.encode(factory.createSigner(RFC2202_KEY).sign(RFC2202_DATA)))) {
+      return null;
+    }
+    PasscodeGenerator generator = new PasscodeGenerator(factory.createSigner(RFC4226_KEY));
+    for (int i = 0; i < RFC4226_CODES.length; i++) {
+      if (generator.generateCode(i) != RFC4226_CODES[i]) {
+        return null;
+      }
+    }
+    return generator;
+  }
+
+  /**
+   * Generates the provided number of passcodes.
+   *
+   * @return time (nanoseconds) it took.
+   */
+  private static long timeCodes(PasscodeGenerator generator, int count)
+      throws GeneralSecurityException {
+    int checksum = 0;
+    long startTime = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      checksum += generator.generateCode(i);
+    }
+    long nanos = System.nanoTime() - startTime;
+    // Use the codes so that generating them cannot be optimized away
+    return (checksum == 42) ? nanos + 1 : nanos;
+  }
+
+  /**
+   * Outcome of measuring the {@link SignerFactory} backends.
+   */
+  static final class Calibration {
+
+    /** Time per passcode of backends which are not available or produce incorrect signatures. */
+    static final long UNAVAILABLE = -1;
+
+    private final SignerFactory mSelectedFactory;
+    private final Map<String, Long> mNanosPerCode;
+
+    private Calibration(SignerFactory selectedFactory, Map<String, Long> nanosPerCode) {
+      mSelectedFactory = selectedFactory;
+      mNanosPerCode = Collections.unmodifiableMap(nanosPerCode);
+    }
+
+    /**
+     * Gets the backend used to create signers.
+     */
+    SignerFactory getSelectedFactory() {
+      return mSelectedFactory;
+    }
+
+    /**
+     * Gets the measured time (nanoseconds) per passcode keyed by the name of the backend, in the
+     * order in which the backends were measured. The time is {@link #UNAVAILABLE} for backends
+     * which are not available or produce incorrect signatures.
+     */
+    Map<String, Long> getNanosPerCode() {
+      return mNanosPerCode;
+    }
+
+    /**
+     * Returns a description such as {@code "java (812 ns/code); jce-mac: 1514 ns/code,
+     * conscrypt: unavailable"} for diagnostics.
+     */
+    @Override
+    public String toString() {
+      StringBuilder result = new StringBuilder(mSelectedFactory.getName());
+      Long selectedNanos = mNanosPerCode.get(mSelectedFactory.getName());
+      if ((selectedNanos != null) && (selectedNanos != UNAVAILABLE)) {
+        result.append(" (").append(selectedNanos).append(" ns/code)");
+      }
+      String separator = "; ";
+      for (Map.Entry<String, Long> entry : mNanosPerCode.entrySet()) {
+        if (entry.getKey().equals(mSelectedFactory.getName())) {
+          continue;
+        }
+        result.append(separator).append(entry.getKey()).append(": ");
+        if (entry.getValue() == UNAVAILABLE) {
+          result.append("unavailable");
+        } else {
+          result.append(entry.getValue()).append(" ns/code");
+        }
+        separator = ", ";
+      }
+      return result.toString();
+    }
+  }
+
+  /**
+   * Backend using the HMAC-SHA1 {@link Mac} of the first of the provided security providers which
+   * is installed, or the default {@link Mac} if no providers are specified.
+   */
+  private static final class MacSignerFactory implements SignerFactory {
+    private final String mName;
+    private final String[] mProviderNames;
+
+    private MacSignerFactory(String name, String... providerNames) {
+      mName = name;
+      mProviderNames = providerNames;
+    }
+
+    @Override
+    public String getName() {
+      return mName;
+    }
+
+    @Override
+    public Signer createSigner(byte[] key) throws GeneralSecurityException {
+      if (mProviderNames.length == 0) {
+        return createMacSigner(Mac.getInstance("HMACSHA1"), key);
+      }
+      for (String providerName : mProviderNames) {
+        Provider provider = Security.getProvider(providerName);
+        if (provider != null) {
+          return createMacSigner(Mac.getInstance("HMACSHA1", provider), key);
+        }
+      }
+      throw new NoSuchProviderException("None of the providers is installed: "
+          + Arrays.toString(mProviderNames));
+    }
+  }
+}
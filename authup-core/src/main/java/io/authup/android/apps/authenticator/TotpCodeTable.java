@@ -0,0 +1,221 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import java.security.GeneralSecurityException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Table of precomputed TOTP codes for verifying codes of many accounts. For every account being
+ * verified the table holds the codes of all intervals in the verification window around the
+ * current value of the {@link TotpCounter}. The codes are computed when the account is first seen
+ * in a time step, so that any further verification in the same step is a lookup which does not
+ * compute an HMAC. When the window moves forward, only the codes of the intervals which entered
+ * the window are computed.
+ *
+ * <p>Accounts which have not been verified for a configurable number of time steps are evicted.
+ *
+ * <p>Thread-safety: Instances of this class are thread-safe. The codes of an account are computed
+ * under a lock of that account only, and are published as an immutable window, so that lookups
+ * take no lock and wait for no other account.
+ */
+public class TotpCodeTable {
+
+  private final TotpCounter mCounter;
+  private final Clock mClock;
+  private final int mPastIntervals;
+  private final int mFutureIntervals;
+  private final int mMaxIdleIntervals;
+
+  private final ConcurrentMap<String, Entry> mEntries = new ConcurrentHashMap<String, Entry>();
+
+  /** Value of the counter when idle entries were last evicted. */
+  private final AtomicLong mLastEvictionValue = new AtomicLong(Long.MIN_VALUE);
+
+  /**
+   * @param counter counter which determines the current interval.
+   * @param clock clock which provides the current time.
+   * @param pastIntervals number of past intervals for which codes are valid.
+   * @param futureIntervals number of future intervals for which codes are valid.
+   * @param maxIdleIntervals number of intervals after which an account that has not been verified
+   *        is evicted.
+   */
+  public TotpCodeTable(TotpCounter counter, Clock clock, int pastIntervals,
+      int futureIntervals, int maxIdleIntervals) {
+    if ((pastIntervals < 0) || (futureIntervals < 0)) {
+      throw new IllegalArgumentException("Window must not be negative: -" + pastIntervals
+          + ", +" + futureIntervals);
+    }
+    if (maxIdleIntervals < 0) {
+      throw new IllegalArgumentException("Negative idle intervals: " + maxIdleIntervals);
+    }
+    mCounter = counter;
+    mClock = clock;
+    mPastIntervals = pastIntervals;
+    mFutureIntervals = futureIntervals;
+    mMaxIdleIntervals = maxIdleIntervals;
+  }
+
+  /**
+   * Finds the interval, relative to the current interval, for which the provided code of the
+   * account is valid.
+   *
+   * @param accountName name of the account.
+   * @param generator generator for the account's codes. If it differs from the generator used for
+   *        the previous verification of the account, the account's codes are recomputed.
+   * @param code the code to verify, as returned by {@link PasscodeGenerator#generateCode(long)}.
+   *
+   * @return offset of the matching interval from the current interval (negative for past
+   *         intervals) or {@link PasscodeGenerator#NO_MATCH} if the code is not valid.
+   */
+  public int findTimeoutCodeOffset(String accountName, PasscodeGenerator generator, int code)
+      throws GeneralSecurityException {
+    long currentValue = mCounter.getValueAtTime(mClock.currentTimeMillis() / 1000);
+    long lastEvictionValue = mLastEvictionValue.get();
+    if ((currentValue > lastEvictionValue)
+        && mLastEvictionValue.compareAndSet(lastEvictionValue, currentValue)) {
+      evictIdleEntries(currentValue);
+    }
+
+    Entry entry = mEntries.get(accountName);
+    if (entry == null) {
+      Entry newEntry = new Entry();
+      entry = mEntries.putIfAbsent(accountName, newEntry);
+      if (entry == null) {
+        entry = newEntry;
+      }
+    }
+    if (entry.lastUsedValue < currentValue) {
+      entry.lastUsedValue = currentValue;
+    }
+    Window window = entry.getWindow(generator, currentValue - mPastIntervals,
+        mPastIntervals + 1 + mFutureIntervals);
+
+    // Compare against every code of the window so that the time taken does not depend on the
+    // position of the match.
+    int[] codes = window.codes;
+    int matchedOffset = PasscodeGenerator.NO_MATCH;
+    for (int i = 0; i < codes.length; i++) {
+      matchedOffset =
+          PasscodeGenerator.selectFirstMatch(matchedOffset, codes[i], code, i - mPastIntervals);
+    }
+    return matchedOffset;
+  }
+
+  /**
+   * Removes the codes of the provided account, for example because its secret has changed.
+   */
+  public void remove(String accountName) {
+    mEntries.remove(accountName);
+  }
+
+  /**
+   * Gets the number of accounts whose codes are held by this table.
+   */
+  public int size() {
+    return mEntries.size();
+  }
+
+  private void evictIdleEntries(long currentValue) {
+    for (Iterator<Entry> it = mEntries.values().iterator(); it.hasNext();) {
+      if (currentValue - it.next().lastUsedValue > mMaxIdleIntervals) {
+        it.remove();
+      }
+    }
+  }
+
+  /** Codes of the intervals in the window of an account. Instances are immutable. */
+  private static class Window {
+    /** Generator used to compute {@link #codes}. */
+    private final PasscodeGenerator generator;
+
+    /** Interval of the first element of {@link #codes}. */
+    private final long firstValue;
+
+    /** Codes of the intervals in the window, starting with the earliest interval. */
+    private final int[] codes;
+
+    private Window(PasscodeGenerator generator, long firstValue, int[] codes) {
+      this.generator = generator;
+      this.firstValue = firstValue;
+      this.codes = codes;
+    }
+
+    private boolean matches(PasscodeGenerator otherGenerator, long otherFirstValue) {
+      return (generator == otherGenerator) && (firstValue == otherFirstValue);
+    }
+  }
+
+  private static class Entry {
+    /** Window of the latest interval seen, or {@code null} if not yet computed. */
+    private volatile Window window;
+
+    /**
+     * Value of the counter when the account was last verified. Updates may be lost to concurrent
+     * verifications of the same account, which only keeps the entry for one more interval.
+     */
+    private volatile long lastUsedValue = Long.MIN_VALUE;
+
+    /**
+     * Gets the window starting with the provided interval, computing the codes which are not in
+     * the current window. The window is published unless the current window is newer, as seen by
+     * a verifier whose clock was read later.
+     */
+    private Window getWindow(PasscodeGenerator generator, long firstValue, int windowSize)
+        throws GeneralSecurityException {
+      Window current = window;
+      if ((current != null) && current.matches(generator, firstValue)) {
+        return current;
+      }
+      synchronized (this) {
+        current = window;
+        if ((current != null) && current.matches(generator, firstValue)) {
+          return current;
+        }
+        Window result = computeWindow(current, generator, firstValue, windowSize);
+        if ((current == null) || (current.generator != generator)
+            || (current.firstValue < firstValue)) {
+          window = result;
+        }
+        return result;
+      }
+    }
+
+    private static Window computeWindow(Window current, PasscodeGenerator generator,
+        long firstValue, int windowSize) throws GeneralSecurityException {
+      int[] codes = new int[windowSize];
+      int firstStale = 0;
+      if ((current != null) && (current.generator == generator)) {
+        long shift = firstValue - current.firstValue;
+        if ((shift > 0) && (shift < windowSize)) {
+          // The window moved forward -- keep the codes of the intervals still in the window.
+          firstStale = windowSize - (int) shift;
+          System.arraycopy(current.codes, (int) shift, codes, 0, firstStale);
+        }
+      }
+      synchronized (generator) {
+        for (int i = firstStale; i < windowSize; i++) {
+          codes[i] = generator.generateCode(firstValue + i);
+        }
+      }
+      return new Window(generator, firstValue, codes);
+    }
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import java.util.Arrays;
+
+/**
+ * Cache of TOTP codes which have already been accepted, used to reject replays of a code within
+ * its verification window.
+ *
+ * <p>The cache is a ring of buckets, one per value of the {@link TotpCounter} in the verification
+ * window. Each bucket holds the identifiers of the accounts whose code for that counter value has
+ * been accepted, in an open-addressing hash set of {@code long}s. When the window moves forward, a
+ * bucket is reused for a new counter value by discarding its contents at once instead of expiring
+ * entries individually.
+ *
+ * <p>Thread-safety: Instances of this class are thread-safe. Buckets are locked independently.
+ */
+public class TotpReplayCache {
+
+  private final TotpCounter mCounter;
+  private final Clock mClock;
+  private final int mPastIntervals;
+  private final int mFutureIntervals;
+  private final Bucket[] mBuckets;
+
+  /**
+   * @param counter counter which determines the current interval.
+   * @param clock clock which provides the current time.
+   * @param pastIntervals number of past intervals for which codes are accepted.
+   * @param futureIntervals number of future intervals for which codes are accepted.
+   */
+  public TotpReplayCache(
+      TotpCounter counter, Clock clock, int pastIntervals, int futureIntervals) {
+    if ((pastIntervals < 0) || (futureIntervals < 0)) {
+      throw new IllegalArgumentException("Window must not be negative: -" + pastIntervals
+          + ", +" + futureIntervals);
+    }
+    mCounter = counter;
+    mClock = clock;
+    mPastIntervals = pastIntervals;
+    mFutureIntervals = futureIntervals;
+    mBuckets = new Bucket[pastIntervals + 1 + futureIntervals];
+    for (int i = 0; i < mBuckets.length; i++) {
+      mBuckets[i] = new Bucket();
+    }
+  }
+
+  /**
+   * Records that the account's code for the provided counter value has been accepted.
+   *
+   * @param accountId identifier of the account.
+   * @param value value of the counter for which the code was valid, for example the current value
+   *        plus the offset returned by
+   *        {@link PasscodeGenerator#findTimeoutCodeOffset(int, long, int, int)}.
+   *
+   * @return {@code true} if the code has not been used before and may be accepted, {@code false}
+   *         if it is a replay or if {@code value} is outside of the verification window, including
+   *         the window of any verifier that has already seen a later time.
+   */
+  public boolean markUsed(long accountId, long value) {
+    long currentValue = mCounter.getValueAtTime(mClock.currentTimeMillis() / 1000);
+    if ((value < currentValue - mPastIntervals) || (value > currentValue + mFutureIntervals)) {
+      return false;
+    }
+
+    // Values in the window map to distinct buckets. Thus, a bucket which holds an older value
+    // holds a value that is no longer in the window. A bucket which holds a newer value has been
+    // reused by a verifier whose clock is ahead of this one, and the provided value is no longer
+    // in the window of that verifier: resetting the bucket would forget the codes accepted for
+    // the newer value and let them be replayed.
+    Bucket bucket = mBuckets[(int) floorMod(value, mBuckets.length)];
+    synchronized (bucket) {
+      if (value > bucket.value) {
+        bucket.reset(value);
+      } else if (value < bucket.value) {
+        return false;
+      }
+      return bucket.add(accountId);
+    }
+  }
+
+  private static long floorMod(long value, int modulus) {
+    long result = value % modulus;
+    return (result < 0) ? result + modulus : result;
+  }
+
+  /**
+   * Set of account identifiers accepted for one counter value. A slot is occupied only if its
+   * stamp equals the bucket's current stamp, so that all slots are freed by changing the stamp.
+   */
+  private static class Bucket {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long value = Long.MIN_VALUE;
+    private int stamp = 1;
+    private int size;
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int[] stamps = new int[INITIAL_CAPACITY];
+
+    private void reset(long newValue) {
+      value = newValue;
+      size = 0;
+      if (++stamp == 0) {
+        // The stamp wrapped around and may now match stale slots.
+        Arrays.fill(stamps, 0);
+        stamp = 1;
+      }
+    }
+
+    /**
+     * @return {@code true} if the key was added, {@code false} if it was already present.
+     */
+    private boolean add(long key) {
+      if ((size + 1) * 4 > keys.length * 3) {
+        grow();
+      }
+      int mask = keys.length - 1;
+      for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+        if (stamps[i] != stamp) {
+          keys[i] = key;
+          stamps[i] = stamp;
+          size++;
+          return true;
+        } else if (keys[i] == key) {
+          return false;
+        }
+      }
+    }
+
+    private void grow() {
+      long[] oldKeys = keys;
+      int[] oldStamps = stamps;
+      keys = new long[oldKeys.length * 2];
+      stamps = new int[oldKeys.length * 2];
+      int mask = keys.length - 1;
+      for (int j = 0; j < oldKeys.length; j++) {
+        if (oldStamps[j] == stamp) {
+          int i = hash(oldKeys[j]) & mask;
+          while (stamps[i] == stamp) {
+            i = (i + 1) & mask;
+          }
+          keys[i] = oldKeys[j];
+          stamps[i] = stamp;
+        }
+      }
+    }
+
+    private static int hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+    }
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import io.authup.android.apps.authenticator.Base32String.DecodingException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link Base32String}
+ * @author sarvar@google.com (Sarvar Patel)
+ */
+public class Base32StringTest extends TestCase {
+
+  // regression input and output values taken from RFC 4648
+  // but stripped of the "=" padding from encoded output as required by the
+  // implemented encoding in Base32String.java
+  private static final byte[] INPUT1 = string2Bytes("foo");
+  private static final byte[] INPUT2 = string2Bytes("foob");
+  private static final byte[] INPUT3 = string2Bytes("fooba");
+  private static final byte[] INPUT4 = string2Bytes("foobar");
+
+  // RFC 4648 expected encodings for above inputs are:
+  // "MZXW6===", "MZXW6YQ=", "MZXW6YTB", MZXW6YTBOI======".
+  // Base32String encoding, however, drops the "=" padding.
+  private static final String OUTPUT1 = "MZXW6";
+  private static final String OUTPUT2 = "MZXW6YQ";
+  private static final String OUTPUT3 = "MZXW6YTB";
+  private static final String OUTPUT4 = "MZXW6YTBOI";
+
+
+  private static byte[] string2Bytes(String s) {
+    try {
+      return s.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("UTF-8 encoding is unsupported");
+    }
+  }
+
+  public void testRegressionValuesFromRfc4648() throws DecodingException {
+    // check encoding
+    assertEquals(OUTPUT1, Base32String.encode(INPUT1));
+    assertEquals(OUTPUT2, Base32String.encode(INPUT2));
+    assertEquals(OUTPUT3, Base32String.encode(INPUT3));
+    assertEquals(OUTPUT4, Base32String.encode(INPUT4));
+
+    // check decoding
+    assertArrayEquals(INPUT1, Base32String.decode(OUTPUT1));
+    assertArrayEquals(INPUT2, Base32String.decode(OUTPUT2));
+    assertArrayEquals(INPUT3, Base32String.decode(OUTPUT3));
+    assertArrayEquals(INPUT4, Base32String.decode(OUTPUT4));
+  }
+
+  /**
+   * Base32String implementation is not the same as that of RFC 4648, it drops
+   * the last incomplete chunk and thus accepts encoded strings that should have
+   * been rejected; also this results in multiple encoded strings being decoded
+   * to the same byte array.
+   * This test will catch any changes made regarding this behavior.
+   */
+  public void testAmbiguousDecoding() throws DecodingException {
+    byte[] b16 = Base32String.decode("7777777777777777"); // 16 7s.
+    byte[] b17 = Base32String.decode("77777777777777777"); // 17 7s.
+    assertArrayEquals(b16, b17);
+  }
+
+  // returns true if decoded, else false.
+  private byte[] checkDecoding(String s) {
+    try {
+      return Base32String.decode(s);
+    } catch (DecodingException e) {
+      return null; // decoding failed.
+    }
+  }
+
+  public void testSmallDecodingsAndFailures() {
+    // decoded, but not enough to return any bytes.
+    assertEquals(0, checkDecoding("A").length);
+    assertEquals(0, checkDecoding("").length);
+    assertEquals(0, checkDecoding(" ").length);
+
+    // decoded successfully and returned 1 byte.
+    assertEquals(1, checkDecoding("AA").length);
+    assertEquals(1, checkDecoding("AAA").length);
+
+    // decoded successfully and returned 2 bytes.
+    assertEquals(2, checkDecoding("AAAA").length);
+
+    // acceptable separators " " and "-" which should be ignored
+    assertEquals(2, checkDecoding("AA-AA").length);
+    assertEquals(2, checkDecoding("AA-AA").length);
+    assertArrayEquals(checkDecoding("AA-AA"), checkDecoding("AA AA"));
+    assertArrayEquals(checkDecoding("AAAA"), checkDecoding("AA AA"));
+
+    // 1, 8, 9, 0 are not a valid character, decoding should fail
+    assertNull(checkDecoding("11"));
+    assertNull(checkDecoding("A1"));
+    assertNull(checkDecoding("AAA8"));
+    assertNull(checkDecoding("AAA9"));
+    assertNull(checkDecoding("AAA0"));
+
+    // non-alphanumerics (except =) are not valid characters and decoding should fail
+    assertNull(checkDecoding("AAA,"));
+    assertNull(checkDecoding("AAA;"));
+    assertNull(checkDecoding("AAA."));
+    assertNull(checkDecoding("AAA!"));
+
+    // this just documents that a null string causes a nullpointerexception.
+    try {
+      checkDecoding(null);
+      fail();
+    } catch (NullPointerException e) {
+      // expected.
+    }
+  }
+
+  public void testDecodingIgnoresCasePaddingAndSeparators() throws DecodingException {
+    assertArrayEquals(INPUT4, Base32String.decode("mzxw6ytboi"));
+    assertArrayEquals(INPUT4, Base32String.decode("MZXW6YTBOI======"));
+    assertArrayEquals(INPUT4, Base32String.decode(" \tmzxw-6ytb oi== - \n"));
+    assertNull(checkDecoding("MZXW6=YTBOI"));
+    assertNull(checkDecoding("MZXW6\tYTBOI"));
+    assertNull(checkDecoding("MZXW6\u00c0"));
+  }
+
+  public void testDecodeIntoArray() throws DecodingException {
+    byte[] dest = new byte[10];
+    assertEquals(5, Base32String.decode("mzxw6-ytb==", dest, 2));
+    assertArrayEquals(
+        new byte[] {0, 0, 'f', 'o', 'o', 'b', 'a', 0, 0, 0}, dest);
+    assertEquals(0, Base32String.decode(" ", dest, 0));
+
+    try {
+      Base32String.decode(OUTPUT4, new byte[5], 0);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected.
+    }
+  }
+
+  public void testEncodeBuffers() {
+    ByteBuffer src = ByteBuffer.wrap(INPUT4);
+    CharBuffer dst = CharBuffer.allocate(16);
+    Base32String.encode(src, dst, false);
+    assertEquals(1, src.remaining());
+    assertEquals(OUTPUT3, dst.flip().toString());
+
+    // The last partial group is only encoded once the end of the input is reached, and only if it
+    // fits into the destination
+    dst.limit(dst.capacity());
+    dst.position(dst.capacity() - 1);
+    Base32String.encode(src, dst, true);
+    assertEquals(1, src.remaining());
+    dst.clear();
+    Base32String.encode(src, dst, true);
+    assertEquals(0, src.remaining());
+    assertEquals("OI", dst.flip().toString());
+  }
+
+  public void testDecoderWithChunkedInput() throws DecodingException {
+    String encoded = "mzxw6\nytbo-i======\n";
+    for (int chunkLength = 1; chunkLength <= encoded.length(); chunkLength++) {
+      Base32String.Decoder decoder = Base32String.newDecoder();
+      ByteBuffer dst = ByteBuffer.allocate(INPUT4.length);
+      for (int i = 0; i < encoded.length(); i += chunkLength) {
+        CharBuffer src =
+            CharBuffer.wrap(encoded, i, Math.min(i + chunkLength, encoded.length()));
+        decoder.decode(src, dst);
+        assertFalse(src.hasRemaining());
+      }
+      assertArrayEquals(INPUT4, dst.array());
+    }
+  }
+
+  public void testDecoderStopsWhenDestinationFull() throws DecodingException {
+    Base32String.Decoder decoder = Base32String.newDecoder();
+    CharBuffer src = CharBuffer.wrap(OUTPUT4);
+    ByteBuffer dst = ByteBuffer.allocate(4);
+    decoder.decode(src, dst);
+    assertEquals("BOI", src.toString());
+    assertArrayEquals(string2Bytes("foob"), dst.array());
+
+    dst.clear();
+    decoder.decode(src, dst);
+    assertFalse(src.hasRemaining());
+    assertEquals(2, dst.position());
+  }
+
+  public void testDecoderRejectsDataAfterPadding() {
+    try {
+      Base32String.newDecoder().decode(CharBuffer.wrap("MZXW6=YTBOI"), ByteBuffer.allocate(10));
+      fail();
+    } catch (DecodingException expected) {}
+  }
+
+  public void testStreamsRoundTrip() throws IOException, DecodingException {
+    Random random = new Random(1);
+    for (int length = 0; length < 2100; length += 1 + random.nextInt(97)) {
+      byte[] data = new byte[length];
+      random.nextBytes(data);
+
+      ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+      OutputStream out = new Base32OutputStream(encoded);
+      for (int i = 0; i < length;) {
+        if (random.nextBoolean()) {
+          out.write(data[i++]);
+        } else {
+          int chunkLength = Math.min(length - i, random.nextInt(700));
+          out.write(data, i, chunkLength);
+          i += chunkLength;
+        }
+      }
+      out.close();
+      assertEquals(Base32String.encode(data), encoded.toString("US-ASCII"));
+
+      InputStream in = new Base32InputStream(new ByteArrayInputStream(encoded.toByteArray()));
+      ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1 + random.nextInt(50)];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        decoded.write(buffer, 0, count);
+      }
+      assertArrayEquals(data, decoded.toByteArray());
+      assertEquals(-1, in.read());
+    }
+  }
+
+  public void testInputStreamRejectsMalformedInput() throws IOException {
+    InputStream in = new Base32InputStream(new ByteArrayInputStream(string2Bytes("MZXW6!YTB")));
+    try {
+      in.read(new byte[10]);
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof DecodingException);
+    }
+  }
+}
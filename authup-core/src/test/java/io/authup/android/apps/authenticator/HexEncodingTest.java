@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link HexEncoding}.
+ *
+ * @author klyubin@google.com (Alex Klyubin)
+ */
+public class HexEncodingTest extends TestCase {
+
+  public void testEncodeNull() {
+    try {
+      HexEncoding.encode(null);
+      fail();
+    } catch (NullPointerException expected) {}
+  }
+
+  public void testEncodeEmpty() {
+    assertEquals("", HexEncoding.encode(new byte[0]));
+  }
+
+  public void testEncodeAllDigits() {
+    assertEquals("0123456789abcdef", HexEncoding.encode(
+        new byte[] {0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xab, (byte) 0xcd, (byte) 0xef}));
+  }
+
+  public void testDecodeNull() {
+    try {
+      HexEncoding.decode(null);
+      fail();
+    } catch (NullPointerException expected) {}
+  }
+
+  public void testDecodeEmpty() {
+    assertArrayEquals(new byte[0], HexEncoding.decode(""));
+  }
+
+  public void testDecodeAllDigits() {
+    assertArrayEquals(
+        new byte[] {0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xab, (byte) 0xcd, (byte) 0xef},
+        HexEncoding.decode("0123456789abcdef"));
+  }
+
+  public void testDecodeOddNumberOfDigits() {
+    assertArrayEquals(
+        new byte[] {0x0f, 0x23, 0x45},
+        HexEncoding.decode("f2345"));
+  }
+
+  public void testDecodeOneDigit() {
+    assertArrayEquals(
+        new byte[] {0x03},
+        HexEncoding.decode("3"));
+  }
+
+  public void testDecode_withSpaces() {
+    try {
+      HexEncoding.decode("01 23");
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  public void testDecode_withUpperCaseDigits() {
+    assertArrayEquals(
+        new byte[] {(byte) 0xab, (byte) 0xcd, (byte) 0xef},
+        HexEncoding.decode("ABCDEF"));
+  }
+
+  public void testEncodeBuffers() {
+    byte[] data = new byte[19];
+    new Random(1).nextBytes(data);
+    String expected = HexEncoding.encode(data);
+    for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+      ByteBuffer src = ByteBuffer.wrap(data).order(order);
+      CharBuffer dst = CharBuffer.allocate(expected.length() - 1);
+      HexEncoding.encode(src, dst);
+      assertEquals(1, src.remaining());
+      assertEquals(1, dst.remaining());
+      assertEquals(expected.substring(0, expected.length() - 2), dst.flip().toString());
+    }
+  }
+
+  public void testDecodeBuffers() {
+    byte[] data = new byte[19];
+    new Random(1).nextBytes(data);
+    String encoded = HexEncoding.encode(data).toUpperCase() + "a";
+    for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+      CharBuffer src = CharBuffer.wrap(encoded);
+      ByteBuffer dst = ByteBuffer.allocate(data.length).order(order);
+      HexEncoding.decode(src, dst);
+      // The trailing odd digit is left for a later call
+      assertEquals("a", src.toString());
+      assertArrayEquals(data, dst.array());
+    }
+  }
+
+  public void testDecodeBuffers_withInvalidDigit() {
+    try {
+      HexEncoding.decode(CharBuffer.wrap("0123456789abcdeg"), ByteBuffer.allocate(8));
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  public void testStreamsRoundTrip() throws IOException {
+    Random random = new Random(1);
+    for (int length = 0; length < 2100; length += 1 + random.nextInt(97)) {
+      byte[] data = new byte[length];
+      random.nextBytes(data);
+
+      ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+      OutputStream out = new HexOutputStream(encoded);
+      for (int i = 0; i < length;) {
+        if (random.nextBoolean()) {
+          out.write(data[i++]);
+        } else {
+          int chunkLength = Math.min(length - i, random.nextInt(700));
+          out.write(data, i, chunkLength);
+          i += chunkLength;
+        }
+      }
+      out.close();
+      assertEquals(HexEncoding.encode(data), encoded.toString("US-ASCII"));
+
+      InputStream in = new HexInputStream(new ByteArrayInputStream(encoded.toByteArray()));
+      ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1 + random.nextInt(50)];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        decoded.write(buffer, 0, count);
+      }
+      assertArrayEquals(data, decoded.toByteArray());
+    }
+  }
+
+  public void testInputStream_withOddNumberOfDigits() throws IOException {
+    InputStream in = new HexInputStream(new ByteArrayInputStream(new byte[] {'a', 'b', 'c'}));
+    assertEquals(0xab, in.read());
+    try {
+      in.read();
+      fail();
+    } catch (IOException expected) {}
+  }
+}
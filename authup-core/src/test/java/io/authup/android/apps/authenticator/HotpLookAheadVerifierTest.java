@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import io.authup.android.apps.authenticator.PasscodeGenerator.Signer;
+
+import junit.framework.TestCase;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Unit tests for {@link HotpLookAheadVerifier}.
+ */
+public class HotpLookAheadVerifierTest extends TestCase {
+
+  private PasscodeGenerator mGenerator;
+  private PasscodeGenerator mReferenceGenerator;
+  private int mSignatureCount;
+  private HotpLookAheadVerifier mVerifier;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    final Mac mac = Mac.getInstance("HMACSHA1");
+    mac.init(new SecretKeySpec(Base32String.decode("7777777777777777"), ""));
+    mGenerator = new PasscodeGenerator(new Signer() {
+      @Override
+      public byte[] sign(byte[] data) throws GeneralSecurityException {
+        mSignatureCount++;
+        return mac.doFinal(data);
+      }
+    });
+    mReferenceGenerator = new PasscodeGenerator(Signers.forSecret("7777777777777777"));
+    mVerifier = new HotpLookAheadVerifier(100);
+  }
+
+  public void testFindCounter() throws Exception {
+    assertEquals(1, mVerifier.findCounter("maryweiss@yahoo.com", mGenerator, 0, 683298));
+    assertEquals(2, mVerifier.findCounter("maryweiss@yahoo.com", mGenerator, 0, 891123));
+    assertEquals(100, mVerifier.findCounter(
+        "maryweiss@yahoo.com", mGenerator, 0, mReferenceGenerator.generateCode(100)));
+    assertEquals(HotpLookAheadVerifier.NO_MATCH, mVerifier.findCounter(
+        "maryweiss@yahoo.com", mGenerator, 0, mReferenceGenerator.generateCode(101)));
+    assertEquals(HotpLookAheadVerifier.NO_MATCH,
+        mVerifier.findCounter("maryweiss@yahoo.com", mGenerator, 0, -1));
+  }
+
+  public void testWindowComputedOnce() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      mVerifier.findCounter("maryweiss@yahoo.com", mGenerator, 0, i);
+    }
+    assertEquals(101, mSignatureCount);
+  }
+
+  public void testWindowAdvancesIncrementally() throws Exception {
+    mVerifier.findCounter("maryweiss@yahoo.com", mGenerator, 0, 0);
+    mSignatureCount = 0;
+
+    // Counter moved past the code accepted for counter value 2
+    assertEquals(HotpLookAheadVerifier.NO_MATCH,
+        mVerifier.findCounter("maryweiss@yahoo.com", mGenerator, 3, 891123));
+    assertEquals(3, mSignatureCount);
+    assertEquals(103, mVerifier.findCounter(
+        "maryweiss@yahoo.com", mGenerator, 3, mReferenceGenerator.generateCode(103)));
+    assertEquals(3, mSignatureCount);
+
+    // Window recomputed when the counter jumps by more than the look-ahead
+    assertEquals(500, mVerifier.findCounter(
+        "maryweiss@yahoo.com", mGenerator, 500, mReferenceGenerator.generateCode(500)));
+    assertEquals(104, mSignatureCount);
+  }
+
+  public void testWindowRecomputedForNewGenerator() throws Exception {
+    mVerifier.findCounter("maryweiss@yahoo.com", mGenerator, 0, 0);
+    PasscodeGenerator otherGenerator = new PasscodeGenerator(
+        Signers.forSecret("2222222222222222"));
+    assertEquals(5, mVerifier.findCounter(
+        "maryweiss@yahoo.com", otherGenerator, 0, otherGenerator.generateCode(5)));
+  }
+
+  public void testEarliestCounterReturnedForCollidingCodes() throws Exception {
+    // Two-digit codes collide within a window of 101 counter values
+    PasscodeGenerator generator = new PasscodeGenerator(
+        Signers.forSecret("7777777777777777"), 2);
+    for (long counter = 0; counter < 300; counter += 7) {
+      for (int code = 0; code < 100; code++) {
+        long expected = HotpLookAheadVerifier.NO_MATCH;
+        for (long candidate = counter; candidate <= counter + 100; candidate++) {
+          if (generator.generateCode(candidate) == code) {
+            expected = candidate;
+            break;
+          }
+        }
+        assertEquals(expected,
+            mVerifier.findCounter("maryweiss@yahoo.com", generator, counter, code));
+      }
+    }
+  }
+}
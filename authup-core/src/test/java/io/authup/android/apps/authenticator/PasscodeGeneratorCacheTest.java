@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import junit.framework.TestCase;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit tests for {@link PasscodeGeneratorCache}.
+ */
+public class PasscodeGeneratorCacheTest extends TestCase {
+  private static final String SECRET = "7777777777777777"; // 16 sevens
+  private static final String SECRET2 = "2222222222222222"; // 16 twos
+
+  private PasscodeGeneratorCache mCache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mCache = new PasscodeGeneratorCache(2);
+  }
+
+  public void testGeneratorReusedForSameAccountAndSecret() throws Exception {
+    PasscodeGenerator generator = mCache.get("johndoe@gmail.com", SECRET, 6);
+    assertEquals("683298", generator.generateResponseCode(1));
+    assertSame(generator, mCache.get("johndoe@gmail.com", SECRET, 6));
+    assertEquals(1, mCache.size());
+  }
+
+  public void testGeneratorPerCodeLength() throws Exception {
+    PasscodeGenerator generator = mCache.get("johndoe@gmail.com", SECRET, 6);
+    PasscodeGenerator reflectiveGenerator = mCache.get("johndoe@gmail.com", SECRET, 9);
+    assertNotSame(generator, reflectiveGenerator);
+    assertEquals(9, reflectiveGenerator.getCodeLength());
+    assertSame(reflectiveGenerator, mCache.get("johndoe@gmail.com", SECRET, 9));
+  }
+
+  public void testGeneratorsOfDifferentLengthsUsableConcurrently() throws Exception {
+    final PasscodeGenerator generator = mCache.get("johndoe@gmail.com", SECRET, 6);
+    final PasscodeGenerator reflectiveGenerator = mCache.get("johndoe@gmail.com", SECRET, 9);
+    final String code = generator.generateResponseCode(1);
+    final String reflectiveCode = reflectiveGenerator.generateChallengeResponseCode(1, "challenge");
+    final AtomicReference<String> failure = new AtomicReference<String>();
+
+    // Like OtpProvider, each thread only locks the generator it uses
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; (i < 20000) && (failure.get() == null); i++) {
+            synchronized (reflectiveGenerator) {
+              String actual = reflectiveGenerator.generateChallengeResponseCode(1, "challenge");
+              if (!reflectiveCode.equals(actual)) {
+                failure.set(actual);
+              }
+            }
+          }
+        } catch (GeneralSecurityException e) {
+          failure.set(e.toString());
+        }
+      }
+    };
+    thread.start();
+    for (int i = 0; (i < 20000) && (failure.get() == null); i++) {
+      synchronized (generator) {
+        assertEquals(code, generator.generateResponseCode(1));
+      }
+    }
+    thread.join();
+    assertNull(failure.get());
+  }
+
+  public void testChangedSecretReplacesGenerator() throws Exception {
+    PasscodeGenerator generator = mCache.get("johndoe@gmail.com", SECRET, 6);
+    PasscodeGenerator generator2 = mCache.get("johndoe@gmail.com", SECRET2, 6);
+    assertNotSame(generator, generator2);
+    assertFalse(generator.generateResponseCode(1).equals(generator2.generateResponseCode(1)));
+  }
+
+  public void testInvalidate() {
+    PasscodeGenerator generator = mCache.get("johndoe@gmail.com", SECRET, 6);
+    mCache.get("maryweiss@yahoo.com", SECRET, 6);
+    mCache.invalidate("johndoe@gmail.com");
+    assertEquals(1, mCache.size());
+    assertNotSame(generator, mCache.get("johndoe@gmail.com", SECRET, 6));
+
+    mCache.invalidateAll();
+    assertEquals(0, mCache.size());
+  }
+
+  public void testLeastRecentlyUsedEvicted() {
+    PasscodeGenerator generator = mCache.get("johndoe@gmail.com", SECRET, 6);
+    PasscodeGenerator generator2 = mCache.get("maryweiss@yahoo.com", SECRET, 6);
+    mCache.get("johndoe@gmail.com", SECRET, 6);
+    mCache.get("amywinehouse@aol.com", SECRET2, 6);
+    assertEquals(2, mCache.size());
+    assertSame(generator, mCache.get("johndoe@gmail.com", SECRET, 6));
+    assertNotSame(generator2, mCache.get("maryweiss@yahoo.com", SECRET, 6));
+  }
+
+  public void testInvalidSecret() {
+    assertNull(mCache.get("johndoe@gmail.com", "1111", 6));
+    assertEquals(0, mCache.size());
+  }
+}
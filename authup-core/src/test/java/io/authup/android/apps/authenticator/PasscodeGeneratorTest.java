@@ -0,0 +1,285 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import io.authup.android.apps.authenticator.PasscodeGenerator.Signer;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link PasscodeGenerator}
+ * @author sarvar@google.com (Sarvar )
+ */
+public class PasscodeGeneratorTest extends TestCase {
+
+  private byte[] KEYBYTES1;
+  private byte[] KEYBYTES2;
+  private Mac mac1;
+  private Mac mac2;
+  private PasscodeGenerator passcodeGenerator1;
+  private PasscodeGenerator passcodeGenerator2;
+  private Signer signer;
+
+  @Override
+  public void setUp() throws Exception {
+    KEYBYTES1 = Base32String.decode("7777777777777777");
+    KEYBYTES2 = Base32String.decode("22222222222222222");
+    mac1 = Mac.getInstance("HMACSHA1");
+    mac1.init(new SecretKeySpec(KEYBYTES1, ""));
+    mac2 = Mac.getInstance("HMACSHA1");
+    mac2.init(new SecretKeySpec(KEYBYTES2, ""));
+    passcodeGenerator1 = new PasscodeGenerator(mac1);
+    passcodeGenerator2 = new PasscodeGenerator(mac2);
+    signer = Signers.forSecret("7777777777777777");
+  }
+
+  public void testGenerateResponseCodeLong() throws Exception {
+    // test with long
+    String response1Long = passcodeGenerator1.generateResponseCode(123456789123456789L);
+    assertTrue(passcodeGenerator1.verifyResponseCode(123456789123456789L, response1Long));
+    assertFalse(passcodeGenerator1.verifyResponseCode(123456789123456789L, "boguscode"));
+    // test with (long, null), response code should be same as with just long
+    String response1LongNull = passcodeGenerator1.generateResponseCode(123456789123456789L, null);
+    assertEquals(response1Long, response1LongNull);
+    // test with byte[] using base32 encoded representation of byte array created from 0L
+    String response1ByteArray =
+        passcodeGenerator1.generateResponseCode(Base32String.decode("AG3JWS5M2BPRK"));
+    assertEquals(response1Long, response1ByteArray);
+
+    // test Long with another key bytes.
+    String response2Long = passcodeGenerator2.generateResponseCode(123456789123456789L);
+    assertTrue(passcodeGenerator2.verifyResponseCode(123456789123456789L, response2Long));
+  }
+
+  public void testRegressionGenerateResponseCode() throws Exception {
+    // test with long
+    assertEquals("724477", passcodeGenerator1.generateResponseCode(0L));
+    assertEquals("815107", passcodeGenerator1.generateResponseCode(123456789123456789L));
+    // test with byte[] for 0L and then for 123456789123456789L
+    assertEquals("724477",
+        passcodeGenerator1.generateResponseCode(Base32String.decode("AAAAAAAAAAAAA")));
+    assertEquals("815107",
+        passcodeGenerator1.generateResponseCode(Base32String.decode("AG3JWS5M2BPRK")));
+    // test with long and byte[]
+
+    assertEquals("498157", passcodeGenerator1.generateResponseCode(
+        123456789123456789L, "challenge".getBytes("UTF-8")));
+  }
+
+  public void testGenerateCode() throws Exception {
+    assertEquals(724477, passcodeGenerator1.generateCode(0L));
+    assertEquals(815107, passcodeGenerator1.generateCode(123456789123456789L));
+    assertEquals(83501, passcodeGenerator1.generateCode(1233));
+    assertEquals(6, passcodeGenerator1.getCodeLength());
+
+    // Leading zeros are preserved when writing into a char array at an offset
+    char[] digits = new char[8];
+    assertEquals(6, passcodeGenerator1.generateCode(1233, digits, 1));
+    assertEquals("083501", new String(digits, 1, 6));
+
+    StringBuilder builder = new StringBuilder("code:");
+    passcodeGenerator1.generateCode(1233, builder);
+    assertEquals("code:083501", builder.toString());
+  }
+
+  public void testGenerateCodes() throws Exception {
+    Sha1HmacBatchSigner batchSigner =
+        new Sha1HmacBatchSigner(new byte[][] {KEYBYTES1, KEYBYTES2, KEYBYTES1});
+    int[] codes = new int[3];
+    for (int codeLength = 6; codeLength <= 9; codeLength++) {
+      PasscodeGenerator generator1 = new PasscodeGenerator(mac1, codeLength);
+      PasscodeGenerator generator2 = new PasscodeGenerator(mac2, codeLength);
+      for (long state = 0; state < 50; state++) {
+        PasscodeGenerator.generateCodes(state, batchSigner, codeLength, codes);
+        assertEquals(generator1.generateCode(state), codes[0]);
+        assertEquals(generator2.generateCode(state), codes[1]);
+        assertEquals(codes[0], codes[2]);
+      }
+    }
+  }
+
+  public void testGenerateChallengeCode() throws Exception {
+    assertEquals("498157", passcodeGenerator1.generateChallengeResponseCode(
+        123456789123456789L, ByteBuffer.wrap("challenge".getBytes("UTF-8"))));
+    assertEquals("498157",
+        passcodeGenerator1.generateChallengeResponseCode(123456789123456789L, "challenge"));
+
+    Signer plainSigner = new Signer() {
+      @Override
+      public byte[] sign(byte[] data) throws GeneralSecurityException {
+        return mac1.doFinal(data);
+      }
+    };
+    PasscodeGenerator[] generators = {
+        new PasscodeGenerator(mac1, 9),
+        new PasscodeGenerator(new Sha1HmacSigner(KEYBYTES1), 9),
+        new PasscodeGenerator(new PrecomputedHmacSigner(KEYBYTES1), 9),
+        new PasscodeGenerator(plainSigner, 9)};
+    Random random = new Random(0);
+    for (int challengeLength = 0; challengeLength <= 5000; challengeLength += 499) {
+      byte[] challenge = new byte[challengeLength];
+      random.nextBytes(challenge);
+      long state = random.nextLong();
+      int expected = generators[0].generateCode(
+          ByteBuffer.allocate(8 + challengeLength).putLong(state).put(challenge).array());
+      for (PasscodeGenerator generator : generators) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(challengeLength);
+        buffer.put(challenge).flip();
+        assertEquals(expected, generator.generateChallengeCode(state, buffer));
+        assertEquals(0, buffer.remaining());
+        assertEquals(expected, generator.generateChallengeCode(state, ByteBuffer.wrap(challenge)));
+      }
+    }
+  }
+
+  public void testGenerateChallengeCodeFromCharacters() throws Exception {
+    // Long enough to be encoded in several chunks, with multi-byte characters across chunk
+    // boundaries and an unpaired surrogate.
+    StringBuilder challenge = new StringBuilder();
+    for (int i = 0; i < 700; i++) {
+      challenge.append("Pay \u20ac").append(i).append(" to \ud83d\ude00 ");
+    }
+    challenge.append('\ud83d');
+    PasscodeGenerator[] generators = {
+        new PasscodeGenerator(mac1, 9),
+        new PasscodeGenerator(new Sha1HmacSigner(KEYBYTES1), 9),
+        new PasscodeGenerator(signer, 9)};
+    for (int length : new int[] {0, 1, 100, challenge.length()}) {
+      String expected = generators[0].generateResponseCode(
+          42, challenge.substring(0, length).getBytes("UTF-8"));
+      for (PasscodeGenerator generator : generators) {
+        assertEquals(expected,
+            generator.generateChallengeResponseCode(42, challenge.subSequence(0, length)));
+      }
+    }
+  }
+
+  public void testGenerateChallengeCodes() throws Exception {
+    String[] challenges = {"a", "", "transaction 1", "transaction 2"};
+    ByteBuffer[] challengeBuffers = new ByteBuffer[challenges.length];
+    for (int i = 0; i < challenges.length; i++) {
+      challengeBuffers[i] = ByteBuffer.wrap(challenges[i].getBytes("UTF-8"));
+    }
+    int[] codes = new int[challenges.length];
+    int[] bufferCodes = new int[challenges.length];
+    passcodeGenerator1.generateChallengeCodes(7, challenges, codes);
+    passcodeGenerator1.generateChallengeCodes(7, challengeBuffers, bufferCodes);
+    for (int i = 0; i < challenges.length; i++) {
+      assertEquals(passcodeGenerator1.generateChallengeCode(7, challenges[i]), codes[i]);
+    }
+    assertArrayEquals(codes, bufferCodes);
+    assertFalse(codes[2] == codes[3]);
+  }
+
+  public void testVerifyTimeoutCode() throws Exception {
+    /*      currentInterval is 1234 in this test.
+     *      timeInterval, timeoutCode values around 1234.
+     *              1231, 422609
+     *              1232, 628381
+     *              1233, 083501
+     *              1234, 607007
+     *              1235, 972746
+     *              1236, 706552
+     *              1237, 342936
+     */
+    // verify code and plus one interval and minus one interval timeout codes.
+    assertTrue(passcodeGenerator1.verifyTimeoutCode(1234, "607007"));
+    assertTrue(passcodeGenerator1.verifyTimeoutCode(1234, "972746")); // plus one
+    assertTrue(passcodeGenerator1.verifyTimeoutCode(1234, "083501")); // minus one
+    assertFalse(passcodeGenerator1.verifyTimeoutCode(1234, "628381")); // fail for minus two
+
+    // verify timeout with custom window of +/- 2 intervals
+    assertTrue(passcodeGenerator1.verifyTimeoutCode("607007", 1234, 2, 2));
+    assertTrue(passcodeGenerator1.verifyTimeoutCode("972746", 1234, 2, 2)); // plus one
+    assertTrue(passcodeGenerator1.verifyTimeoutCode("706552", 1234, 2, 2)); // plus two
+    assertTrue(passcodeGenerator1.verifyTimeoutCode("083501", 1234, 2, 2)); // minus one
+    assertTrue(passcodeGenerator1.verifyTimeoutCode("628381", 1234, 2, 2)); // minus two
+    assertFalse(passcodeGenerator1.verifyTimeoutCode("000000", 1234, 2, 2)); // fail for wrong code
+    assertFalse(passcodeGenerator1.verifyTimeoutCode("342936", 1234, 2, 2)); // fail for plus three
+    // verify timeout with custom window of +1 and -2 intervals
+    assertTrue(passcodeGenerator1.verifyTimeoutCode("607007", 1234, 1, 2));
+    assertTrue(passcodeGenerator1.verifyTimeoutCode("972746", 1234, 1, 2)); // plus one
+    assertTrue(passcodeGenerator1.verifyTimeoutCode("083501", 1234, 1, 2)); // minus one
+    assertTrue(passcodeGenerator1.verifyTimeoutCode("628381", 1234, 1, 2)); // minus two
+    assertFalse(passcodeGenerator1.verifyTimeoutCode("706552", 1234, 1, 2)); // fail for plus two
+    assertFalse(passcodeGenerator1.verifyTimeoutCode("342936", 1234, 1, 2)); // fail for plus three
+    assertFalse(passcodeGenerator1.verifyTimeoutCode("000000", 1234, 1, 2)); // fail for wrong code
+    // verify timeout with custom window of 0 and -0 intervals
+    assertTrue(passcodeGenerator1.verifyTimeoutCode("607007", 1234, 0, 0)); // pass for current
+    assertFalse(passcodeGenerator1.verifyTimeoutCode("972746", 1234, 0, 0)); // fail for plus one
+    assertFalse(passcodeGenerator1.verifyTimeoutCode("083501", 1234, 0, 0)); // fail for minus one
+  }
+
+  public void testFindTimeoutCodeOffset() throws Exception {
+    // See testVerifyTimeoutCode for the codes around interval 1234
+    assertEquals(0, passcodeGenerator1.findTimeoutCodeOffset(607007, 1234, 1, 1));
+    assertEquals(1, passcodeGenerator1.findTimeoutCodeOffset(972746, 1234, 1, 1));
+    assertEquals(-1, passcodeGenerator1.findTimeoutCodeOffset(83501, 1234, 1, 1));
+    assertEquals(PasscodeGenerator.NO_MATCH,
+        passcodeGenerator1.findTimeoutCodeOffset(628381, 1234, 1, 1));
+    assertEquals(-2, passcodeGenerator1.findTimeoutCodeOffset(628381, 1234, 2, 0));
+    assertEquals(3, passcodeGenerator1.findTimeoutCodeOffset(342936, 1234, 0, 3));
+    assertEquals(PasscodeGenerator.NO_MATCH,
+        passcodeGenerator1.findTimeoutCodeOffset(342936, 1234, 3, 2));
+    assertEquals(PasscodeGenerator.NO_MATCH,
+        passcodeGenerator1.findTimeoutCodeOffset(0, 1234, 3, 3));
+    // Negative window sizes are treated as zero
+    assertEquals(0, passcodeGenerator1.findTimeoutCodeOffset(607007, 1234, -1, -1));
+  }
+
+  public void testSelectFirstMatch() throws Exception {
+    int[] candidates = {5, 7, 0, 7, -1};
+    int[] expected = {PasscodeGenerator.NO_MATCH, -2, 0, -1, 2};
+    int[] codes = {3, 5, 0, 7, -1};
+    for (int i = 0; i < codes.length; i++) {
+      int matchedOffset = PasscodeGenerator.NO_MATCH;
+      for (int j = 0; j < candidates.length; j++) {
+        matchedOffset =
+            PasscodeGenerator.selectFirstMatch(matchedOffset, candidates[j], codes[i], j - 2);
+      }
+      assertEquals(expected[i], matchedOffset);
+    }
+  }
+
+  public void testVerifyResponseCodeRejectsMalformedCodes() throws Exception {
+    assertTrue(passcodeGenerator1.verifyResponseCode(0L, "724477"));
+    assertTrue(passcodeGenerator1.verifyResponseCode(0L, 724477));
+    assertFalse(passcodeGenerator1.verifyResponseCode(0L, "0724477"));
+    assertFalse(passcodeGenerator1.verifyResponseCode(0L, "72447"));
+    assertFalse(passcodeGenerator1.verifyResponseCode(0L, "+72447"));
+    assertFalse(passcodeGenerator1.verifyResponseCode(0L, (String) null));
+    assertFalse(passcodeGenerator1.verifyTimeoutCode(1233, "83501"));
+  }
+
+  public void testMacAndSignEquivalence() throws Exception {
+    String codeFromMac = passcodeGenerator1.generateResponseCode(0L);
+    String codeFromSigning = new PasscodeGenerator(signer, 6).generateResponseCode(0L);
+    assertEquals(codeFromMac, codeFromSigning);
+
+    String codeFromSigning2 = new PasscodeGenerator(signer, 6).generateResponseCode(1L);
+    assertFalse(codeFromSigning.equals(codeFromSigning2));
+  }
+}
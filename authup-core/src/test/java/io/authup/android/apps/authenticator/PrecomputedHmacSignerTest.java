@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link PrecomputedHmacSigner}.
+ */
+public class PrecomputedHmacSignerTest extends TestCase {
+
+  public void testRfc2202Vectors() throws Exception {
+    assertEquals("b617318655057264e28bc0b6fb378c8ef146be00", sign(repeat(0x0b, 20), "Hi There"));
+    assertEquals("effcdf6ae5eb2fa2d27416d5f184df9c259a7c79",
+        sign("Jefe".getBytes("US-ASCII"), "what do ya want for nothing?"));
+    // Key longer than the block size
+    assertEquals("aa4ae5e15272d00e95705637ce8a3b55ed402112",
+        sign(repeat(0xaa, 80), "Test Using Larger Than Block-Size Key - Hash Key First"));
+  }
+
+  public void testMatchesMac() throws Exception {
+    Random random = new Random(0);
+    for (int keyLength = 1; keyLength <= 100; keyLength += 11) {
+      byte[] key = new byte[keyLength];
+      random.nextBytes(key);
+      Mac mac = Mac.getInstance("HMACSHA1");
+      mac.init(new SecretKeySpec(key, ""));
+      PrecomputedHmacSigner signer = new PrecomputedHmacSigner(key);
+      for (int dataLength = 0; dataLength <= 130; dataLength += 13) {
+        byte[] data = new byte[dataLength];
+        random.nextBytes(data);
+        // Sign twice to check that the precomputed state is not modified by signing
+        assertArrayEquals(mac.doFinal(data), signer.sign(data));
+        assertArrayEquals(mac.doFinal(data), signer.sign(data));
+      }
+    }
+  }
+
+  private static String sign(byte[] key, String message) throws Exception {
+    return HexEncoding.encode(new PrecomputedHmacSigner(key).sign(message.getBytes("US-ASCII")));
+  }
+
+  private static byte[] repeat(int value, int count) {
+    byte[] result = new byte[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = (byte) value;
+    }
+    return result;
+  }
+}
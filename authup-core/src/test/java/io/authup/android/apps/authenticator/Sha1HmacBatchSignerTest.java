@@ -0,0 +1,60 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link Sha1HmacBatchSigner}.
+ */
+public class Sha1HmacBatchSignerTest extends TestCase {
+
+  public void testMatchesSha1HmacSigner() throws Exception {
+    Random random = new Random(0);
+    int[] keyCounts = {0, 1, Sha1HmacBatchSigner.LANES - 1, Sha1HmacBatchSigner.LANES,
+        Sha1HmacBatchSigner.LANES * 2 + 3};
+    for (int keyCount : keyCounts) {
+      byte[][] keys = new byte[keyCount][];
+      for (int i = 0; i < keyCount; i++) {
+        // Includes keys longer than the block size
+        keys[i] = new byte[1 + random.nextInt(100)];
+        random.nextBytes(keys[i]);
+      }
+      Sha1HmacBatchSigner batchSigner = new Sha1HmacBatchSigner(keys);
+      assertEquals(keyCount, batchSigner.size());
+
+      int[] signatures = new int[keyCount * 5];
+      byte[] expected = new byte[20];
+      for (int j = 0; j < 3; j++) {
+        long state = random.nextLong();
+        batchSigner.sign(state, signatures);
+        for (int i = 0; i < keyCount; i++) {
+          new Sha1HmacSigner(keys[i]).sign(state, expected);
+          for (int word = 0; word < 5; word++) {
+            int expectedWord = ((expected[word * 4] & 0xff) << 24)
+                | ((expected[word * 4 + 1] & 0xff) << 16)
+                | ((expected[word * 4 + 2] & 0xff) << 8)
+                | (expected[word * 4 + 3] & 0xff);
+            assertEquals(expectedWord, signatures[i * 5 + word]);
+          }
+        }
+      }
+    }
+  }
+}
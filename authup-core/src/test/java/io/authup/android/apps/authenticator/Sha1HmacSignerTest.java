@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link Sha1HmacSigner}.
+ */
+public class Sha1HmacSignerTest extends TestCase {
+
+  public void testRfc2202Vectors() throws Exception {
+    assertEquals("b617318655057264e28bc0b6fb378c8ef146be00", sign(repeat(0x0b, 20), "Hi There"));
+    assertEquals("effcdf6ae5eb2fa2d27416d5f184df9c259a7c79",
+        sign("Jefe".getBytes("US-ASCII"), "what do ya want for nothing?"));
+    // Key longer than the block size
+    assertEquals("aa4ae5e15272d00e95705637ce8a3b55ed402112",
+        sign(repeat(0xaa, 80), "Test Using Larger Than Block-Size Key - Hash Key First"));
+    // Key and data longer than the block size
+    assertEquals("e8e99d0f45237d786d6bbaa7965c7808bbff1a91", sign(repeat(0xaa, 80),
+        "Test Using Larger Than Block-Size Key and Larger Than One Block-Size Data"));
+  }
+
+  public void testMatchesMac() throws Exception {
+    Random random = new Random(0);
+    for (int keyLength = 1; keyLength <= 130; keyLength += 13) {
+      byte[] key = new byte[keyLength];
+      random.nextBytes(key);
+      Mac mac = Mac.getInstance("HMACSHA1");
+      mac.init(new SecretKeySpec(key, ""));
+      Sha1HmacSigner signer = new Sha1HmacSigner(key);
+      // Covers the lengths for which the padding does and does not fit into the last block
+      for (int dataLength = 0; dataLength <= 200; dataLength++) {
+        byte[] data = new byte[dataLength];
+        random.nextBytes(data);
+        // Sign twice to check that the precomputed state is not modified by signing
+        assertArrayEquals(mac.doFinal(data), signer.sign(data));
+        assertArrayEquals(mac.doFinal(data), signer.sign(data));
+      }
+    }
+  }
+
+  public void testSignState() throws Exception {
+    Random random = new Random(0);
+    byte[] key = new byte[20];
+    random.nextBytes(key);
+    Sha1HmacSigner signer = new Sha1HmacSigner(key);
+    assertEquals(20, signer.getSignatureLength());
+    byte[] signature = new byte[20];
+    for (int i = 0; i < 100; i++) {
+      long state = (i < 2) ? i - 1 : random.nextLong();
+      byte[] stateBytes = ByteBuffer.allocate(8).putLong(state).array();
+      signer.sign(state, signature);
+      assertArrayEquals(signer.sign(stateBytes), signature);
+    }
+  }
+
+  public void testUpdateInParts() throws Exception {
+    Random random = new Random(0);
+    byte[] key = new byte[20];
+    random.nextBytes(key);
+    Sha1HmacSigner signer = new Sha1HmacSigner(key);
+    byte[] signature = new byte[20];
+    for (int dataLength = 0; dataLength <= 300; dataLength += 7) {
+      byte[] data = new byte[dataLength];
+      random.nextBytes(data);
+      // Parts of varying sizes, from heap and direct buffers
+      int offset = 0;
+      for (int part = 0; offset < dataLength; part++) {
+        int length = Math.min(random.nextInt(100), dataLength - offset);
+        ByteBuffer input;
+        if ((part & 1) == 0) {
+          input = ByteBuffer.wrap(data, offset, length).slice();
+        } else {
+          input = ByteBuffer.allocateDirect(length);
+          input.put(data, offset, length).flip();
+        }
+        signer.update(input);
+        assertEquals(0, input.remaining());
+        offset += length;
+      }
+      signer.doFinal(signature);
+      assertArrayEquals(signer.sign(data), signature);
+    }
+  }
+
+  private static String sign(byte[] key, String message) throws Exception {
+    return HexEncoding.encode(new Sha1HmacSigner(key).sign(message.getBytes("US-ASCII")));
+  }
+
+  private static byte[] repeat(int value, int count) {
+    byte[] result = new byte[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = (byte) value;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.authup.android.apps.authenticator;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import io.authup.android.apps.authenticator.PasscodeGenerator.Signer;
+
+import java.security.GeneralSecurityException;
+import java.security.NoSuchProviderException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link Signers}.
+ */
+public class SignersTest extends TestCase {
+
+  public void testAvailableFactoriesMatchMac() throws Exception {
+    Random random = new Random(0);
+    for (SignerFactory factory : Signers.FACTORIES) {
+      Signer signer;
+      byte[] key = new byte[20];
+      random.nextBytes(key);
+      try {
+        signer = factory.createSigner(key);
+      } catch (NoSuchProviderException e) {
+        continue;
+      }
+      Signer mac = Signers.forKeyUsingMac(key);
+      for (int dataLength = 0; dataLength <= 70; dataLength += 7) {
+        byte[] data = new byte[dataLength];
+        random.nextBytes(data);
+        assertArrayEquals(factory.getName(), mac.sign(data), signer.sign(data));
+      }
+    }
+  }
+
+  public void testCalibrateSelectsFastestCorrectFactory() {
+    SignerFactory slow = new DelayingSignerFactory("slow", Signers.JAVA, 1000000);
+    Signers.Calibration calibration =
+        Signers.calibrate(Arrays.asList(slow, Signers.JAVA, new BrokenSignerFactory()));
+    assertSame(Signers.JAVA, calibration.getSelectedFactory());
+    assertEquals(Arrays.asList("slow", "java", "broken"),
+        new ArrayList<String>(calibration.getNanosPerCode().keySet()));
+    assertTrue(calibration.getNanosPerCode().get("slow")
+        > calibration.getNanosPerCode().get("java"));
+    assertEquals(Signers.Calibration.UNAVAILABLE,
+        calibration.getNanosPerCode().get("broken").longValue());
+    assertTrue(calibration.toString(), calibration.toString().startsWith("java ("));
+  }
+
+  public void testCalibrateIgnoresStallOfFastestFactory() {
+    // A pause of 1 ms per signature for 50 signatures in the middle of the measurements of the
+    // fastest backend, as if the process was descheduled, must not get a slower backend selected.
+    SignerFactory stalled = new StallingSignerFactory("stalled", Signers.JAVA, 400, 50, 1000000);
+    SignerFactory slow = new DelayingSignerFactory("slow", Signers.JAVA, 20000);
+    Signers.Calibration calibration = Signers.calibrate(Arrays.asList(stalled, slow));
+    assertSame(calibration.toString(), stalled, calibration.getSelectedFactory());
+  }
+
+  public void testCalibrateSkipsUnavailableFactory() {
+    Signers.Calibration calibration = Signers.calibrate(
+        Arrays.<SignerFactory>asList(new UnavailableSignerFactory(), Signers.JCE_DIGEST));
+    assertSame(Signers.JCE_DIGEST, calibration.getSelectedFactory());
+    assertEquals(Signers.Calibration.UNAVAILABLE,
+        calibration.getNanosPerCode().get("unavailable").longValue());
+    assertTrue(calibration.toString(), calibration.toString().endsWith("unavailable: unavailable"));
+  }
+
+  public void testCalibrateFallsBackToJavaWhenNothingWorks() {
+    Signers.Calibration calibration =
+        Signers.calibrate(new ArrayList<SignerFactory>(Arrays.<SignerFactory>asList(
+            new BrokenSignerFactory(), new UnavailableSignerFactory())));
+    assertSame(Signers.JAVA, calibration.getSelectedFactory());
+  }
+
+  public void testCalibrateIsDoneOnce() {
+    assertSame(Signers.calibrate(), Signers.calibrate());
+    assertTrue(Signers.FACTORIES.contains(Signers.calibrate().getSelectedFactory()));
+  }
+
+  public void testForKey() throws Exception {
+    byte[] key = "12345678901234567890".getBytes("US-ASCII");
+    PasscodeGenerator generator = new PasscodeGenerator(Signers.forKey(key));
+    assertEquals(755224, generator.generateCode(0));
+    assertEquals(520489, generator.generateCode(9));
+    assertEquals("94287082", new PasscodeGenerator(Signers.forKey(key), 8).generateResponseCode(
+        59 / PasscodeGenerator.INTERVAL));
+  }
+
+  public void testForKeyWithEmptyKey() throws Exception {
+    assertArrayEquals(
+        new Sha1HmacSigner(new byte[0]).sign(new byte[8]),
+        Signers.forKey(new byte[0]).sign(new byte[8]));
+  }
+
+  /** Factory wrapping another one and spinning after each signature. */
+  private static class DelayingSignerFactory implements SignerFactory {
+    private final String mName;
+    private final SignerFactory mDelegate;
+    private final long mDelayNanos;
+
+    private DelayingSignerFactory(String name, SignerFactory delegate, long delayNanos) {
+      mName = name;
+      mDelegate = delegate;
+      mDelayNanos = delayNanos;
+    }
+
+    @Override
+    public String getName() {
+      return mName;
+    }
+
+    @Override
+    public Signer createSigner(byte[] key) throws GeneralSecurityException {
+      final Signer signer = mDelegate.createSigner(key);
+      return new Signer() {
+        @Override
+        public byte[] sign(byte[] data) throws GeneralSecurityException {
+          long endTime = System.nanoTime() + mDelayNanos;
+          while (System.nanoTime() < endTime) {}
+          return signer.sign(data);
+        }
+      };
+    }
+  }
+
+  /**
+   * Factory wrapping another one and spinning after each of a range of signatures of each signer.
+   */
+  private static class StallingSignerFactory implements SignerFactory {
+    private final String mName;
+    private final SignerFactory mDelegate;
+    private final int mFirstStalledSignature;
+    private final int mStalledSignatureCount;
+    private final long mDelayNanos;
+
+    private StallingSignerFactory(String name, SignerFactory delegate, int firstStalledSignature,
+        int stalledSignatureCount, long delayNanos) {
+      mName = name;
+      mDelegate = delegate;
+      mFirstStalledSignature = firstStalledSignature;
+      mStalledSignatureCount = stalledSignatureCount;
+      mDelayNanos = delayNanos;
+    }
+
+    @Override
+    public String getName() {
+      return mName;
+    }
+
+    @Override
+    public Signer createSigner(byte[] key) throws GeneralSecurityException {
+      final Signer signer = mDelegate.createSigner(key);
+      return new Signer() {
+        private int mSignatureCount;
+
+        @Override
+        public byte[] sign(byte[] data) throws GeneralSecurityException {
+          int signature = mSignatureCount++;
+          if ((signature >= mFirstStalledSignature)
+              && (signature < mFirstStalledSignature + mStalledSignatureCount)) {
+            long endTime = System.nanoTime() + mDelayNanos;
+            while (System.nanoTime() < endTime) {}
+          }
+          return signer.sign(data);
+        }
+      };
+    }
+  }
+
+  /** Factory which is fast but produces incorrect signatures. */
+  private static class BrokenSignerFactory implements SignerFactory {
+    @Override
+    public String getName() {
+      return "broken";
+    }
+
+    @Override
+    public Signer createSigner(byte[] key) {
+      return new Signer() {
+        @Override
+        public byte[] sign(byte[] data) {
+          return new byte[20];
+        }
+      };
+    }
+  }
+
+  /** Factory whose backend is not installed. */
+  private static class UnavailableSignerFactory implements SignerFactory {
+    @Override
+    public String getName() {
+      return "unavailable";
+    }
+
+    @Override
+    public Signer createSigner(byte[] key) throws GeneralSecurityException {
+      throw new NoSuchProviderException();
+    }
+  }
+}
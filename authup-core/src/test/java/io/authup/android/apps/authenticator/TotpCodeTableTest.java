@@ -0,0 +1,189 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import io.authup.android.apps.authenticator.PasscodeGenerator.Signer;
+
+import junit.framework.TestCase;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Unit tests for {@link TotpCodeTable}.
+ */
+public class TotpCodeTableTest extends TestCase {
+
+  /*
+   * Codes of the 7777777777777777 secret around interval 1234:
+   *   1232, 628381
+   *   1233, 083501
+   *   1234, 607007
+   *   1235, 972746
+   *   1236, 706552
+   *   1237, 342936
+   */
+
+  private FakeClock mClock;
+  private PasscodeGenerator mGenerator;
+  private int mSignatureCount;
+  private TotpCodeTable mTable;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mClock = new FakeClock();
+
+    final Mac mac = Mac.getInstance("HMACSHA1");
+    mac.init(new SecretKeySpec(Base32String.decode("7777777777777777"), ""));
+    mGenerator = new PasscodeGenerator(new Signer() {
+      @Override
+      public byte[] sign(byte[] data) throws GeneralSecurityException {
+        mSignatureCount++;
+        return mac.doFinal(data);
+      }
+    });
+    mTable = new TotpCodeTable(new TotpCounter(30), mClock, 1, 1, 2);
+  }
+
+  public void testFindTimeoutCodeOffset() throws Exception {
+    withTotpClockCurrentInterval(1234);
+    assertEquals(0, mTable.findTimeoutCodeOffset("johndoe@gmail.com", mGenerator, 607007));
+    assertEquals(1, mTable.findTimeoutCodeOffset("johndoe@gmail.com", mGenerator, 972746));
+    assertEquals(-1, mTable.findTimeoutCodeOffset("johndoe@gmail.com", mGenerator, 83501));
+    assertEquals(PasscodeGenerator.NO_MATCH,
+        mTable.findTimeoutCodeOffset("johndoe@gmail.com", mGenerator, 628381));
+    assertEquals(PasscodeGenerator.NO_MATCH,
+        mTable.findTimeoutCodeOffset("johndoe@gmail.com", mGenerator, 706552));
+  }
+
+  public void testCodesComputedOncePerInterval() throws Exception {
+    withTotpClockCurrentInterval(1234);
+    for (int i = 0; i < 10; i++) {
+      mTable.findTimeoutCodeOffset("johndoe@gmail.com", mGenerator, i);
+    }
+    assertEquals(3, mSignatureCount);
+
+    // Only the code of the interval entering the window is computed
+    withTotpClockCurrentInterval(1235);
+    assertEquals(1, mTable.findTimeoutCodeOffset("johndoe@gmail.com", mGenerator, 706552));
+    assertEquals(-1, mTable.findTimeoutCodeOffset("johndoe@gmail.com", mGenerator, 607007));
+    assertEquals(4, mSignatureCount);
+
+    // All codes are computed when the window moves by more than its size
+    withTotpClockCurrentInterval(1240);
+    mTable.findTimeoutCodeOffset("johndoe@gmail.com", mGenerator, 0);
+    assertEquals(7, mSignatureCount);
+  }
+
+  public void testCodesRecomputedForNewGenerator() throws Exception {
+    withTotpClockCurrentInterval(1234);
+    mTable.findTimeoutCodeOffset("johndoe@gmail.com", mGenerator, 0);
+    PasscodeGenerator otherGenerator = new PasscodeGenerator(
+        Signers.forSecret("2222222222222222"));
+    assertEquals(0, mTable.findTimeoutCodeOffset(
+        "johndoe@gmail.com", otherGenerator, otherGenerator.generateCode(1234)));
+    assertEquals(PasscodeGenerator.NO_MATCH,
+        mTable.findTimeoutCodeOffset("johndoe@gmail.com", otherGenerator, 607007));
+  }
+
+  public void testIdleAccountsEvicted() throws Exception {
+    withTotpClockCurrentInterval(1234);
+    mTable.findTimeoutCodeOffset("johndoe@gmail.com", mGenerator, 0);
+    mTable.findTimeoutCodeOffset("maryweiss@yahoo.com", mGenerator, 0);
+    assertEquals(2, mTable.size());
+
+    withTotpClockCurrentInterval(1236);
+    mTable.findTimeoutCodeOffset("maryweiss@yahoo.com", mGenerator, 0);
+    assertEquals(2, mTable.size());
+
+    withTotpClockCurrentInterval(1237);
+    mTable.findTimeoutCodeOffset("maryweiss@yahoo.com", mGenerator, 0);
+    assertEquals(1, mTable.size());
+
+    mTable.remove("maryweiss@yahoo.com");
+    assertEquals(0, mTable.size());
+  }
+
+  public void testStaleClockReadDoesNotReplaceNewerWindow() throws Exception {
+    withTotpClockCurrentInterval(1235);
+    mTable.findTimeoutCodeOffset("johndoe@gmail.com", mGenerator, 0);
+    assertEquals(3, mSignatureCount);
+
+    // A verifier whose clock was read before the step boundary
+    withTotpClockCurrentInterval(1234);
+    assertEquals(-1, mTable.findTimeoutCodeOffset("johndoe@gmail.com", mGenerator, 83501));
+    assertEquals(6, mSignatureCount);
+
+    withTotpClockCurrentInterval(1235);
+    assertEquals(1, mTable.findTimeoutCodeOffset("johndoe@gmail.com", mGenerator, 706552));
+    assertEquals(6, mSignatureCount);
+  }
+
+  public void testAccountsVerifiedWhileAnotherAccountIsComputed() throws Exception {
+    withTotpClockCurrentInterval(1234);
+    final CountDownLatch signingStarted = new CountDownLatch(1);
+    final CountDownLatch signingReleased = new CountDownLatch(1);
+    final PasscodeGenerator blockingGenerator = new PasscodeGenerator(new Signer() {
+      @Override
+      public byte[] sign(byte[] data) {
+        signingStarted.countDown();
+        try {
+          signingReleased.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return new byte[20];
+      }
+    });
+    Thread blockedVerifier = new Thread() {
+      @Override
+      public void run() {
+        try {
+          mTable.findTimeoutCodeOffset("maryweiss@yahoo.com", blockingGenerator, 0);
+        } catch (GeneralSecurityException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    blockedVerifier.start();
+    try {
+      assertTrue(signingStarted.await(10, TimeUnit.SECONDS));
+      assertEquals(0, mTable.findTimeoutCodeOffset("johndoe@gmail.com", mGenerator, 607007));
+    } finally {
+      signingReleased.countDown();
+      blockedVerifier.join();
+    }
+  }
+
+  private void withTotpClockCurrentInterval(long interval) {
+    mClock.mTimeMillis = interval * 30 * 1000;
+  }
+
+  private static class FakeClock implements Clock {
+    volatile long mTimeMillis;
+
+    @Override
+    public long currentTimeMillis() {
+      return mTimeMillis;
+    }
+  }
+}
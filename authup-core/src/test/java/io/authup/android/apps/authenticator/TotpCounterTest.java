@@ -14,7 +14,7 @@
  * limitations under the License.
  */
 
-package com.google.android.apps.authenticator;
+package io.authup.android.apps.authenticator;
 
 import junit.framework.TestCase;
 
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.authup.android.apps.authenticator;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link TotpReplayCache}.
+ */
+public class TotpReplayCacheTest extends TestCase {
+
+  private FakeClock mClock;
+  private TotpReplayCache mCache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mClock = new FakeClock();
+    mCache = new TotpReplayCache(new TotpCounter(30), mClock, 1, 1);
+  }
+
+  public void testReplayRejected() {
+    withTotpClockCurrentInterval(100);
+    assertTrue(mCache.markUsed(1, 100));
+    assertFalse(mCache.markUsed(1, 100));
+    // Other accounts and other intervals are independent
+    assertTrue(mCache.markUsed(2, 100));
+    assertTrue(mCache.markUsed(1, 99));
+    assertTrue(mCache.markUsed(1, 101));
+    assertFalse(mCache.markUsed(1, 99));
+    assertFalse(mCache.markUsed(1, 101));
+  }
+
+  public void testValuesOutsideOfWindowRejected() {
+    withTotpClockCurrentInterval(100);
+    assertFalse(mCache.markUsed(1, 98));
+    assertFalse(mCache.markUsed(1, 102));
+  }
+
+  public void testReplayRejectedWhileWindowMoves() {
+    withTotpClockCurrentInterval(100);
+    assertTrue(mCache.markUsed(1, 101));
+
+    withTotpClockCurrentInterval(101);
+    assertFalse(mCache.markUsed(1, 101));
+    withTotpClockCurrentInterval(102);
+    assertFalse(mCache.markUsed(1, 101));
+
+    // Interval 101 left the window and its bucket is reused for 104
+    withTotpClockCurrentInterval(103);
+    assertFalse(mCache.markUsed(1, 101));
+    assertTrue(mCache.markUsed(1, 104));
+    assertFalse(mCache.markUsed(1, 104));
+  }
+
+  public void testReplayRejectedAfterStaleClockRead() {
+    // A verifier whose clock was read just before the step boundary must not reset the bucket of
+    // the newer step
+    mCache = new TotpReplayCache(new TotpCounter(30), mClock, 0, 0);
+    withTotpClockCurrentInterval(101);
+    assertTrue(mCache.markUsed(1, 101));
+    withTotpClockCurrentInterval(100);
+    assertFalse(mCache.markUsed(2, 100));
+    withTotpClockCurrentInterval(101);
+    assertFalse(mCache.markUsed(1, 101));
+
+    // The same with a window of several intervals, where 101 and 104 share a bucket
+    mCache = new TotpReplayCache(new TotpCounter(30), mClock, 1, 1);
+    withTotpClockCurrentInterval(103);
+    assertTrue(mCache.markUsed(1, 104));
+    withTotpClockCurrentInterval(102);
+    assertFalse(mCache.markUsed(2, 101));
+    withTotpClockCurrentInterval(103);
+    assertFalse(mCache.markUsed(1, 104));
+  }
+
+  public void testManyAccounts() {
+    withTotpClockCurrentInterval(100);
+    for (long accountId = 0; accountId < 1000; accountId++) {
+      assertTrue(mCache.markUsed(accountId * 31, 100));
+    }
+    for (long accountId = 0; accountId < 1000; accountId++) {
+      assertFalse(mCache.markUsed(accountId * 31, 100));
+    }
+  }
+
+  public void testConcurrentVerifiersAcceptCodeOnce() throws Exception {
+    withTotpClockCurrentInterval(100);
+    final int threadCount = 8;
+    final int accountCount = 500;
+    final AtomicInteger acceptedCount = new AtomicInteger();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            startLatch.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (long accountId = 0; accountId < accountCount; accountId++) {
+            if (mCache.markUsed(accountId, 100)) {
+              acceptedCount.incrementAndGet();
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    startLatch.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(accountCount, acceptedCount.get());
+  }
+
+  private void withTotpClockCurrentInterval(long interval) {
+    mClock.mTimeMillis = interval * 30 * 1000;
+  }
+
+  private static class FakeClock implements Clock {
+    volatile long mTimeMillis;
+
+    @Override
+    public long currentTimeMillis() {
+      return mTimeMillis;
+    }
+  }
+}